@@ -0,0 +1,165 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.SiteNode;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The alerts of a delta report: those not yet uploaded to the server and project of a
+ * {@link UploadWatermarks.Watermark watermark}, or all of them for a full upload. Once the report
+ * is uploaded the watermark is updated with {@link #commit()}.
+ * <p>
+ * The alerts are worked out before the report is generated, so that the report is not generated
+ * if there are none, and the report then includes exactly those, even if the watermark changes
+ * meanwhile.
+ */
+public class AlertDelta {
+
+	private static final Logger LOGGER = LogManager.getLogger(AlertDelta.class);
+
+	private final UploadWatermarks.Watermark watermark;
+	private final boolean full;
+	// Sorted and distinct, of the alerts included
+	private final long[] fingerprints;
+	private final int newAlerts;
+	private final int unchangedAlerts;
+
+	private AlertDelta(UploadWatermarks.Watermark watermark, boolean full, long[] fingerprints, int newAlerts, int unchangedAlerts) {
+		this.watermark = watermark;
+		this.full = full;
+		this.fingerprints = fingerprints;
+		this.newAlerts = newAlerts;
+		this.unchangedAlerts = unchangedAlerts;
+	}
+
+	/**
+	 * Works out the alerts of the given report to upload, those of its sites in its scope.
+	 *
+	 * @param full {@code true} to upload all the alerts, replacing the watermark once uploaded
+	 */
+	public static AlertDelta compute(UploadWatermarks.Watermark watermark, ReportLastScanHttp report, boolean full) {
+		Builder builder = new Builder(watermark, full);
+		for (SiteNode site : report.getSites()) {
+			report.getAlerts(site).forEach(builder::add);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Works out which of the given alerts are not yet uploaded, e.g. those just raised. Only the
+	 * given alerts are included in the report.
+	 */
+	public static AlertDelta of(UploadWatermarks.Watermark watermark, Collection<Alert> alerts) {
+		Builder builder = new Builder(watermark, false);
+		alerts.forEach(builder::add);
+		return builder.build();
+	}
+
+	/**
+	 * Tells whether or not the given alert is included in the report.
+	 */
+	public boolean isIncluded(Alert alert) {
+		return Arrays.binarySearch(fingerprints, AlertFingerprint.of(alert)) >= 0;
+	}
+
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Gets the number of alerts not yet uploaded.
+	 */
+	public int getNewAlerts() {
+		return newAlerts;
+	}
+
+	/**
+	 * Gets the number of alerts already uploaded, included only in a full upload.
+	 */
+	public int getUnchangedAlerts() {
+		return unchangedAlerts;
+	}
+
+	/**
+	 * Tells whether or not there is nothing to upload, no new alerts in a delta report.
+	 */
+	public boolean isEmpty() {
+		return !full && newAlerts == 0;
+	}
+
+	/**
+	 * Records in the watermark that the alerts of the report were uploaded. A failure is logged,
+	 * the alerts are then uploaded again with the next report.
+	 */
+	public void commit() {
+		try {
+			if (full) {
+				watermark.replace(fingerprints);
+			} else {
+				watermark.add(fingerprints);
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Failed to update the upload watermark: {}", e.getMessage());
+		}
+	}
+
+	private static class Builder {
+		private final UploadWatermarks.Watermark watermark;
+		private final boolean full;
+		private long[] included = new long[64];
+		private int count;
+		private int newAlerts;
+		private int unchangedAlerts;
+
+		Builder(UploadWatermarks.Watermark watermark, boolean full) {
+			this.watermark = watermark;
+			this.full = full;
+		}
+
+		void add(Alert alert) {
+			if (alert.getConfidence() == Alert.CONFIDENCE_FALSE_POSITIVE) {
+				return;
+			}
+			long fingerprint = AlertFingerprint.of(alert);
+			boolean uploaded = watermark.contains(fingerprint);
+			if (uploaded) {
+				unchangedAlerts++;
+			} else {
+				newAlerts++;
+			}
+			if (full || !uploaded) {
+				if (count == included.length) {
+					included = Arrays.copyOf(included, count * 2);
+				}
+				included[count++] = fingerprint;
+			}
+		}
+
+		AlertDelta build() {
+			long[] distinct = Arrays.stream(included, 0, count).sorted().distinct().toArray();
+			return new AlertDelta(watermark, full, distinct, newAlerts, unchangedAlerts);
+		}
+	}
+}
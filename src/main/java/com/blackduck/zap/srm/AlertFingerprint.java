@@ -0,0 +1,76 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.parosproxy.paros.core.scanner.Alert;
+
+/**
+ * A 64-bit fingerprint of an alert, stable across sessions and ZAP restarts: the 64-bit FNV-1a
+ * hash of its plugin id, URI, parameter and evidence.
+ */
+public final class AlertFingerprint {
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private AlertFingerprint() {
+	}
+
+	/**
+	 * Gets the fingerprint of the given alert.
+	 */
+	public static long of(Alert alert) {
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, alert.getPluginId());
+		hash = hash(hash, alert.getUri());
+		hash = hash(hash, alert.getParam());
+		return hash(hash, alert.getEvidence());
+	}
+
+	/**
+	 * Gets the fingerprint of the given strings, e.g. to name a file after them.
+	 */
+	static long of(String... values) {
+		long hash = FNV_OFFSET_BASIS;
+		for (String value : values) {
+			hash = hash(hash, value);
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, int value) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, String value) {
+		if (value == null) {
+			// Distinct from the empty string
+			return hash(hash, -1);
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		// Separates the values, "ab" + "c" is not "a" + "bc"
+		return hash(hash, value.length());
+	}
+}
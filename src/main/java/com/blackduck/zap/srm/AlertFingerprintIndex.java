@@ -0,0 +1,347 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.Constant;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@link AlertFingerprint fingerprints} of the alerts already written to a report, kept
+ * across sessions and ZAP restarts, for the reports to mark or skip the alerts seen before.
+ * <p>
+ * The fingerprints are kept in an open addressing hash table of longs, with linear probing, in a
+ * memory mapped file. A lookup reads the mapped file directly, without locking nor allocating,
+ * and the table is only read from disk as needed. Once the table is 70% full it is copied to a
+ * file twice as large, up to {@link #MAX_CAPACITY} fingerprints, after which new fingerprints are
+ * no longer recorded. The larger file is written aside and moved once complete, so that the index
+ * files are always complete.
+ */
+public class AlertFingerprintIndex implements AutoCloseable {
+
+	private static final Logger LOGGER = LogManager.getLogger(AlertFingerprintIndex.class);
+
+	static final String INDEX_DIR = "srm-fingerprints";
+	private static final String INDEX_PREFIX = "fingerprints-";
+	private static final String INDEX_EXTENSION = ".idx";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	static final int MIN_CAPACITY = 1 << 16;
+	// 1 GiB of fingerprints, a single mapping is limited to 2 GiB
+	static final int MAX_CAPACITY = 1 << 27;
+
+	private static final int MAGIC = 0x53524d46;
+	private static final int VERSION = 1;
+	// magic, version, capacity, size and whether or not the fingerprint 0 is recorded
+	private static final int HEADER_SIZE = 32;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int SIZE_OFFSET = 12;
+	private static final int ZERO_OFFSET = 16;
+
+	private static AlertFingerprintIndex shared;
+
+	private final Path directory;
+	private volatile Table table;
+	private boolean full;
+
+	AlertFingerprintIndex(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		table = open();
+	}
+
+	/**
+	 * Gets the index kept in the ZAP home directory, opening it if needed.
+	 *
+	 * @throws IOException if the index could not be opened
+	 */
+	public static synchronized AlertFingerprintIndex getShared() throws IOException {
+		if (shared == null) {
+			shared = new AlertFingerprintIndex(new File(Constant.getZapHome(), INDEX_DIR).toPath());
+		}
+		return shared;
+	}
+
+	/**
+	 * Closes the index kept in the ZAP home directory, if opened.
+	 */
+	public static synchronized void closeShared() {
+		if (shared != null) {
+			shared.close();
+			shared = null;
+		}
+	}
+
+	/**
+	 * Tells whether or not the given fingerprint was recorded.
+	 */
+	public boolean contains(long fingerprint) {
+		return table.contains(fingerprint);
+	}
+
+	/**
+	 * Records the given fingerprint.
+	 *
+	 * @return {@code true} if it was not yet recorded, {@code false} otherwise or if the index is
+	 *     full
+	 */
+	public synchronized boolean add(long fingerprint) throws IOException {
+		if (table.contains(fingerprint)) {
+			return false;
+		}
+		if (fingerprint != 0 && table.needsGrowing()) {
+			if (table.capacity >= MAX_CAPACITY) {
+				if (!full) {
+					full = true;
+					LOGGER.warn("The alert fingerprint index is full, new alerts are no longer recorded");
+				}
+				return false;
+			}
+			grow();
+		}
+		table.add(fingerprint);
+		return true;
+	}
+
+	/**
+	 * Gets the number of fingerprints recorded.
+	 */
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * Writes the recorded fingerprints to disk.
+	 */
+	@Override
+	public synchronized void close() {
+		table.buffer.force();
+	}
+
+	private void grow() throws IOException {
+		Table current = table;
+		Table grown = create(current.capacity * 2, current);
+		table = grown;
+		LOGGER.debug("Grew the alert fingerprint index to {} fingerprints", grown.capacity);
+		deleteQuietly(getFile(current.capacity));
+	}
+
+	/**
+	 * Creates an index file with the given capacity, with the fingerprints of the given table, if
+	 * any. The file is written aside and moved once written to disk, a crash never leaves an
+	 * incomplete index file, only a temporary file deleted when the index is next opened.
+	 */
+	private Table create(int capacity, Table from) throws IOException {
+		Path file = getFile(capacity);
+		Path tempFile = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+		Table created = Table.create(tempFile, capacity);
+		if (from != null) {
+			from.copyTo(created);
+		}
+		created.buffer.force();
+		// The mapping stays valid once the file is moved
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return created;
+	}
+
+	/**
+	 * Opens the largest index file, deleting the others, the left overs of an index that grew, or
+	 * creates an empty index if there is none.
+	 */
+	private Table open() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, INDEX_PREFIX + "*" + TEMP_EXTENSION)) {
+			// Left by an index that did not finish growing
+			files.forEach(AlertFingerprintIndex::deleteQuietly);
+		}
+		Path largest = null;
+		int largestCapacity = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, INDEX_PREFIX + "*" + INDEX_EXTENSION)) {
+			for (Path file : files) {
+				int capacity = getCapacity(file);
+				if (capacity > largestCapacity) {
+					if (largest != null) {
+						deleteQuietly(largest);
+					}
+					largest = file;
+					largestCapacity = capacity;
+				} else {
+					deleteQuietly(file);
+				}
+			}
+		}
+		if (largest != null) {
+			try {
+				return Table.open(largest, largestCapacity);
+			} catch (IOException e) {
+				LOGGER.warn("Discarding the invalid alert fingerprint index {}: {}", largest, e.getMessage());
+				deleteQuietly(largest);
+			}
+		}
+		return create(MIN_CAPACITY, null);
+	}
+
+	private Path getFile(int capacity) {
+		return directory.resolve(INDEX_PREFIX + Integer.numberOfTrailingZeros(capacity) + INDEX_EXTENSION);
+	}
+
+	private static int getCapacity(Path file) {
+		String name = file.getFileName().toString();
+		try {
+			int bits = Integer.parseInt(name.substring(INDEX_PREFIX.length(), name.length() - INDEX_EXTENSION.length()));
+			return bits > 0 && (1 << bits) >= MIN_CAPACITY && (1 << bits) <= MAX_CAPACITY ? 1 << bits : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// Still mapped on some platforms, deleted when the index is next opened
+			LOGGER.debug("Failed to delete {}: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * A table of fingerprints mapped from a file, the empty slots hold 0.
+	 */
+	private static class Table {
+		private final MappedByteBuffer buffer;
+		private final int capacity;
+		private final int mask;
+
+		private Table(MappedByteBuffer buffer, int capacity) {
+			this.buffer = buffer;
+			this.capacity = capacity;
+			this.mask = capacity - 1;
+		}
+
+		/**
+		 * Creates an empty table in the given file, truncating what it held.
+		 */
+		static Table create(Path file, int capacity) throws IOException {
+			Table table = new Table(map(file, capacity, true), capacity);
+			table.buffer.putInt(0, MAGIC);
+			table.buffer.putInt(4, VERSION);
+			table.buffer.putInt(CAPACITY_OFFSET, capacity);
+			table.buffer.putInt(SIZE_OFFSET, 0);
+			table.buffer.putInt(ZERO_OFFSET, 0);
+			return table;
+		}
+
+		static Table open(Path file, int capacity) throws IOException {
+			if (Files.size(file) != HEADER_SIZE + (long) capacity * Long.BYTES) {
+				throw new IOException("Unexpected size");
+			}
+			Table table = new Table(map(file, capacity, false), capacity);
+			if (table.buffer.getInt(0) != MAGIC
+					|| table.buffer.getInt(4) != VERSION
+					|| table.buffer.getInt(CAPACITY_OFFSET) != capacity) {
+				throw new IOException("Unexpected header");
+			}
+			return table;
+		}
+
+		/**
+		 * @param truncate {@code true} to empty the file first, the slots are then all 0
+		 */
+		private static MappedByteBuffer map(Path file, int capacity, boolean truncate) throws IOException {
+			try (FileChannel channel = truncate
+					? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)
+					: FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// The mapping stays valid once the channel is closed
+				return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * Long.BYTES);
+			}
+		}
+
+		int size() {
+			return buffer.getInt(SIZE_OFFSET);
+		}
+
+		boolean needsGrowing() {
+			return (size() + 1L) * 10 > capacity * 7L;
+		}
+
+		boolean contains(long fingerprint) {
+			if (fingerprint == 0) {
+				return buffer.getInt(ZERO_OFFSET) != 0;
+			}
+			for (int slot = slot(fingerprint); ; slot = (slot + 1) & mask) {
+				long value = buffer.getLong(offset(slot));
+				if (value == fingerprint) {
+					return true;
+				}
+				if (value == 0) {
+					return false;
+				}
+			}
+		}
+
+		/**
+		 * Adds the given fingerprint, not yet recorded, the table having room for it.
+		 */
+		void add(long fingerprint) {
+			if (fingerprint == 0) {
+				buffer.putInt(ZERO_OFFSET, 1);
+			} else {
+				int slot = slot(fingerprint);
+				while (buffer.getLong(offset(slot)) != 0) {
+					slot = (slot + 1) & mask;
+				}
+				buffer.putLong(offset(slot), fingerprint);
+			}
+			buffer.putInt(SIZE_OFFSET, size() + 1);
+		}
+
+		void copyTo(Table other) {
+			if (buffer.getInt(ZERO_OFFSET) != 0) {
+				other.add(0);
+			}
+			for (int slot = 0; slot < capacity; slot++) {
+				long value = buffer.getLong(offset(slot));
+				if (value != 0) {
+					other.add(value);
+				}
+			}
+		}
+
+		private int slot(long fingerprint) {
+			// The fingerprints are hashes already, mixed for the low bits to spread evenly
+			long h = fingerprint;
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			return (int) h & mask;
+		}
+
+		private static int offset(int slot) {
+			return HEADER_SIZE + slot * Long.BYTES;
+		}
+	}
+}
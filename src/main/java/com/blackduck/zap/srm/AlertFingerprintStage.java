@@ -0,0 +1,92 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.core.scanner.Alert;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fingerprints of the alerts written to a report that are not yet in the
+ * {@link AlertFingerprintIndex}. They are recorded in the index with {@link #commit()} once the
+ * report is uploaded, the alerts of a report exported, previewed or not uploaded are not seen.
+ * <p>
+ * The shards of a report are written at the same time, the stage is thread safe.
+ */
+public class AlertFingerprintStage {
+
+	private static final Logger LOGGER = LogManager.getLogger(AlertFingerprintStage.class);
+
+	private final AlertFingerprintIndex index;
+	private final Set<Long> staged = ConcurrentHashMap.newKeySet();
+
+	AlertFingerprintStage(AlertFingerprintIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Creates a stage over the index kept in the ZAP home directory.
+	 *
+	 * @return the stage, or {@code null} if the index could not be opened, all the alerts are
+	 *     then included
+	 */
+	public static AlertFingerprintStage create() {
+		try {
+			return new AlertFingerprintStage(AlertFingerprintIndex.getShared());
+		} catch (IOException e) {
+			LOGGER.warn("Failed to open the alert fingerprint index, including all the alerts: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Tells whether or not the given alert was recorded, or already written to this report,
+	 * staging it otherwise.
+	 */
+	public boolean isSeen(Alert alert) {
+		long fingerprint = AlertFingerprint.of(alert);
+		// The lookup is lock free, as is staging an alert
+		return index.contains(fingerprint) || !staged.add(fingerprint);
+	}
+
+	/**
+	 * Gets the number of alerts staged.
+	 */
+	public int size() {
+		return staged.size();
+	}
+
+	/**
+	 * Records the staged alerts in the index, once the report is uploaded. A failure is logged,
+	 * the alerts are then not seen by the next reports.
+	 */
+	public void commit() {
+		try {
+			for (long fingerprint : staged) {
+				index.add(fingerprint);
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Failed to record the alerts uploaded in the fingerprint index: {}", e.getMessage());
+		}
+		staged.clear();
+	}
+}
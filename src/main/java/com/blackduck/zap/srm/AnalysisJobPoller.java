@@ -0,0 +1,341 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows the analysis jobs started by the uploads, until Software Risk Manager finishes them.
+ * <p>
+ * All the jobs are scheduled by a single thread, each job waiting twice as long as the previous
+ * time before being polled again, up to a maximum, rather than having a thread wait for each job.
+ * The status requests are sent on the executor of the extension, so that a slow server does not
+ * hold up the other jobs, and are aborted if the server takes longer than a few seconds to answer,
+ * the job is then polled again later. The most recent finished jobs are kept, the older ones are
+ * forgotten.
+ */
+public class AnalysisJobPoller {
+
+	private static final Logger LOGGER = LogManager.getLogger(AnalysisJobPoller.class);
+
+	static final long INITIAL_DELAY_MS = 2000;
+	static final long STATUS_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(15);
+	static final long MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+	static final long MAX_TRACKING_MS = TimeUnit.HOURS.toMillis(6);
+	static final int MAX_FINISHED_JOBS = 100;
+
+	public enum Status {
+		QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED, UNKNOWN;
+
+		boolean isFinished() {
+			return this == COMPLETED || this == FAILED || this == CANCELLED || this == UNKNOWN;
+		}
+
+		/**
+		 * Gets the status of a job status returned by the server, {@link #RUNNING} for the
+		 * unknown ones as the job is then polled again.
+		 */
+		static Status parse(String value) {
+			if (value != null) {
+				switch (value.trim().toLowerCase(Locale.ROOT)) {
+				case "queued":
+					return QUEUED;
+				case "completed":
+					return COMPLETED;
+				case "failed":
+					return FAILED;
+				case "cancelled":
+				case "canceled":
+					return CANCELLED;
+				default:
+					break;
+				}
+			}
+			return RUNNING;
+		}
+	}
+
+	private final SrmExtension extension;
+	private final long initialDelay;
+	private final long statusTimeout;
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final Map<String, AnalysisJob> jobs = new LinkedHashMap<>();
+
+	public AnalysisJobPoller(SrmExtension extension) {
+		this(extension, INITIAL_DELAY_MS, STATUS_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param initialDelay the time to wait before polling a job the first time, in milliseconds
+	 * @param statusTimeout the time after which a status request is aborted, in milliseconds
+	 */
+	AnalysisJobPoller(SrmExtension extension, long initialDelay, long statusTimeout) {
+		this.extension = extension;
+		this.initialDelay = initialDelay;
+		this.statusTimeout = statusTimeout;
+		scheduler = new ScheduledThreadPoolExecutor(1, SrmExecutor.newThreadFactory("ZAP-SRM-AnalysisPoller-"));
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Parses the id of the analysis job from the response of an upload, e.g.
+	 * {@code {"analysisId": 12, "jobId": "..."}}.
+	 *
+	 * @return the job id, or {@code null} if there is none
+	 */
+	public static String parseJobId(String response) {
+		try {
+			Object json = new JSONParser().parse(response);
+			if (json instanceof JSONObject) {
+				Object jobId = ((JSONObject) json).get("jobId");
+				return jobId != null ? jobId.toString() : null;
+			}
+		} catch (ParseException e) {
+			LOGGER.debug("The upload response is not JSON: {}", e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Starts following the given analysis job.
+	 */
+	public AnalysisJob track(UploadTarget target, String jobId) {
+		AnalysisJob job = new AnalysisJob(target, jobId);
+		synchronized (jobs) {
+			jobs.put(target.getServerUrl() + ' ' + jobId, job);
+		}
+		LOGGER.debug("Following analysis job {} of {}", jobId, target.getServerUrl());
+		schedule(job, initialDelay);
+		return job;
+	}
+
+	/**
+	 * Gets the jobs followed, in the order they were started.
+	 */
+	public List<AnalysisJob> getJobs() {
+		synchronized (jobs) {
+			return new ArrayList<>(jobs.values());
+		}
+	}
+
+	/**
+	 * Gets the most recent job with the given id, or {@code null} if there is none.
+	 */
+	public AnalysisJob get(String jobId) {
+		AnalysisJob found = null;
+		for (AnalysisJob job : getJobs()) {
+			if (job.jobId.equals(jobId)) {
+				found = job;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Stops following the jobs.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private void schedule(AnalysisJob job, long delay) {
+		job.delay = delay;
+		try {
+			scheduler.schedule(() -> extension.getExecutor().execute(() -> poll(job)), delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+		}
+	}
+
+	private void poll(AnalysisJob job) {
+		Status status;
+		try {
+			status = getStatus(job);
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+			return;
+		} catch (IOException | GeneralSecurityException | ParseException e) {
+			LOGGER.debug("Failed to get the status of analysis job {}: {}", job.jobId, e.getMessage());
+			status = null;
+		}
+
+		if (status != null && status.isFinished()) {
+			finish(job, status, null);
+		} else if (System.currentTimeMillis() - job.submitted > MAX_TRACKING_MS) {
+			finish(job, Status.UNKNOWN, "The analysis did not finish in time");
+		} else {
+			if (status != null) {
+				job.status = status;
+			}
+			schedule(job, Math.min(job.delay * 2, MAX_DELAY_MS));
+		}
+	}
+
+	private Status getStatus(AnalysisJob job) throws IOException, GeneralSecurityException, ParseException {
+		CloseableHttpClient client = job.target.getHttpClient(extension);
+		HttpGet get = new HttpGet(job.target.getServerUrl() + "/api/jobs/" + job.jobId);
+		get.setHeader("API-Key", job.target.getApiKey());
+		// Rather than the timeout of the uploads, which can be long for the large reports
+		Future<?> timeout = scheduler.schedule(get::abort, statusTimeout, TimeUnit.MILLISECONDS);
+		HttpResponse response;
+		String body;
+		try {
+			response = client.execute(get);
+			body = response.getEntity() != null ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : "";
+		} finally {
+			timeout.cancel(false);
+		}
+
+		int code = response.getStatusLine().getStatusCode();
+		if (code == 404) {
+			return Status.UNKNOWN;
+		}
+		if (code != 200) {
+			throw new IOException("Unexpected response: " + response.getStatusLine());
+		}
+		Object json = new JSONParser().parse(body);
+		Object status = json instanceof JSONObject ? ((JSONObject) json).get("status") : null;
+		return Status.parse(status != null ? status.toString() : null);
+	}
+
+	private void finish(AnalysisJob job, Status status, String error) {
+		List<Consumer<AnalysisJob>> listeners;
+		synchronized (job) {
+			job.status = status;
+			job.finished = System.currentTimeMillis();
+			job.error = status == Status.UNKNOWN && error == null ? "The analysis job was not found" : error;
+			listeners = new ArrayList<>(job.listeners);
+			job.listeners.clear();
+		}
+		LOGGER.info("Analysis job {} of {} finished: {}", job.jobId, job.target.getServerUrl(), status);
+		for (Consumer<AnalysisJob> listener : listeners) {
+			listener.accept(job);
+		}
+		pruneFinished();
+	}
+
+	private void pruneFinished() {
+		synchronized (jobs) {
+			int finished = 0;
+			for (AnalysisJob job : jobs.values()) {
+				if (job.isFinished()) {
+					finished++;
+				}
+			}
+			Iterator<AnalysisJob> it = jobs.values().iterator();
+			while (finished > MAX_FINISHED_JOBS && it.hasNext()) {
+				if (it.next().isFinished()) {
+					it.remove();
+					finished--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * An analysis job of Software Risk Manager.
+	 */
+	public static class AnalysisJob {
+		private final UploadTarget target;
+		private final String jobId;
+		private final long submitted = System.currentTimeMillis();
+		private final List<Consumer<AnalysisJob>> listeners = new ArrayList<>();
+		private volatile Status status = Status.QUEUED;
+		private volatile long finished;
+		private volatile String error;
+		private long delay;
+
+		private AnalysisJob(UploadTarget target, String jobId) {
+			this.target = target;
+			this.jobId = jobId;
+		}
+
+		public UploadTarget getTarget() {
+			return target;
+		}
+
+		public String getJobId() {
+			return jobId;
+		}
+
+		/**
+		 * Gets when the report was uploaded.
+		 */
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Gets when the job was seen finished, 0 if not yet finished.
+		 */
+		public long getFinished() {
+			return finished;
+		}
+
+		/**
+		 * Gets why the status of the job is unknown, {@code null} otherwise.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		public boolean isFinished() {
+			return status.isFinished();
+		}
+
+		/**
+		 * Calls the given listener once the job is finished, right away if it already is.
+		 */
+		public void whenFinished(Consumer<AnalysisJob> listener) {
+			synchronized (this) {
+				if (!isFinished()) {
+					listeners.add(listener);
+					return;
+				}
+			}
+			listener.accept(this);
+		}
+	}
+}
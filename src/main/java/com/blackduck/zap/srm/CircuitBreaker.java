@@ -0,0 +1,139 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker of a Software Risk Manager server, so that the queued uploads don't keep
+ * hitting a server that is down.
+ * <p>
+ * The circuit opens after a number of consecutive transient failures, the uploads are then
+ * rejected without being sent. Once the open time has elapsed a single upload is let through to
+ * probe the server, closing the circuit if it succeeds or opening it again if it fails.
+ */
+public class CircuitBreaker {
+
+	private static final Logger LOGGER = LogManager.getLogger(CircuitBreaker.class);
+
+	private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+	private enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String server;
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedAt;
+	// The thread sending the probe, while half open
+	private Thread probe;
+
+	CircuitBreaker(String server) {
+		this.server = server;
+	}
+
+	/**
+	 * Gets the circuit breaker of the given server.
+	 */
+	public static CircuitBreaker forServer(String serverUrl) {
+		return BREAKERS.computeIfAbsent(serverUrl, CircuitBreaker::new);
+	}
+
+	/**
+	 * Forgets the state of all servers.
+	 */
+	public static void clear() {
+		BREAKERS.clear();
+	}
+
+	/**
+	 * Tells whether or not a request can be sent to the server now.
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case OPEN:
+			if (System.currentTimeMillis() - openedAt < SrmProperties.getInstance().getCircuitBreakerOpenTime()) {
+				return false;
+			}
+			LOGGER.info("Probing Software Risk Manager server {} after failures", server);
+			state = State.HALF_OPEN;
+			probe = Thread.currentThread();
+			return true;
+		case HALF_OPEN:
+			// A probe is in progress
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Records that the server handled a request.
+	 */
+	public synchronized void recordSuccess() {
+		if (state != State.CLOSED) {
+			LOGGER.info("Software Risk Manager server {} is available again", server);
+		}
+		state = State.CLOSED;
+		probe = null;
+		failures = 0;
+	}
+
+	/**
+	 * Records that a request failed with a transient failure.
+	 */
+	public synchronized void recordFailure() {
+		failures++;
+		int threshold = SrmProperties.getInstance().getCircuitBreakerThreshold();
+		if (state == State.HALF_OPEN || (state == State.CLOSED && threshold > 0 && failures >= threshold)) {
+			LOGGER.warn("Software Risk Manager server {} failed {} times in a row, pausing uploads", server, failures);
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+		probe = null;
+	}
+
+	/**
+	 * Records that a request allowed by the calling thread ended without telling whether the
+	 * server is available, e.g. it was cancelled. If it was the probe another one is let through,
+	 * the circuit is not left half open.
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN && probe == Thread.currentThread()) {
+			state = State.OPEN;
+			probe = null;
+		}
+	}
+
+	/**
+	 * Gets the time, in milliseconds, until a request is let through again, 0 if requests are
+	 * allowed or a probe is in progress.
+	 */
+	public synchronized long getRemainingOpenTime() {
+		if (state != State.OPEN) {
+			return 0;
+		}
+		long elapsed = System.currentTimeMillis() - openedAt;
+		return Math.max(0, SrmProperties.getInstance().getCircuitBreakerOpenTime() - elapsed);
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.Model;
+import org.parosproxy.paros.model.SiteMap;
+import org.parosproxy.paros.model.SiteNode;
+import org.parosproxy.paros.view.View;
+import org.zaproxy.zap.ZAP;
+import org.zaproxy.zap.eventBus.Event;
+import org.zaproxy.zap.eventBus.EventConsumer;
+import org.zaproxy.zap.extension.alert.AlertEventPublisher;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads the alerts to the selected project as they are raised, as small delta reports.
+ * <p>
+ * The ids of the alerts raised, with the message and URI they were raised on, are buffered from
+ * ZAP's alert events and flushed every {@link SrmProperties#getContinuousFlushInterval() interval},
+ * or sooner once {@link SrmProperties#getContinuousFlushAlerts() enough} are buffered. The
+ * alerts are taken from the site tree nodes of their messages, and the report is limited to their
+ * sites, the other sites and alerts are not visited. Only one upload is in
+ * flight at a time: the alerts raised meanwhile are buffered, and flushed together once it is
+ * done. When the buffer overflows, an alert can't be found, or an upload fails, the buffered ids
+ * are dropped and the next upload works out the new alerts from the upload watermark instead, as
+ * does the first one, to catch up with the alerts raised before continuous uploads started.
+ */
+public class ContinuousUploader implements EventConsumer {
+
+	private static final Logger LOGGER = LogManager.getLogger(ContinuousUploader.class);
+
+	private final SrmExtension extension;
+	private final int flushAlerts;
+	private final int flushInterval;
+	private final int bufferSize;
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	// Guarded by this
+	// The buffered alerts, by id
+	private final Map<Integer, BufferedAlert> buffered = new HashMap<>();
+	private int received;
+	private boolean resync = true;
+	private boolean flushRequested;
+	private boolean uploading;
+
+	// Only used by the scheduler thread
+	private boolean targetWarned;
+	private boolean scopeWarned;
+
+	private volatile long uploads;
+	private volatile long uploadedAlerts;
+	private volatile long overflows;
+	private volatile long lastUpload;
+
+	public ContinuousUploader(SrmExtension extension) {
+		this.extension = extension;
+		SrmProperties properties = SrmProperties.getInstance();
+		flushAlerts = Math.max(1, properties.getContinuousFlushAlerts());
+		flushInterval = Math.max(1000, properties.getContinuousFlushInterval());
+		bufferSize = Math.max(flushAlerts, properties.getContinuousBufferSize());
+		scheduler = new ScheduledThreadPoolExecutor(1, SrmExecutor.newThreadFactory("ZAP-SRM-Continuous-"));
+	}
+
+	/**
+	 * Starts listening to the alerts raised and uploading them.
+	 */
+	public void start() {
+		ZAP.getEventBus().registerConsumer(
+				this,
+				AlertEventPublisher.getPublisher().getPublisherName(),
+				AlertEventPublisher.ALERT_ADDED_EVENT);
+		scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		LOGGER.info("Continuous uploads started, every {} alerts or {} ms", flushAlerts, flushInterval);
+	}
+
+	/**
+	 * Stops listening to the alerts raised. An upload already queued is still sent by the
+	 * {@link UploadQueue}, the alerts buffered are uploaded by the first upload of the next
+	 * session.
+	 */
+	public void shutdown() {
+		ZAP.getEventBus().unregisterConsumer(this);
+		scheduler.shutdownNow();
+	}
+
+	@Override
+	public void eventReceived(Event event) {
+		Map<String, String> parameters = event.getParameters();
+		int id = parseId(parameters.get(AlertEventPublisher.ALERT_ID));
+		if (id == -1) {
+			return;
+		}
+		BufferedAlert alert = new BufferedAlert(
+				parseId(parameters.get(AlertEventPublisher.HISTORY_REFERENCE_ID)),
+				parameters.get(AlertEventPublisher.URI));
+
+		boolean flushNow;
+		synchronized (this) {
+			received++;
+			if (!resync) {
+				buffered.put(id, alert);
+				if (buffered.size() > bufferSize) {
+					// The next upload goes through the watermark, which finds these alerts too
+					LOGGER.debug("Continuous upload buffer full, dropping {} alert ids", buffered.size());
+					buffered.clear();
+					resync = true;
+					overflows++;
+				}
+			}
+			flushNow = received >= flushAlerts && !flushRequested && !uploading;
+			if (flushNow) {
+				flushRequested = true;
+			}
+		}
+		if (flushNow) {
+			submitFlush();
+		}
+	}
+
+	/**
+	 * Gets the number of alert events received since the last upload started.
+	 */
+	public synchronized int getPending() {
+		return received;
+	}
+
+	public synchronized boolean isUploading() {
+		return uploading;
+	}
+
+	/**
+	 * Gets the number of reports uploaded, or queued for upload.
+	 */
+	public long getUploads() {
+		return uploads;
+	}
+
+	public long getUploadedAlerts() {
+		return uploadedAlerts;
+	}
+
+	/**
+	 * Gets the number of times the buffer overflowed.
+	 */
+	public long getOverflows() {
+		return overflows;
+	}
+
+	/**
+	 * Gets the time the last report was queued, or 0 if none was.
+	 */
+	public long getLastUpload() {
+		return lastUpload;
+	}
+
+	private void submitFlush() {
+		try {
+			scheduler.execute(this::flush);
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+		}
+	}
+
+	private void flush() {
+		Map<Integer, BufferedAlert> alerts;
+		synchronized (this) {
+			flushRequested = false;
+			if (uploading || (received == 0 && !resync)) {
+				return;
+			}
+			alerts = resync ? null : new HashMap<>(buffered);
+			buffered.clear();
+			received = 0;
+			resync = false;
+			uploading = true;
+		}
+
+		try {
+			UploadTarget target = getUploadTarget();
+			if (target == null) {
+				if (!targetWarned) {
+					LOGGER.warn("Continuous uploads need the server, API key and project to be set");
+					targetWarned = true;
+				}
+				uploaded(false);
+				return;
+			}
+			targetWarned = false;
+
+			ReportOptions options = ReportOptions.fromProperties();
+			scopeWarned = false;
+			UploadWatermarks.Watermark watermark = extension.getUploadWatermarks().get(target.getServerUrl(), target.getProject());
+			Set<SiteNode> sites = new HashSet<>();
+			List<Alert> found = alerts != null ? findAlerts(alerts, options.getScope(), sites) : null;
+			AlertDelta delta;
+			if (found != null) {
+				delta = AlertDelta.of(watermark, found);
+				options = options.withScope(options.getScope().withSites(sites));
+			} else {
+				delta = AlertDelta.compute(watermark, new ReportLastScanHttp(options), false);
+			}
+			if (delta.isEmpty()) {
+				uploaded(true);
+				return;
+			}
+
+			LOGGER.debug("Continuous upload of {} new alerts to project {}", delta.getNewAlerts(), target.getProject());
+			ReportOptions uploaded = options.withDelta(delta).forUpload();
+			extension.getUploadQueue().enqueue(uploaded, target, (item, error) -> {
+				if (error == null) {
+					uploaded.commit();
+					uploadedAlerts += delta.getNewAlerts();
+				} else {
+					LOGGER.warn("Continuous upload failed: {}", error);
+				}
+				uploaded(error == null);
+			});
+			uploads++;
+			lastUpload = System.currentTimeMillis();
+		} catch (InvalidReportScopeException e) {
+			if (!scopeWarned) {
+				LOGGER.error("Continuous uploads paused: {}", e.getMessage());
+				if (extension.hasView()) {
+					String message = e.getMessage();
+					SwingUtilities.invokeLater(() -> View.getSingleton().showWarningDialog(message));
+				}
+				scopeWarned = true;
+			}
+			uploaded(false);
+		} catch (RuntimeException e) {
+			LOGGER.error("Unexpected error while uploading the new alerts: ", e);
+			uploaded(false);
+		}
+	}
+
+	/**
+	 * Called once an upload is done, flushing straight away the alerts buffered meanwhile if
+	 * there are enough of them.
+	 */
+	private void uploaded(boolean success) {
+		boolean flushNow;
+		synchronized (this) {
+			uploading = false;
+			if (!success) {
+				// The watermark was not updated, the next upload finds the alerts again
+				buffered.clear();
+				resync = true;
+			}
+			flushNow = received >= flushAlerts && !flushRequested;
+			if (flushNow) {
+				flushRequested = true;
+			}
+		}
+		if (flushNow) {
+			submitFlush();
+		}
+	}
+
+	/**
+	 * Finds the buffered alerts in scope, in the site tree nodes of their messages, adding their
+	 * sites to the given set.
+	 *
+	 * @return the alerts, or {@code null} if one of them could not be found
+	 */
+	private static List<Alert> findAlerts(Map<Integer, BufferedAlert> alerts, ReportScope scope, Set<SiteNode> sites) {
+		SiteMap siteTree = Model.getSingleton().getSession().getSiteTree();
+		List<Alert> found = new ArrayList<>(alerts.size());
+		for (Map.Entry<Integer, BufferedAlert> entry : alerts.entrySet()) {
+			int id = entry.getKey();
+			BufferedAlert buffered = entry.getValue();
+			SiteNode node = buffered.historyId != -1 ? siteTree.getSiteNode(buffered.historyId) : null;
+			Alert alert = findAlert(node, id);
+			if (alert == null) {
+				// Raised on another message of the same node, e.g. by the active scanner
+				node = findNode(siteTree, buffered.uri);
+				alert = findAlert(node, id);
+			}
+			if (alert == null) {
+				LOGGER.debug("Alert {} not found in the site tree, going through the upload watermark", id);
+				return null;
+			}
+			if (scope.isIncluded(alert)) {
+				found.add(alert);
+				sites.add(getSite(node));
+			}
+		}
+		return found;
+	}
+
+	private static Alert findAlert(SiteNode node, int id) {
+		if (node == null) {
+			return null;
+		}
+		for (Alert alert : node.getAlerts()) {
+			if (alert.getAlertId() == id) {
+				return alert;
+			}
+		}
+		return null;
+	}
+
+	private static SiteNode findNode(SiteMap siteTree, String uri) {
+		if (uri == null) {
+			return null;
+		}
+		try {
+			return siteTree.findNode(new URI(uri, true));
+		} catch (URIException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the site of the given node, the child of the root of the site tree.
+	 */
+	private static SiteNode getSite(SiteNode node) {
+		return (SiteNode) node.getPath()[1];
+	}
+
+	private static int parseId(String id) {
+		if (id == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(id);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static UploadTarget getUploadTarget() {
+		SrmProperties properties = SrmProperties.getInstance();
+		String serverUrl = properties.getServerUrl();
+		String apiKey = properties.getApiKey();
+		String project = properties.getSelectedId();
+		if (serverUrl.isEmpty() || apiKey.isEmpty() || project.isEmpty()) {
+			return null;
+		}
+		return new UploadTarget(serverUrl, apiKey, project, null, false);
+	}
+
+	/**
+	 * An alert raised, as read from its event, to find it in the site tree.
+	 */
+	private static class BufferedAlert {
+		private final int historyId;
+		private final String uri;
+
+		BufferedAlert(int historyId, String uri) {
+			this.historyId = historyId;
+			this.uri = uri;
+		}
+	}
+}
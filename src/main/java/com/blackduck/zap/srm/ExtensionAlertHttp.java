@@ -21,62 +21,227 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.HistoryReference;
 import org.parosproxy.paros.model.SiteNode;
 import org.parosproxy.paros.network.HttpMessage;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ExtensionAlertHttp {
 
 	private static final Logger LOGGER = LogManager.getLogger(ExtensionAlertHttp.class);
 
+	/**
+	 * How the request and response data of the alerts is laid out in the report.
+	 */
+	public enum MessageLayout {
+		/**
+		 * The request and response data is written in each alert, as read by all Software Risk
+		 * Manager versions.
+		 */
+		INLINE,
+		/**
+		 * Each message is written once per site, in a {@code messages} section after the alerts,
+		 * and the alerts reference it with a {@code messageid} holding its history id.
+		 */
+		SHARED;
+
+		/**
+		 * Gets the layout with the given name, ignoring case, or {@link #INLINE} if there is none.
+		 */
+		public static MessageLayout parse(String value) {
+			for (MessageLayout layout : values()) {
+				if (layout.name().equalsIgnoreCase(value.trim())) {
+					return layout;
+				}
+			}
+			return INLINE;
+		}
+	}
+
+	/**
+	 * What is done with the alerts already uploaded in a report, in this or a previous session,
+	 * as recorded in the {@link AlertFingerprintIndex}.
+	 */
+	public enum SeenAlerts {
+		/**
+		 * All the alerts are written, without being recorded.
+		 */
+		INCLUDE,
+		/**
+		 * All the alerts are written, those seen before with a {@code seen} element.
+		 */
+		MARK,
+		/**
+		 * Only the alerts not seen before are written.
+		 */
+		SKIP;
+
+		/**
+		 * Gets the value with the given name, ignoring case, or {@link #INCLUDE} if there is none.
+		 */
+		public static SeenAlerts parse(String value) {
+			for (SeenAlerts seenAlerts : values()) {
+				if (seenAlerts.name().equalsIgnoreCase(value.trim())) {
+					return seenAlerts;
+				}
+			}
+			return INCLUDE;
+		}
+	}
+
+	private final HttpDataLimits limits;
+	private final MessageLayout layout;
+	private final ReportProgress progress;
+	private final SeenAlerts seenAlerts;
+	private final AlertFingerprintStage seenStage;
+
 	public ExtensionAlertHttp() {
+		this(HttpDataLimits.NONE, MessageLayout.INLINE);
+	}
+
+	public ExtensionAlertHttp(HttpDataLimits limits, MessageLayout layout) {
+		this(limits, layout, null);
+	}
+
+	/**
+	 * @param progress the progress to update with each alert written, may be {@code null}
+	 */
+	public ExtensionAlertHttp(HttpDataLimits limits, MessageLayout layout, ReportProgress progress) {
+		this(limits, layout, progress, SeenAlerts.INCLUDE);
+	}
+
+	/**
+	 * @param progress the progress to update with each alert written, may be {@code null}
+	 * @param seenAlerts what is done with the alerts written to a report before, those written
+	 *     are not recorded
+	 */
+	public ExtensionAlertHttp(HttpDataLimits limits, MessageLayout layout, ReportProgress progress, SeenAlerts seenAlerts) {
+		this(limits, layout, progress, seenAlerts, seenAlerts != SeenAlerts.INCLUDE ? AlertFingerprintStage.create() : null);
+	}
+
+	/**
+	 * @param progress the progress to update with each alert written, may be {@code null}
+	 * @param seenAlerts what is done with the alerts written to a report before
+	 * @param seenStage where the alerts written are staged, {@code null} to include all the alerts
+	 */
+	public ExtensionAlertHttp(HttpDataLimits limits, MessageLayout layout, ReportProgress progress, SeenAlerts seenAlerts, AlertFingerprintStage seenStage) {
+		this.limits = limits;
+		this.layout = layout;
+		this.progress = progress;
+		this.seenAlerts = seenAlerts;
+		this.seenStage = seenAlerts != SeenAlerts.INCLUDE ? seenStage : null;
 	}
 
 	public String getXml(SiteNode site) {
-		StringBuilder xml = new StringBuilder();
-		xml.append("<alerts>");
-		List<Alert> alerts = site.getAlerts();
+		StringWriter xml = new StringWriter();
+		try {
+			writeXml(site, xml);
+		} catch (IOException e) {
+			// Not thrown by StringWriter
+			throw new UncheckedIOException(e);
+		}
+		return xml.toString();
+	}
+
+	/**
+	 * Writes the alerts of the given site to the given writer, one alert at a time, so that only
+	 * the alert being written needs to be held in memory.
+	 */
+	public void writeXml(SiteNode site, Writer writer) throws IOException {
+		writeXml(site.getAlerts(), writer);
+	}
+
+	/**
+	 * Writes the given alerts, of a single site, to the given writer.
+	 *
+	 * @see #writeXml(SiteNode, Writer)
+	 */
+	public void writeXml(List<Alert> alerts, Writer writer) throws IOException {
+		// The first alert of each message, the data is read from it once all alerts are written
+		Map<Integer, Alert> sharedMessages = layout == MessageLayout.SHARED ? new LinkedHashMap<>() : null;
+		writer.append("<alerts>");
 		for (Alert alert : alerts) {
 			if (alert.getConfidence() != Alert.CONFIDENCE_FALSE_POSITIVE) {
-				String urlParamXML = getUrlParamXML(alert);
-				xml.append(alert.toPluginXML(urlParamXML));
+				boolean seen = isSeen(alert);
+				if (seen && seenAlerts == SeenAlerts.SKIP) {
+					continue;
+				}
+				String urlParamXML = getUrlParamXML(alert, sharedMessages);
+				if (seen) {
+					urlParamXML += "  <seen>true</seen>\r\n";
+				}
+				writer.append(alert.toPluginXML(urlParamXML));
+				if (progress != null) {
+					progress.alertWritten();
+				}
 			}
 		}
-		xml.append("</alerts>");
-		return xml.toString();
+		writer.append("</alerts>");
+
+		if (sharedMessages != null && !sharedMessages.isEmpty()) {
+			writeMessages(sharedMessages, writer);
+		}
 	}
 
-	private String getHTML(Alert alert) {
+	/**
+	 * Tells whether or not the given alert was seen before, staging it otherwise. Always
+	 * {@code false} if the seen alerts are not tracked.
+	 */
+	private boolean isSeen(Alert alert) {
+		return seenStage != null && seenStage.isSeen(alert);
+	}
+
+	private void writeMessages(Map<Integer, Alert> sharedMessages, Writer writer) throws IOException {
+		writer.append("<messages>\n");
+		for (Map.Entry<Integer, Alert> entry : sharedMessages.entrySet()) {
+			StringBuilder message = new StringBuilder(200);
+			message.append("<message id=\"").append(entry.getKey()).append("\">\n");
+			appendHTML(entry.getValue(), message);
+			message.append("</message>\n");
+			writer.append(message);
+		}
+		writer.append("</messages>");
+	}
+
+	private void appendHTML(Alert alert, StringBuilder httpMessage) {
 		// gets HttpMessage request and response data from each alert and removes illegal and
 		// special characters
-		StringBuilder httpMessage = new StringBuilder();
-
 		HttpMessage message = alert.getMessage();
 
 		if (message == null) {
 			LOGGER.warn(Constant.messages.getString("srm.error.httpMessage", alert.getAlertId()));
-			return httpMessage.toString();
+			return;
 		}
 
-		String requestHeader = message.getRequestHeader().toString();
-		String requestBody = message.getRequestBody().toString();
-		String responseHeader = message.getResponseHeader().toString();
-		String responseBody = message.getResponseBody().toString();
+		String requestHeader = limits.getHeader(message.getRequestHeader());
+		String requestBody = limits.getRequestBody(message.getRequestHeader(), message.getRequestBody());
+		String responseHeader = limits.getHeader(message.getResponseHeader());
+		String responseBody = limits.getResponseBody(message.getResponseHeader(), message.getResponseBody());
 
+		httpMessage.ensureCapacity(httpMessage.length() + requestHeader.length() + requestBody.length()
+				+ responseHeader.length() + responseBody.length() + 64);
 		httpMessage.append("<requestdata>");
-		httpMessage.append(ReportGenerator.entityEncode(requestHeader));
-		httpMessage.append(ReportGenerator.entityEncode(requestBody));
+		ReportGenerator.entityEncode(requestHeader, httpMessage);
+		ReportGenerator.entityEncode(requestBody, httpMessage);
 		httpMessage.append("\n</requestdata>\n");
 		httpMessage.append("<responsedata>");
-		httpMessage.append(ReportGenerator.entityEncode(responseHeader));
-		httpMessage.append(ReportGenerator.entityEncode(responseBody));
+		ReportGenerator.entityEncode(responseHeader, httpMessage);
+		ReportGenerator.entityEncode(responseBody, httpMessage);
 		httpMessage.append("\n</responsedata>\n");
-
-		return httpMessage.toString();
 	}
 
 	public String getUrlParamXML(Alert alert) {
+		return getUrlParamXML(alert, null);
+	}
+
+	private String getUrlParamXML(Alert alert, Map<Integer, Alert> sharedMessages) {
 
 		String uri = alert.getUri();
 		String param = alert.getParam();
@@ -85,14 +250,31 @@ public class ExtensionAlertHttp {
 		String evidence = alert.getEvidence();
 
 		StringBuilder sb = new StringBuilder(200); // ZAP: Changed the type to StringBuilder.
-		sb.append(getHTML(alert));
-		sb.append("  <uri>").append(ReportGenerator.entityEncode(uri)).append("</uri>\r\n");
-		sb.append("  <param>").append(ReportGenerator.entityEncode(param)).append("</param>\r\n");
-		sb.append("  <attack>").append(ReportGenerator.entityEncode(attack)).append("</attack>\r\n");
+		HistoryReference historyRef = sharedMessages != null ? alert.getHistoryRef() : null;
+		if (historyRef != null) {
+			int historyId = historyRef.getHistoryId();
+			sharedMessages.putIfAbsent(historyId, alert);
+			sb.append("<messageid>").append(historyId).append("</messageid>\n");
+		} else {
+			appendHTML(alert, sb);
+		}
+		sb.append("  <uri>");
+		ReportGenerator.entityEncode(uri, sb);
+		sb.append("</uri>\r\n");
+		sb.append("  <param>");
+		ReportGenerator.entityEncode(param, sb);
+		sb.append("</param>\r\n");
+		sb.append("  <attack>");
+		ReportGenerator.entityEncode(attack, sb);
+		sb.append("</attack>\r\n");
 		if (evidence != null && evidence.length() > 0) {
-			sb.append("  <evidence>").append(ReportGenerator.entityEncode(evidence)).append("</evidence>\r\n");
+			sb.append("  <evidence>");
+			ReportGenerator.entityEncode(evidence, sb);
+			sb.append("</evidence>\r\n");
 		}
-		sb.append("  <otherinfo>").append(ReportGenerator.entityEncode(otherInfo)).append("</otherinfo>\r\n");
+		sb.append("  <otherinfo>");
+		ReportGenerator.entityEncode(otherInfo, sb);
+		sb.append("</otherinfo>\r\n");
 		return sb.toString();
 	}
 }
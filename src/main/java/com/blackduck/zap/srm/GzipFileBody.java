@@ -0,0 +1,99 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A multipart file part that gzips the file while it is written to the request, sent as
+ * {@code <file name>.gz}. The compressed size is not known up front, so the request is sent
+ * chunked.
+ */
+public class GzipFileBody extends AbstractContentBody {
+
+	public static final ContentType GZIP_CONTENT_TYPE = ContentType.create("application/gzip");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+
+	public GzipFileBody(File file) {
+		super(GZIP_CONTENT_TYPE);
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String getFilename() {
+		return file.getName() + ".gz";
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		try (InputStream in = Files.newInputStream(file.toPath());
+			 GZIPOutputStream gzip = new NonClosingGzipOutputStream(out)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				gzip.write(buffer, 0, read);
+			}
+		}
+	}
+
+	@Override
+	public String getTransferEncoding() {
+		return MIME.ENC_BINARY;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	/**
+	 * Finishes the compressed data and releases the deflater on close, leaving the request stream
+	 * open for the rest of the multipart entity.
+	 */
+	static class NonClosingGzipOutputStream extends GZIPOutputStream {
+
+		NonClosingGzipOutputStream(OutputStream out) throws IOException {
+			super(out, BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				finish();
+			} finally {
+				def.end();
+			}
+		}
+	}
+}
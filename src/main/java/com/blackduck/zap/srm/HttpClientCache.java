@@ -0,0 +1,397 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long lived HTTP clients, one per Software Risk Manager server and certificate handling, each
+ * backed by its own connection pool so that the TCP connections and TLS sessions are reused
+ * across project refreshes and uploads.
+ * <p>
+ * A client is built again when its settings (timeout, proxy chain or SSL socket factory) change.
+ * The previous one is retired: the requests in progress complete with it, and it is closed once
+ * none is left, their responses read. The clients returned send each request with the current
+ * client of their server, they are shared and callers must not close them.
+ */
+public class HttpClientCache {
+
+	private static final Logger LOGGER = LogManager.getLogger(HttpClientCache.class);
+
+	private static final int MAX_CONNECTIONS = 20;
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+	private static final long MAX_KEEP_ALIVE_MS = TimeUnit.MINUTES.toMillis(1);
+	private static final long MAX_IDLE_SECONDS = 30;
+	private static final int VALIDATE_AFTER_INACTIVITY_MS = 2000;
+
+	private static final ConnectionKeepAliveStrategy KEEP_ALIVE_STRATEGY = (response, context) -> {
+		// Keep the connections for the time the server allows, bound so that idle ones don't linger
+		long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+		return duration > 0 && duration < MAX_KEEP_ALIVE_MS ? duration : MAX_KEEP_ALIVE_MS;
+	};
+
+	private final Map<ClientKey, CachedClient> clients = new HashMap<>();
+	private final Map<ClientKey, SharedClient> sharedClients = new HashMap<>();
+	// Replaced clients with requests still in progress
+	private final List<CachedClient> retired = new ArrayList<>();
+
+	/**
+	 * Gets the client for the given server and certificate handling, building it if there is
+	 * none or if it was built with other settings.
+	 */
+	public synchronized CloseableHttpClient getClient(ClientKey key, ClientSettings settings) {
+		CachedClient cached = clients.get(key);
+		if (cached == null || !cached.settings.equals(settings)) {
+			if (cached != null) {
+				LOGGER.debug("HTTP client settings changed for {}, building a new client", key.server);
+				retired.removeIf(CachedClient::isClosed);
+				retired.add(cached);
+				cached.retire();
+			}
+			clients.put(key, new CachedClient(settings));
+		}
+		return sharedClients.computeIfAbsent(key, SharedClient::new);
+	}
+
+	/**
+	 * Closes all the clients and their connections, aborting the requests in progress.
+	 */
+	public void closeAll() {
+		List<CachedClient> closing;
+		synchronized (this) {
+			closing = new ArrayList<>(clients.values());
+			closing.addAll(retired);
+			clients.clear();
+			retired.clear();
+		}
+		closing.forEach(CachedClient::close);
+	}
+
+	/**
+	 * Gets the current client of the given server, counting a request in progress.
+	 *
+	 * @throws IOException if the clients were closed
+	 */
+	private synchronized CachedClient acquire(ClientKey key) throws IOException {
+		CachedClient cached = clients.get(key);
+		if (cached == null) {
+			throw new IOException("The HTTP client of " + key.server + " is closed");
+		}
+		cached.acquire();
+		return cached;
+	}
+
+	/**
+	 * Gets the current client of the given server, without counting a request.
+	 *
+	 * @throws IllegalStateException if the clients were closed
+	 */
+	private synchronized CachedClient getCurrent(ClientKey key) {
+		CachedClient cached = clients.get(key);
+		if (cached == null) {
+			throw new IllegalStateException("The HTTP client of " + key.server + " is closed");
+		}
+		return cached;
+	}
+
+	/**
+	 * Identifies a client: the server (scheme, host and port) and how invalid certificates are
+	 * handled, either with a dialog or by accepting the given fingerprint.
+	 */
+	public static class ClientKey {
+		private final String server;
+		private final String fingerprint;
+		private final boolean acceptPermanently;
+
+		/**
+		 * @param server the URL of the server, only its scheme, host and port are kept
+		 */
+		public ClientKey(String server, String fingerprint, boolean acceptPermanently) {
+			this.server = getOrigin(server);
+			this.fingerprint = fingerprint;
+			this.acceptPermanently = acceptPermanently;
+		}
+
+		/**
+		 * Gets the scheme, host and port of the given URL, e.g. {@code https://srm.example:443}
+		 * for {@code https://SRM.example/srm/}, or the URL itself if it can not be parsed.
+		 */
+		static String getOrigin(String url) {
+			try {
+				URI uri = new URI(url);
+				if (uri.getScheme() == null || uri.getHost() == null) {
+					return url;
+				}
+				String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+				int port = uri.getPort() != -1 ? uri.getPort() : "https".equals(scheme) ? 443 : 80;
+				return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+			} catch (URISyntaxException e) {
+				return url;
+			}
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ClientKey)) {
+				return false;
+			}
+			ClientKey other = (ClientKey) o;
+			return acceptPermanently == other.acceptPermanently
+					&& server.equals(other.server)
+					&& Objects.equals(fingerprint, other.fingerprint);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(server, fingerprint, acceptPermanently);
+		}
+	}
+
+	/**
+	 * The settings a client is built with. The proxy is {@code null} if no proxy chain is used,
+	 * the proxy credentials are {@code null} if it does not require authentication.
+	 */
+	public static class ClientSettings {
+		private final int timeout;
+		private final SSLConnectionSocketFactory sslSocketFactory;
+		private final HttpHost proxy;
+		private final String proxyUserName;
+		private final String proxyPassword;
+
+		public ClientSettings(
+				int timeout,
+				SSLConnectionSocketFactory sslSocketFactory,
+				HttpHost proxy,
+				String proxyUserName,
+				String proxyPassword) {
+			this.timeout = timeout;
+			this.sslSocketFactory = sslSocketFactory;
+			this.proxy = proxy;
+			this.proxyUserName = proxyUserName;
+			this.proxyPassword = proxyPassword;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ClientSettings)) {
+				return false;
+			}
+			ClientSettings other = (ClientSettings) o;
+			// The socket factories are cached per host, a different instance means different trust
+			return timeout == other.timeout
+					&& sslSocketFactory == other.sslSocketFactory
+					&& Objects.equals(proxy, other.proxy)
+					&& Objects.equals(proxyUserName, other.proxyUserName)
+					&& Objects.equals(proxyPassword, other.proxyPassword);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(timeout, proxy, proxyUserName);
+		}
+	}
+
+	/**
+	 * The client returned for a server, sending each request with its current client.
+	 */
+	private class SharedClient extends CloseableHttpClient {
+		private final ClientKey key;
+
+		SharedClient(ClientKey key) {
+			this.key = key;
+		}
+
+		@Override
+		protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+			CachedClient cached = acquire(key);
+			try {
+				return cached.client.execute(target, request, context);
+			} finally {
+				cached.release();
+			}
+		}
+
+		/**
+		 * Gets the parameters of the current client of the server.
+		 */
+		@Override
+		@Deprecated
+		public HttpParams getParams() {
+			return getCurrent(key).client.getParams();
+		}
+
+		/**
+		 * Gets the connection manager of the current client of the server, replaced with the
+		 * client when its settings change.
+		 */
+		@Override
+		@Deprecated
+		public ClientConnectionManager getConnectionManager() {
+			return getCurrent(key).client.getConnectionManager();
+		}
+
+		/**
+		 * Does nothing, the client is shared, it is closed with the cache.
+		 */
+		@Override
+		public void close() {
+			// Closed by closeAll
+		}
+	}
+
+	private static class CachedClient {
+		private final ClientSettings settings;
+		private final PoolingHttpClientConnectionManager connectionManager;
+		private final CloseableHttpClient client;
+
+		// Guarded by this
+		private int requests;
+		private boolean retired;
+		private boolean closed;
+
+		CachedClient(ClientSettings settings) {
+			this.settings = settings;
+
+			Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+					.register("http", PlainConnectionSocketFactory.getSocketFactory())
+					.register("https", settings.sslSocketFactory)
+					.build();
+			connectionManager = new PoolingHttpClientConnectionManager(socketFactories) {
+				@Override
+				public void releaseConnection(HttpClientConnection conn, Object state, long keepAlive, TimeUnit unit) {
+					super.releaseConnection(conn, state, keepAlive, unit);
+					// The response of a request was read
+					closeIfDone();
+				}
+			};
+			connectionManager.setMaxTotal(MAX_CONNECTIONS);
+			connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+			connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+
+			RequestConfig.Builder configBuilder = RequestConfig.custom()
+					.setConnectTimeout(settings.timeout)
+					.setSocketTimeout(settings.timeout)
+					.setConnectionRequestTimeout(settings.timeout);
+
+			// Not shared, for the client to run the evictor of the idle connections, and shut the
+			// connection manager down once closed
+			HttpClientBuilder builder = HttpClientBuilder.create()
+					.setConnectionManager(connectionManager)
+					.setKeepAliveStrategy(KEEP_ALIVE_STRATEGY)
+					.evictExpiredConnections()
+					.evictIdleConnections(MAX_IDLE_SECONDS, TimeUnit.SECONDS);
+
+			if (settings.proxy != null) {
+				configBuilder.setProxy(settings.proxy);
+
+				if (settings.proxyUserName != null) {
+					BasicCredentialsProvider credsProvider = new BasicCredentialsProvider();
+					credsProvider.setCredentials(
+							new AuthScope(settings.proxy.getHostName(), settings.proxy.getPort()),
+							new UsernamePasswordCredentials(settings.proxyUserName, settings.proxyPassword)
+					);
+					builder.setDefaultCredentialsProvider(credsProvider);
+				}
+			}
+			builder.setDefaultRequestConfig(configBuilder.build());
+			client = builder.build();
+		}
+
+		synchronized void acquire() {
+			requests++;
+		}
+
+		synchronized void release() {
+			requests--;
+			closeIfDone();
+		}
+
+		/**
+		 * Closes the client once the requests in progress are done, it is no longer used for new
+		 * ones.
+		 */
+		synchronized void retire() {
+			retired = true;
+			closeIfDone();
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		private synchronized void closeIfDone() {
+			// A response being read keeps its connection leased
+			if (retired && !closed && requests == 0 && connectionManager.getTotalStats().getLeased() == 0) {
+				LOGGER.debug("Closing a retired HTTP client");
+				close();
+			}
+		}
+
+		synchronized void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				client.close();
+			} catch (IOException e) {
+				LOGGER.debug("Failed to close the HTTP client: {}", e.getMessage());
+			}
+			connectionManager.shutdown();
+		}
+	}
+}
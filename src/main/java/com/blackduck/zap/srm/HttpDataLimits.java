@@ -0,0 +1,258 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.parosproxy.paros.network.HttpBody;
+import org.parosproxy.paros.network.HttpHeader;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Limits applied to the request and response data embedded in the report for each alert.
+ * <p>
+ * Headers and bodies larger than their limit are truncated, with a marker saying how much was
+ * kept. The limits are in bytes, of the body as received and of the header as written to the
+ * report (UTF-8), and the data is cut before the character the limit falls in. Bodies whose
+ * content type is not allowed are replaced with a one line summary. A negative limit means no
+ * limit.
+ */
+public class HttpDataLimits {
+
+	public static final int UNLIMITED = -1;
+
+	/**
+	 * No limits, the complete request and response data is embedded.
+	 */
+	public static final HttpDataLimits NONE =
+			new HttpDataLimits(UNLIMITED, UNLIMITED, UNLIMITED, Collections.emptyList(), Collections.emptyList());
+
+	private static final String TRUNCATED_MARKER = "\n[SRM: truncated, %d of %d bytes included]";
+	private static final String OMITTED_MARKER = "[SRM: body omitted, content type %s, %d bytes]";
+
+	private final int maxHeaderSize;
+	private final int maxRequestBodySize;
+	private final int maxResponseBodySize;
+	private final List<String> allowedContentTypes;
+	private final List<String> skippedContentTypes;
+
+	/**
+	 * @param maxHeaderSize the maximum number of bytes of each header
+	 * @param maxRequestBodySize the maximum number of bytes of the request body
+	 * @param maxResponseBodySize the maximum number of bytes of the response body
+	 * @param allowedContentTypes the content types whose bodies are included, all if empty
+	 * @param skippedContentTypes the content types whose bodies are summarized instead of included
+	 */
+	public HttpDataLimits(
+			int maxHeaderSize,
+			int maxRequestBodySize,
+			int maxResponseBodySize,
+			List<String> allowedContentTypes,
+			List<String> skippedContentTypes) {
+		this.maxHeaderSize = maxHeaderSize;
+		this.maxRequestBodySize = maxRequestBodySize;
+		this.maxResponseBodySize = maxResponseBodySize;
+		this.allowedContentTypes = normaliseContentTypes(allowedContentTypes);
+		this.skippedContentTypes = normaliseContentTypes(skippedContentTypes);
+	}
+
+	/**
+	 * Gets the limits configured in the {@link SrmProperties}.
+	 */
+	public static HttpDataLimits fromProperties() {
+		SrmProperties properties = SrmProperties.getInstance();
+		return new HttpDataLimits(
+				properties.getMaxHeaderSize(),
+				properties.getMaxRequestBodySize(),
+				properties.getMaxResponseBodySize(),
+				parseContentTypes(properties.getAllowedContentTypes()),
+				parseContentTypes(properties.getSkippedContentTypes()));
+	}
+
+	/**
+	 * Parses a comma separated list of content types, e.g. {@code text/*, application/json}.
+	 */
+	public static List<String> parseContentTypes(String contentTypes) {
+		List<String> list = new ArrayList<>();
+		if (contentTypes != null) {
+			for (String contentType : contentTypes.split(",")) {
+				if (!contentType.trim().isEmpty()) {
+					list.add(contentType);
+				}
+			}
+		}
+		return list;
+	}
+
+	public int getMaxHeaderSize() {
+		return maxHeaderSize;
+	}
+
+	public int getMaxRequestBodySize() {
+		return maxRequestBodySize;
+	}
+
+	public int getMaxResponseBodySize() {
+		return maxResponseBodySize;
+	}
+
+	public List<String> getAllowedContentTypes() {
+		return allowedContentTypes;
+	}
+
+	public List<String> getSkippedContentTypes() {
+		return skippedContentTypes;
+	}
+
+	/**
+	 * Tells whether or not the request and response data is embedded unchanged.
+	 */
+	public boolean isUnlimited() {
+		return maxHeaderSize < 0
+				&& maxRequestBodySize < 0
+				&& maxResponseBodySize < 0
+				&& allowedContentTypes.isEmpty()
+				&& skippedContentTypes.isEmpty();
+	}
+
+	/**
+	 * Gets the header text to embed in the report.
+	 */
+	public String getHeader(HttpHeader header) {
+		String text = header.toString();
+		// At most 3 bytes per char in UTF-8, no need to encode the header
+		if (maxHeaderSize < 0 || (long) text.length() * 3 <= maxHeaderSize) {
+			return text;
+		}
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= maxHeaderSize) {
+			return text;
+		}
+		return truncate(bytes, maxHeaderSize, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the request body text to embed in the report.
+	 *
+	 * @param header the request header, to obtain the content type of the body
+	 */
+	public String getRequestBody(HttpHeader header, HttpBody body) {
+		return getBody(header, body, maxRequestBodySize);
+	}
+
+	/**
+	 * Gets the response body text to embed in the report.
+	 *
+	 * @param header the response header, to obtain the content type of the body
+	 */
+	public String getResponseBody(HttpHeader header, HttpBody body) {
+		return getBody(header, body, maxResponseBodySize);
+	}
+
+	private String getBody(HttpHeader header, HttpBody body, int maxSize) {
+		int length = body.length();
+		if (length == 0) {
+			return body.toString();
+		}
+
+		String contentType = getContentType(header);
+		if (!isContentTypeIncluded(contentType)) {
+			return String.format(OMITTED_MARKER, contentType.isEmpty() ? "unknown" : contentType, length);
+		}
+
+		if (maxSize < 0 || length <= maxSize) {
+			return body.toString();
+		}
+		return truncate(body.getBytes(), maxSize, getCharset(body));
+	}
+
+	boolean isContentTypeIncluded(String contentType) {
+		if (!allowedContentTypes.isEmpty() && !matches(allowedContentTypes, contentType)) {
+			return false;
+		}
+		return !matches(skippedContentTypes, contentType);
+	}
+
+	private static boolean matches(List<String> contentTypes, String contentType) {
+		for (String pattern : contentTypes) {
+			if (pattern.endsWith("/*")
+					? contentType.startsWith(pattern.substring(0, pattern.length() - 1))
+					: contentType.equals(pattern)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getContentType(HttpHeader header) {
+		String contentType = header.getHeader(HttpHeader.CONTENT_TYPE);
+		if (contentType == null) {
+			return "";
+		}
+		int paramsIdx = contentType.indexOf(';');
+		if (paramsIdx != -1) {
+			contentType = contentType.substring(0, paramsIdx);
+		}
+		return contentType.trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static Charset getCharset(HttpBody body) {
+		String charset = body.getCharset();
+		if (charset != null) {
+			try {
+				return Charset.forName(charset);
+			} catch (IllegalArgumentException e) {
+				// Use the default charset of the body
+			}
+		}
+		return StandardCharsets.ISO_8859_1;
+	}
+
+	/**
+	 * Decodes the first bytes of the given data, up to the given size, with the truncated marker.
+	 * A character the limit falls in is left out, the marker tells how many bytes were kept.
+	 */
+	private static String truncate(byte[] bytes, int maxSize, Charset charset) {
+		// Decode just the bytes kept, the data might be much larger than the limit
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer in = ByteBuffer.wrap(bytes, 0, maxSize);
+		CharBuffer out = CharBuffer.allocate((int) Math.ceil(maxSize * (double) decoder.maxCharsPerByte()) + 1);
+		// Not the end of the input, an incomplete character at the end is not decoded
+		decoder.decode(in, out, false);
+		out.flip();
+		return out + String.format(TRUNCATED_MARKER, in.position(), bytes.length);
+	}
+
+	private static List<String> normaliseContentTypes(List<String> contentTypes) {
+		List<String> list = new ArrayList<>(contentTypes.size());
+		for (String contentType : contentTypes) {
+			list.add(contentType.trim().toLowerCase(Locale.ROOT));
+		}
+		return Collections.unmodifiableList(list);
+	}
+}
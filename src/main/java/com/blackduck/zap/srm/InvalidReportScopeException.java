@@ -0,0 +1,35 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+/**
+ * Thrown when the report scope saved in the {@link SrmProperties} is not valid, e.g. it names a
+ * context that no longer exists. No report is generated rather than one reporting more or less
+ * than asked for, the message tells the user what to fix.
+ */
+public class InvalidReportScopeException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message the error message, shown to the user
+	 */
+	public InvalidReportScopeException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
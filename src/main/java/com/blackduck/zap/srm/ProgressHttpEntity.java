@@ -0,0 +1,48 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An entity that records in a {@link ReportProgress} the bytes of the wrapped entity as they are
+ * sent, and when the sending started and ended.
+ */
+class ProgressHttpEntity extends HttpEntityWrapper {
+
+	private final ReportProgress progress;
+
+	ProgressHttpEntity(HttpEntity wrappedEntity, ReportProgress progress) {
+		super(wrappedEntity);
+		this.progress = progress;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		progress.sendStarted(getContentLength());
+		try {
+			super.writeTo(progress.countUploaded(out));
+		} finally {
+			progress.sendFinished();
+		}
+	}
+}
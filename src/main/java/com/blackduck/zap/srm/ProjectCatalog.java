@@ -0,0 +1,376 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * The projects of the Software Risk Manager servers, cached per server and API key.
+ * <p>
+ * The projects are parsed while they are read from the server, without building the response
+ * or a JSON tree in memory. Cached projects older than the {@link SrmProperties#getProjectCacheTtl()
+ * TTL} are still returned, and refreshed in the background.
+ */
+public class ProjectCatalog {
+
+	private static final Logger LOGGER = LogManager.getLogger(ProjectCatalog.class);
+
+	private final SrmExtension extension;
+	private final Map<CatalogKey, Projects> catalogs = new HashMap<>();
+	private final Set<CatalogKey> refreshing = new HashSet<>();
+
+	public ProjectCatalog(SrmExtension extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * Gets the cached projects of the given server, refreshing them in the background if they are
+	 * older than the TTL.
+	 *
+	 * @param onRefresh called with the refreshed projects, if they are refreshed
+	 * @return the cached projects, or {@code null} if there are none
+	 */
+	public Projects getCached(String serverUrl, String apiKey, Consumer<Projects> onRefresh) {
+		CatalogKey key = new CatalogKey(serverUrl, apiKey);
+		Projects projects;
+		synchronized (this) {
+			projects = catalogs.get(key);
+		}
+		if (projects != null && projects.isStale()) {
+			refreshInBackground(serverUrl, apiKey, onRefresh);
+		}
+		return projects;
+	}
+
+	/**
+	 * Refreshes the projects of the given server in the background, unless they are already being
+	 * refreshed. Failures are logged.
+	 *
+	 * @param onRefresh called with the refreshed projects, if they are refreshed
+	 */
+	public void refreshInBackground(String serverUrl, String apiKey, Consumer<Projects> onRefresh) {
+		CatalogKey key = new CatalogKey(serverUrl, apiKey);
+		synchronized (this) {
+			if (!refreshing.add(key)) {
+				return;
+			}
+		}
+		try {
+			extension.getExecutor().execute(() -> {
+				try {
+					Projects projects = load(serverUrl, apiKey);
+					if (projects != null && onRefresh != null) {
+						onRefresh.accept(projects);
+					}
+				} catch (GeneralSecurityException | ParseException | IOException e) {
+					LOGGER.warn("Failed to refresh the projects of {}: {}", serverUrl, e.getMessage());
+				} finally {
+					synchronized (this) {
+						refreshing.remove(key);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				refreshing.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Gets the projects from the given server, caching them.
+	 *
+	 * @return the projects, or {@code null} if no HTTP client could be created for the server
+	 * @throws StatusException if the server did not return the projects
+	 */
+	public Projects load(String serverUrl, String apiKey) throws GeneralSecurityException, ParseException, IOException {
+		CloseableHttpClient client = extension.getHttpClient(serverUrl);
+		if (client == null) {
+			return null;
+		}
+
+		HttpGet get = new HttpGet(serverUrl + "/api/projects");
+		get.setHeader("API-Key", apiKey);
+		HttpResponse response = client.execute(get);
+		ProjectsHandler handler = new ProjectsHandler();
+		try {
+			if (response.getStatusLine().getStatusCode() != 200) {
+				throw new StatusException(response.getStatusLine().getStatusCode(), response.getStatusLine().toString());
+			}
+			try (Reader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8))) {
+				new JSONParser().parse(reader, handler);
+			}
+		} finally {
+			EntityUtils.consumeQuietly(response.getEntity());
+		}
+
+		Projects projects = new Projects(handler.getProjects());
+		synchronized (this) {
+			catalogs.put(new CatalogKey(serverUrl, apiKey), projects);
+		}
+		LOGGER.debug("Loaded {} projects from {}", projects.size(), serverUrl);
+		return projects;
+	}
+
+	/**
+	 * Forgets the cached projects.
+	 */
+	public synchronized void clear() {
+		catalogs.clear();
+	}
+
+	public void shutdown() {
+		clear();
+	}
+
+	/**
+	 * The projects of a server, sorted by name and then id, with the time they were loaded.
+	 */
+	public static class Projects {
+		private final NameValuePair[] projects;
+		private final long loaded;
+
+		Projects(NameValuePair[] projects) {
+			this.projects = projects;
+			this.loaded = System.currentTimeMillis();
+		}
+
+		public NameValuePair[] getProjects() {
+			return projects.clone();
+		}
+
+		NameValuePair[] getProjectsArray() {
+			return projects;
+		}
+
+		public int size() {
+			return projects.length;
+		}
+
+		public long getLoaded() {
+			return loaded;
+		}
+
+		boolean isStale() {
+			return System.currentTimeMillis() - loaded > SrmProperties.getInstance().getProjectCacheTtl();
+		}
+	}
+
+	/**
+	 * Thrown when the server does not return the projects.
+	 */
+	public static class StatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int statusCode;
+
+		StatusException(int statusCode, String statusLine) {
+			super(statusLine);
+			this.statusCode = statusCode;
+		}
+
+		public int getStatusCode() {
+			return statusCode;
+		}
+	}
+
+	private static class CatalogKey {
+		private final String serverUrl;
+		private final String apiKey;
+
+		CatalogKey(String serverUrl, String apiKey) {
+			this.serverUrl = serverUrl;
+			this.apiKey = apiKey;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof CatalogKey)) {
+				return false;
+			}
+			CatalogKey other = (CatalogKey) o;
+			return serverUrl.equals(other.serverUrl) && Objects.equals(apiKey, other.apiKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(serverUrl, apiKey);
+		}
+	}
+
+	/**
+	 * Collects the id and name of the projects, {@code {"projects": [{"id": 1, "name": "..."}, ...]}},
+	 * while they are parsed, skipping everything else.
+	 */
+	private static class ProjectsHandler implements ContentHandler {
+		private static final int PROJECTS_DEPTH = 2;
+		private static final int PROJECT_DEPTH = 3;
+
+		private final List<ModifiedNameValuePair> projects = new ArrayList<>();
+		private int depth;
+		private String rootKey;
+		private boolean inProjects;
+		private String projectKey;
+		private Number id;
+		private String name;
+
+		@Override
+		public void startJSON() {
+		}
+
+		@Override
+		public void endJSON() {
+		}
+
+		@Override
+		public boolean startObject() {
+			depth++;
+			if (inProjects && depth == PROJECT_DEPTH) {
+				id = null;
+				name = null;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endObject() {
+			if (inProjects && depth == PROJECT_DEPTH && id != null) {
+				projects.add(new ModifiedNameValuePair(name, Long.toString(id.longValue())));
+			}
+			depth--;
+			return true;
+		}
+
+		@Override
+		public boolean startObjectEntry(String key) {
+			if (depth == 1) {
+				rootKey = key;
+			} else if (inProjects && depth == PROJECT_DEPTH) {
+				projectKey = key;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endObjectEntry() {
+			if (depth == PROJECT_DEPTH) {
+				projectKey = null;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean startArray() {
+			depth++;
+			if (depth == PROJECTS_DEPTH && "projects".equals(rootKey)) {
+				inProjects = true;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endArray() {
+			if (depth == PROJECTS_DEPTH) {
+				inProjects = false;
+			}
+			depth--;
+			return true;
+		}
+
+		@Override
+		public boolean primitive(Object value) {
+			if (inProjects && depth == PROJECT_DEPTH && projectKey != null) {
+				if ("id".equals(projectKey) && value instanceof Number) {
+					id = (Number) value;
+				} else if ("name".equals(projectKey) && value instanceof String) {
+					name = (String) value;
+				}
+			}
+			return true;
+		}
+
+		NameValuePair[] getProjects() {
+			ModifiedNameValuePair[] projectArr = projects.toArray(new ModifiedNameValuePair[0]);
+			Arrays.sort(projectArr);
+			// set the project ids to visible if the names are the same
+			for (int i = 0; i < projectArr.length - 1; i++) {
+				if (projectArr[i].getName() != null && projectArr[i].getName().equals(projectArr[i + 1].getName())) {
+					projectArr[i].setUseId(true);
+					projectArr[i + 1].setUseId(true);
+				}
+			}
+			return projectArr;
+		}
+	}
+
+	private static class ModifiedNameValuePair extends BasicNameValuePair implements Comparable<ModifiedNameValuePair> {
+		private static final long serialVersionUID = -6671681121783779976L;
+		private boolean useId = false;
+
+		public ModifiedNameValuePair(String name, String value) {
+			super(name, value);
+		}
+
+		public void setUseId(boolean useId) {
+			this.useId = useId;
+		}
+
+		@Override
+		public String toString() {
+			if (useId) return getName() + " (id: " + getValue() + ")";
+			return getName();
+		}
+
+		@Override
+		public int compareTo(ModifiedNameValuePair o) {
+			int val = this.getName().compareTo(o.getName());
+			if (val == 0) return this.getValue().compareTo(o.getValue());
+			return val;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.NameValuePair;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import java.util.Locale;
+
+/**
+ * The projects shown in the project combo box, filtered by the text typed by the user.
+ * <p>
+ * The projects are replaced all at once, notifying the combo box a single time, and the filtered
+ * projects are only worked out when the combo box next asks for them.
+ */
+class ProjectComboBoxModel extends AbstractListModel<NameValuePair> implements ComboBoxModel<NameValuePair> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final NameValuePair[] NO_PROJECTS = new NameValuePair[0];
+
+	private NameValuePair[] projects = NO_PROJECTS;
+	private String filter = "";
+	private NameValuePair[] filtered = NO_PROJECTS;
+	private boolean filterPending;
+	private Object selected;
+
+	/**
+	 * Sets the projects, keeping the selected project if it is still one of them.
+	 */
+	void setProjects(NameValuePair[] projects) {
+		this.projects = projects;
+		if (selected != null && !contains(projects, selected)) {
+			selected = null;
+		}
+		filterPending = true;
+		fireContentsChanged(this, -1, -1);
+	}
+
+	NameValuePair[] getProjects() {
+		return projects;
+	}
+
+	/**
+	 * Sets the text the project names must contain, ignoring case, to be shown.
+	 */
+	void setFilter(String filter) {
+		String normalised = filter == null ? "" : filter.trim().toLowerCase(Locale.ROOT);
+		if (normalised.equals(this.filter)) {
+			return;
+		}
+		this.filter = normalised;
+		filterPending = true;
+		fireContentsChanged(this, -1, -1);
+	}
+
+	/**
+	 * Selects the project with the given id, if there is one.
+	 */
+	void selectProject(String id) {
+		for (NameValuePair project : projects) {
+			if (project.getValue().equals(id)) {
+				setSelectedItem(project);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return getFiltered().length;
+	}
+
+	@Override
+	public NameValuePair getElementAt(int index) {
+		return getFiltered()[index];
+	}
+
+	@Override
+	public void setSelectedItem(Object item) {
+		if (item == null ? selected != null : !item.equals(selected)) {
+			selected = item;
+			fireContentsChanged(this, -1, -1);
+		}
+	}
+
+	@Override
+	public Object getSelectedItem() {
+		return selected;
+	}
+
+	private NameValuePair[] getFiltered() {
+		if (filterPending) {
+			filterPending = false;
+			filtered = filter.isEmpty() ? projects : applyFilter();
+		}
+		return filtered;
+	}
+
+	private NameValuePair[] applyFilter() {
+		NameValuePair[] matches = new NameValuePair[projects.length];
+		int count = 0;
+		for (NameValuePair project : projects) {
+			if (project.toString().toLowerCase(Locale.ROOT).contains(filter)) {
+				matches[count++] = project;
+			}
+		}
+		NameValuePair[] result = new NameValuePair[count];
+		System.arraycopy(matches, 0, result, 0, count);
+		return result;
+	}
+
+	private static boolean contains(NameValuePair[] projects, Object project) {
+		for (NameValuePair p : projects) {
+			if (p.equals(project)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
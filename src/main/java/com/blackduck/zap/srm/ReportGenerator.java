@@ -18,9 +18,7 @@
  */
 package com.blackduck.zap.srm;
 
-import net.sf.json.JSONArray;
-import net.sf.json.JSONObject;
-import net.sf.json.xml.XMLSerializer;
+import net.sf.json.JSONException;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,24 +28,32 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.zaproxy.zap.utils.XMLStringUtil;
 import org.zaproxy.zap.utils.XmlUtils;
 
 import javax.swing.*;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ReportGenerator {
 
@@ -58,19 +64,16 @@ public class ReportGenerator {
 
 	private static final SimpleDateFormat staticDateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss");
 
-	public static File XMLToHtml(Document xmlDocument, String infilexsl, File outFile) {
-		File stylesheet = null;
+	// The chars of the XML report generated ahead of its transformation
+	private static final int PIPE_SIZE = 64 * 1024;
 
+	public static File XMLToHtml(Document xmlDocument, String infilexsl, File outFile) {
 		outFile = new File(outFile.getAbsolutePath());
 		try {
-			stylesheet = new File(infilexsl);
-
 			DOMSource source = new DOMSource(xmlDocument);
 
 			// Use a Transformer for output
-			TransformerFactory tFactory = TransformerFactory.newInstance();
-			StreamSource stylesource = new StreamSource(stylesheet);
-			Transformer transformer = tFactory.newTransformer(stylesource);
+			Transformer transformer = ReportTemplates.getTemplates(new File(infilexsl)).newTransformer();
 
 			// Make the transformation and write to the output file
 			StreamResult result = new StreamResult(outFile.getPath());
@@ -84,34 +87,22 @@ public class ReportGenerator {
 	}
 
 	public static File stringToHtml(String inxml, String infilexsl, String outfilename) {
-		return stringToHtml(inxml, infilexsl != null ? new StreamSource(new File(infilexsl)) : null, outfilename);
+		return stringToHtml(inxml, infilexsl != null ? () -> ReportTemplates.getTemplates(new File(infilexsl)).newTransformer() : null, outfilename);
 	}
 
 	public static File stringToHtml(String inxml, StreamSource stylesource, String outfilename) {
-		if (stylesource != null) {
-			Document doc = null;
+		return stringToHtml(inxml, stylesource != null ? () -> TransformerFactory.newInstance().newTransformer(stylesource) : null, outfilename);
+	}
 
-			// factory.setNamespaceAware(true);
-			// factory.setValidating(true);
-			File outfile = null;
-			StringReader inReader = new StringReader(inxml);
-			String tempOutfilename = outfilename + ".temp";
+	public static File stringToHtml(String inxml, Templates templates, String outfilename) {
+		return stringToHtml(inxml, templates != null ? templates::newTransformer : null, outfilename);
+	}
 
+	private static File stringToHtml(String inxml, TransformerProvider stylesource, String outfilename) {
+		if (stylesource != null) {
+			File outfile = new File(outfilename);
 			try {
-				outfile = new File(tempOutfilename);
-
-				DocumentBuilder builder = XmlUtils.newXxeDisabledDocumentBuilderFactory().newDocumentBuilder();
-				doc = builder.parse(new InputSource(inReader));
-
-				// Use a Transformer for output
-				TransformerFactory tFactory = TransformerFactory.newInstance();
-				Transformer transformer = tFactory.newTransformer(stylesource);
-				transformer.setParameter("datetime", getCurrentDateTimeString());
-
-				DOMSource source = new DOMSource(doc);
-				StreamResult result = new StreamResult(outfile.getPath());
-				transformer.transform(source, result);
-
+				transformToFile(new InputSource(new StringReader(inxml)), stylesource, outfile);
 			} catch (TransformerException | SAXException | ParserConfigurationException | IOException e) {
 				LOGGER.error(e.getMessage(), e);
 				// Save the xml for diagnosing the problem
@@ -133,25 +124,6 @@ public class ReportGenerator {
 				}
 				return new File(outfilename);
 			}
-			// Replace the escaped tags used to make the report look slightly better.
-			// This is a temp fix to ensure reports always get generated
-			// we should really adopt something other than XSLT ;)
-			String line;
-
-			try (
-					BufferedReader br = Files.newBufferedReader(new File(tempOutfilename).toPath(), StandardCharsets.UTF_8);
-					BufferedWriter bw = Files.newBufferedWriter(new File(outfilename).toPath(), StandardCharsets.UTF_8)
-			) {
-				while ((line = br.readLine()) != null) {
-					bw.write(line.replace("&lt;p&gt;", "<p>").replace("&lt;/p&gt;", "</p>"));
-					bw.newLine();
-				}
-			} catch (IOException e) {
-				showDialogForGUI();
-				LOGGER.error(e.getMessage(), e);
-			}
-			// Remove the temporary file
-			outfile.delete();
 		} else {
 			// No XSLT file specified, just output the XML straight to the file
 			BufferedWriter bw = null;
@@ -175,59 +147,218 @@ public class ReportGenerator {
 		return new File(outfilename);
 	}
 
-	public static File stringToJson(String inxml, String outfilename) {
-		BufferedWriter bw = null;
-		try {
-			bw = Files.newBufferedWriter(new File(outfilename).toPath(), StandardCharsets.UTF_8);
-			bw.write(stringToJson(inxml));
-		} catch (IOException e2) {
+	/**
+	 * Transforms the XML report in the given file with the given stylesheet, reading the report
+	 * as a stream rather than loading it in memory first.
+	 *
+	 * @param infilexml   the XML report
+	 * @param templates   the compiled stylesheet
+	 * @param outfilename the name of the file the transformed report is written to
+	 * @return the transformed report
+	 */
+	public static File fileToHtml(File infilexml, Templates templates, String outfilename) {
+		File outfile = new File(outfilename);
+		try (Reader inReader = Files.newBufferedReader(infilexml.toPath(), StandardCharsets.UTF_8)) {
+			transformToFile(new InputSource(inReader), templates::newTransformer, outfile);
+		} catch (TransformerException | SAXException | ParserConfigurationException | IOException e) {
+			LOGGER.error(e.getMessage(), e);
 			showDialogForGUI();
-			LOGGER.error(e2.getMessage(), e2);
-		} finally {
+			// Save the xml for diagnosing the problem
 			try {
-				if (bw != null) {
-					bw.close();
-				}
-			} catch (IOException ex) {
+				Files.copy(infilexml.toPath(), new File(outfilename + "-orig.xml").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e2) {
+				LOGGER.error("Failed to write debug XML file", e2);
 			}
 		}
-
-		return new File(outfilename);
+		return outfile;
 	}
 
-	public static String stringToHtml(String inxml, String infilexsl) {
-		return stringToHtml(inxml, new StreamSource(new File(infilexsl)));
+	/**
+	 * Transforms the XML report written by the given report writer with the given stylesheet, in
+	 * a single pass: the report is generated on another thread and piped straight into the
+	 * transformer, without a temporary file.
+	 *
+	 * @param report      writes the XML report, e.g. {@link ReportLastScan#generate(Writer)}
+	 * @param templates   the compiled stylesheet
+	 * @param outfilename the name of the file the transformed report is written to
+	 * @return the transformed report
+	 * @throws Exception if the report could not be generated or transformed, no file is left
+	 */
+	public static File writerToHtml(XmlReportWriter report, Templates templates, String outfilename) throws Exception {
+		File outfile = new File(outfilename);
+		pipe(report, reader -> transformToFile(new InputSource(reader), templates::newTransformer, outfile));
+		return outfile;
 	}
 
-	public static String stringToHtml(String inxml, StreamSource stylesource) {
-		Document doc = null;
+	/**
+	 * Converts the XML report written by the given report writer to JSON, in a single pass like
+	 * {@link #writerToHtml(XmlReportWriter, Templates, String)}.
+	 */
+	public static File writerToJson(XmlReportWriter report, String outfilename) throws Exception {
+		File outfile = new File(outfilename);
+		boolean converted = false;
+		try {
+			try (Writer writer = Files.newBufferedWriter(outfile.toPath(), StandardCharsets.UTF_8)) {
+				pipe(report, reader -> ReportJsonConverter.convert(reader, writer));
+			}
+			converted = true;
+		} finally {
+			if (!converted) {
+				Files.deleteIfExists(outfile.toPath());
+			}
+		}
+		return outfile;
+	}
 
-		StringReader inReader = new StringReader(inxml);
-		StringWriter writer = new StringWriter();
+	/**
+	 * Runs the given report writer on a thread of its own, while the given reader reads what it
+	 * writes on this thread. The error of the report writer is thrown rather than the error it
+	 * caused the reader, e.g. a premature end of the XML.
+	 */
+	private static void pipe(XmlReportWriter report, XmlReportReader consumer) throws Exception {
+		PipedReader reader = new PipedReader(PIPE_SIZE);
+		Writer writer = new BufferedWriter(new NotifyingPipedWriter(reader), PIPE_SIZE / 8);
+		AtomicBoolean readerClosed = new AtomicBoolean();
+		AtomicReference<Exception> writeError = new AtomicReference<>();
+		Thread producer = SrmExecutor.newThreadFactory("ZAP-SRM-Report-").newThread(() -> {
+			try {
+				report.write(writer);
+			} catch (Exception e) {
+				// Otherwise failed because the reader stopped reading, the reader's error is thrown
+				if (!readerClosed.get()) {
+					writeError.set(e);
+				}
+			} finally {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					// The reader stopped reading
+				}
+			}
+		});
+		producer.start();
 
+		Exception readError = null;
 		try {
+			consumer.read(reader);
+		} catch (Exception e) {
+			readError = e;
+		}
+		readerClosed.set(true);
+		// Stops the report writer if the reader did not read it all
+		reader.close();
+		try {
+			producer.join();
+		} catch (InterruptedException e) {
+			producer.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while generating the report");
+		}
 
-			DocumentBuilder builder = XmlUtils.newXxeDisabledDocumentBuilderFactory().newDocumentBuilder();
-			doc = builder.parse(new InputSource(inReader));
+		Exception error = writeError.get();
+		if (error != null) {
+			if (readError != null) {
+				error.addSuppressed(readError);
+			}
+			throw error;
+		}
+		if (readError != null) {
+			throw readError;
+		}
+	}
 
-			// Use a Transformer for output
-			TransformerFactory tFactory = TransformerFactory.newInstance();
-			Transformer transformer = tFactory.newTransformer(stylesource);
-			transformer.setParameter("datetime", getCurrentDateTimeString());
+	private static void transformToFile(InputSource input, TransformerProvider stylesource, File outfile)
+			throws TransformerException, SAXException, ParserConfigurationException, IOException {
+		boolean transformed = false;
+		// Replace the escaped tags used to make the report look slightly better.
+		// This is a temp fix to ensure reports always get generated
+		// we should really adopt something other than XSLT ;)
+		try (Writer writer = new ParagraphUnescapingWriter(Files.newBufferedWriter(outfile.toPath(), StandardCharsets.UTF_8), true)) {
+			transform(input, stylesource, writer);
+			transformed = true;
+		} finally {
+			if (!transformed) {
+				// Don't leave a partial report behind
+				Files.deleteIfExists(outfile.toPath());
+			}
+		}
+	}
 
-			DOMSource source = new DOMSource(doc);
-			StreamResult result = new StreamResult(writer);
-			transformer.transform(source, result);
+	/**
+	 * Transforms the XML read from the given input straight into the given writer, in a single
+	 * pass and without building a DOM of the report.
+	 */
+	private static void transform(InputSource input, TransformerProvider stylesource, Writer output)
+			throws TransformerException, SAXException, ParserConfigurationException {
+		Transformer transformer = stylesource.newTransformer();
+		transformer.setParameter("datetime", getCurrentDateTimeString());
+		transformer.transform(new SAXSource(newXxeDisabledXmlReader(), input), new StreamResult(output));
+	}
 
-		} catch (TransformerException | SAXException | ParserConfigurationException | IOException e) {
+	private static XMLReader newXxeDisabledXmlReader() throws SAXException, ParserConfigurationException {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setXIncludeAware(false);
+		factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+		factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		return factory.newSAXParser().getXMLReader();
+	}
+
+	public static File stringToJson(String inxml, String outfilename) {
+		return toJsonFile(new StringReader(inxml), new File(outfilename));
+	}
+
+	/**
+	 * Converts the given XML report file to JSON, streaming it rather than loading the whole
+	 * report into memory.
+	 */
+	public static File fileToJson(File infilexml, String outfilename) {
+		try (Reader reader = Files.newBufferedReader(infilexml.toPath(), StandardCharsets.UTF_8)) {
+			return toJsonFile(reader, new File(outfilename));
+		} catch (IOException e) {
 			showDialogForGUI();
 			LOGGER.error(e.getMessage(), e);
 		}
+		return new File(outfilename);
+	}
+
+	private static File toJsonFile(Reader xml, File outfile) {
+		try (Writer writer = Files.newBufferedWriter(outfile.toPath(), StandardCharsets.UTF_8)) {
+			ReportJsonConverter.convert(xml, writer);
+		} catch (IOException | XMLStreamException e) {
+			showDialogForGUI();
+			LOGGER.error(e.getMessage(), e);
+		}
+		return outfile;
+	}
+
+	public static String stringToHtml(String inxml, String infilexsl) {
+		return stringToHtml(inxml, () -> ReportTemplates.getTemplates(new File(infilexsl)).newTransformer());
+	}
+
+	public static String stringToHtml(String inxml, StreamSource stylesource) {
+		return stringToHtml(inxml, () -> TransformerFactory.newInstance().newTransformer(stylesource));
+	}
+
+	public static String stringToHtml(String inxml, Templates templates) {
+		return stringToHtml(inxml, templates::newTransformer);
+	}
+
+	private static String stringToHtml(String inxml, TransformerProvider stylesource) {
+		StringWriter writer = new StringWriter();
 
 		// Replace the escaped tags used to make the report look slightly better.
 		// This is a temp fix to ensure reports always get generated
 		// we should really adopt something other than XSLT ;)
-		return writer.toString().replace("&lt;p&gt;", "<p>").replace("&lt;/p&gt;", "</p>");
+		try (Writer unescapingWriter = new ParagraphUnescapingWriter(writer, false)) {
+			transform(new InputSource(new StringReader(inxml)), stylesource, unescapingWriter);
+		} catch (TransformerException | SAXException | ParserConfigurationException | IOException e) {
+			showDialogForGUI();
+			LOGGER.error(e.getMessage(), e);
+		}
+
+		return writer.toString();
 	}
 
 	public static File fileToHtml(String infilexml, String infilexsl, String outfilename) {
@@ -235,12 +366,10 @@ public class ReportGenerator {
 
 		// factory.setNamespaceAware(true);
 		// factory.setValidating(true);
-		File stylesheet = null;
 		File datafile = null;
 		File outfile = null;
 
 		try {
-			stylesheet = new File(infilexsl);
 			datafile = new File(infilexml);
 			outfile = new File(outfilename);
 
@@ -248,9 +377,7 @@ public class ReportGenerator {
 			doc = builder.parse(datafile);
 
 			// Use a Transformer for output
-			TransformerFactory tFactory = TransformerFactory.newInstance();
-			StreamSource stylesource = new StreamSource(stylesheet);
-			Transformer transformer = tFactory.newTransformer(stylesource);
+			Transformer transformer = ReportTemplates.getTemplates(new File(infilexsl)).newTransformer();
 			transformer.setParameter("datetime", getCurrentDateTimeString());
 
 			DOMSource source = new DOMSource(doc);
@@ -266,31 +393,134 @@ public class ReportGenerator {
 	}
 
 	public static String stringToJson(String inxml) {
-		JSONObject report = (JSONObject) new XMLSerializer().read(inxml);
-		Object site = report.get("site");
-		if (!(site instanceof JSONArray)) {
-			JSONArray siteArray = new JSONArray();
-			if (site != null) {
-				siteArray.add(site);
-			}
-			report.put("site", siteArray);
+		StringWriter writer = new StringWriter(inxml.length());
+		try {
+			ReportJsonConverter.convert(new StringReader(inxml), writer);
+		} catch (IOException | XMLStreamException e) {
+			throw new JSONException(e);
 		}
-		return report.toString();
+		return writer.toString();
 	}
 
 	/**
 	 * Encode entity for HTML or XML output.
+	 *
+	 * @return the encoded text, the given text itself if nothing needed to be encoded
 	 */
 	public static String entityEncode(String text) {
-		String result = text;
+		if (text == null) {
+			return null;
+		}
+
+		int unsafe = indexOfUnsafe(text, 0);
+		if (unsafe == text.length()) {
+			return text;
+		}
+		StringBuilder sb = new StringBuilder(text.length() + 16);
+		sb.append(text, 0, unsafe);
+		entityEncode(text, unsafe, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Encodes entities for HTML or XML output, appending the result to the given builder. A
+	 * {@code null} text is appended as {@code "null"}, as {@link StringBuilder#append(String)}
+	 * does.
+	 */
+	public static void entityEncode(String text, StringBuilder out) {
+		if (text == null) {
+			out.append("null");
+			return;
+		}
+		entityEncode(text, 0, out);
+	}
+
+	/**
+	 * Encodes entities for HTML or XML output in a single pass, appending the result to the given
+	 * output. The output is the same as {@code StringEscapeUtils.escapeXml10(XMLStringUtil
+	 * .escapeControlChrs(text))}.
+	 */
+	public static void entityEncode(String text, Appendable out) throws IOException {
+		if (text == null) {
+			out.append("null");
+			return;
+		}
+		entityEncode(text, 0, out);
+	}
+
+	private static void entityEncode(String text, int start, StringBuilder out) {
+		try {
+			entityEncode(text, start, (Appendable) out);
+		} catch (IOException e) {
+			// StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void entityEncode(String text, int start, Appendable out) throws IOException {
+		int length = text.length();
+		int i = start;
+		while (i < length) {
+			int unsafe = indexOfUnsafe(text, i);
+			out.append(text, i, unsafe);
+			if (unsafe == length) {
+				return;
+			}
 
-		if (result == null) {
-			return result;
+			String entity = basicEntity(text.charAt(unsafe));
+			if (entity != null) {
+				out.append(entity);
+				i = unsafe + 1;
+				continue;
+			}
+
+			// The escapeXml function doesn't cope with some 'special' chrs, leave the (rare) runs of
+			// control, C1 and surrogate chrs to the original escape functions
+			int end = unsafe + 1;
+			while (end < length && !isSafe(text.charAt(end)) && basicEntity(text.charAt(end)) == null) {
+				end++;
+			}
+			out.append(StringEscapeUtils.escapeXml10(XMLStringUtil.escapeControlChrs(text.substring(unsafe, end))));
+			i = end;
 		}
+	}
 
-		// The escapeXml function doesn't cope with some 'special' chrs
+	private static int indexOfUnsafe(String text, int start) {
+		int length = text.length();
+		for (int i = start; i < length; i++) {
+			if (!isSafe(text.charAt(i))) {
+				return i;
+			}
+		}
+		return length;
+	}
 
-		return StringEscapeUtils.escapeXml10(XMLStringUtil.escapeControlChrs(result));
+	/**
+	 * Tells whether or not the given chr is left untouched by both escape functions.
+	 */
+	private static boolean isSafe(char c) {
+		if (c < 0x7f) {
+			return c >= 0x20 ? c != '&' && c != '<' && c != '>' && c != '"' && c != '\''
+					: c == '\t' || c == '\n' || c == '\r';
+		}
+		return (c >= 0xa0 && c < 0xd800) || (c >= 0xe000 && c <= 0xfffd);
+	}
+
+	private static String basicEntity(char c) {
+		switch (c) {
+			case '&':
+				return "&amp;";
+			case '<':
+				return "&lt;";
+			case '>':
+				return "&gt;";
+			case '"':
+				return "&quot;";
+			case '\'':
+				return "&apos;";
+			default:
+				return null;
+		}
 	}
 
 	/**
@@ -323,6 +553,165 @@ public class ReportGenerator {
 		return writer.getBuffer().toString().replaceAll("\n|\r", "");
 	}
 
+	/**
+	 * Writes an XML report to the given writer, without closing it.
+	 */
+	@FunctionalInterface
+	public interface XmlReportWriter {
+		void write(Writer writer) throws Exception;
+	}
+
+	/**
+	 * Reads the XML report piped from an {@link XmlReportWriter}.
+	 */
+	@FunctionalInterface
+	private interface XmlReportReader {
+		void read(Reader reader) throws Exception;
+	}
+
+	/**
+	 * Pipe writer waking up the reader as soon as chars are written, a {@link PipedReader}
+	 * otherwise waits up to a second for more chars unless its buffer is full.
+	 */
+	private static class NotifyingPipedWriter extends PipedWriter {
+
+		NotifyingPipedWriter(PipedReader reader) throws IOException {
+			super(reader);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			super.write(cbuf, off, len);
+			flush();
+		}
+	}
+
+	/**
+	 * Creates the transformer for a stylesheet, either compiling it or from cached {@link
+	 * Templates}.
+	 */
+	@FunctionalInterface
+	private interface TransformerProvider {
+		Transformer newTransformer() throws TransformerException;
+	}
+
+	/**
+	 * Writer that replaces the escaped paragraph tags (<code>&amp;lt;p&amp;gt;</code> and
+	 * <code>&amp;lt;/p&amp;gt;</code>) as they are written, so the transformed report doesn't
+	 * need to be read back. It can also normalise the line endings to the platform ones, ending
+	 * the last line as well, which is what rewriting the report line by line used to do.
+	 */
+	private static class ParagraphUnescapingWriter extends FilterWriter {
+
+		private static final String[] ESCAPED = {"&lt;p&gt;", "&lt;/p&gt;"};
+		private static final String[] UNESCAPED = {"<p>", "</p>"};
+
+		private final boolean normaliseLineEndings;
+		private final StringBuilder pending = new StringBuilder(ESCAPED[1].length());
+		private boolean previousCr;
+		private boolean lineStarted;
+
+		ParagraphUnescapingWriter(Writer out, boolean normaliseLineEndings) {
+			super(out);
+			this.normaliseLineEndings = normaliseLineEndings;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			if (normaliseLineEndings && (c == '\r' || c == '\n')) {
+				boolean crlf = c == '\n' && previousCr;
+				previousCr = c == '\r';
+				if (!crlf) {
+					flushPending();
+					out.write(System.lineSeparator());
+					lineStarted = false;
+				}
+				return;
+			}
+			previousCr = false;
+			lineStarted = true;
+
+			if (c != '&' && pending.length() == 0) {
+				out.write(c);
+				return;
+			}
+
+			pending.append((char) c);
+			while (pending.length() > 0) {
+				for (int i = 0; i < ESCAPED.length; i++) {
+					if (ESCAPED[i].contentEquals(pending)) {
+						out.write(UNESCAPED[i]);
+						pending.setLength(0);
+						return;
+					}
+				}
+				if (isPendingPrefix()) {
+					return;
+				}
+				// Not part of an escaped tag, release the chars until a tag could start again
+				out.write(pending.charAt(0));
+				pending.deleteCharAt(0);
+			}
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				write(cbuf[i]);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				write(str.charAt(i));
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// Keep a possible partial tag, the rest of it may still be written
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flushPending();
+			if (normaliseLineEndings && lineStarted) {
+				out.write(System.lineSeparator());
+			}
+			super.close();
+		}
+
+		private boolean isPendingPrefix() {
+			for (String escaped : ESCAPED) {
+				if (isPendingPrefixOf(escaped)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isPendingPrefixOf(String escaped) {
+			if (escaped.length() <= pending.length()) {
+				return false;
+			}
+			for (int i = 0; i < pending.length(); i++) {
+				if (escaped.charAt(i) != pending.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void flushPending() throws IOException {
+			if (pending.length() > 0) {
+				out.append(pending);
+				pending.setLength(0);
+			}
+		}
+	}
+
 	private static void showDialogForGUI() {
 		if (View.isInitialised()) {
 			JOptionPane.showMessageDialog(null, Constant.messages.getString("report.write.dialog.message"));
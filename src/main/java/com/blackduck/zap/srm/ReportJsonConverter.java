@@ -0,0 +1,617 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONSerializer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the XML report to JSON while reading it, producing the same JSON as the json-lib
+ * {@code XMLSerializer} followed by the "site is always an array" fix up.
+ * <p>
+ * The report root, its sites and their alerts and shared messages are written as they are read,
+ * only one child of a site (e.g. a single alert item) is held in memory at a time. The elements held in memory follow
+ * the {@code XMLSerializer} rules: attributes become {@code "@name"} members, elements with only
+ * text become strings, empty elements become empty arrays, elements whose children all have the
+ * same name become arrays, repeated names are accumulated into an array and text mixed with
+ * elements is kept in a {@code "#text"} member.
+ */
+public class ReportJsonConverter {
+
+	private static final String ROOT_CONTAINER = "site";
+	private static final List<String> SITE_CONTAINERS = Arrays.asList("alerts", "messages");
+	private static final String TEXT_KEY = "#text";
+	private static final String ATTRIBUTE_PREFIX = "@";
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private ReportJsonConverter() {
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	/**
+	 * Converts the XML report read from {@code xml} to JSON, written to {@code json}. The writer is
+	 * flushed but not closed.
+	 *
+	 * @throws XMLStreamException if the XML is not well formed, e.g. has no element
+	 */
+	public static void convert(Reader xml, Writer json) throws XMLStreamException, IOException {
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(xml);
+		try {
+			// Skip the prolog
+			while (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+				if (!reader.hasNext()) {
+					throw new XMLStreamException("The XML report has no element", reader.getLocation());
+				}
+				reader.next();
+			}
+			writeRoot(reader, json);
+		} finally {
+			reader.close();
+		}
+		json.flush();
+	}
+
+	private static void writeRoot(XMLStreamReader reader, Writer out) throws XMLStreamException, IOException {
+		ObjectWriter root = new ObjectWriter(out);
+		root.writeAttributes(reader);
+		root.writeChildren(reader, Collections.singletonList(ROOT_CONTAINER), false);
+		if (!root.hasContainer(ROOT_CONTAINER)) {
+			// The sites are always an array, even if there are none
+			root.writeKey(ROOT_CONTAINER);
+			out.write("[]");
+		}
+		root.end();
+	}
+
+	/**
+	 * Writes one JSON object whose members come from an element being read. The members read
+	 * before a streamed container element are written right before it, the ones read after the
+	 * last one are written once the element ends, keeping the member order of XMLSerializer.
+	 */
+	private static class ObjectWriter {
+		private final Writer out;
+		private boolean first = true;
+		private final List<String> writtenContainers = new ArrayList<>();
+		private String openContainer;
+		private int containers;
+		private int containerElements;
+		private JsonObject pending = new JsonObject();
+
+		ObjectWriter(Writer out) throws IOException {
+			this.out = out;
+			out.write('{');
+		}
+
+		void writeAttributes(XMLStreamReader reader) throws IOException {
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				writeKey(ATTRIBUTE_PREFIX + reader.getAttributeLocalName(i));
+				writeString(out, reader.getAttributeValue(i));
+			}
+		}
+
+		/**
+		 * Reads the children of the current element up to its end tag.
+		 *
+		 * @param containerNames the names of the children written as they are read
+		 * @param containerIsArray {@code true} if each container element is an array of items
+		 *     (the alerts of a site), {@code false} if each one is an object accumulated into an
+		 *     array (the sites of the report)
+		 */
+		void writeChildren(XMLStreamReader reader, List<String> containerNames, boolean containerIsArray)
+				throws XMLStreamException, IOException {
+			while (true) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						if (containerNames.contains(reader.getLocalName())) {
+							startContainer(reader);
+							if (containerIsArray) {
+								writeItems(reader);
+							} else {
+								startContainerElement();
+								writeSite(reader, out);
+							}
+						} else {
+							setValue(pending, readElement(reader));
+						}
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (!isBlank(reader.getText())) {
+							pending.accumulate(TEXT_KEY, new JsonString(reader.getText()));
+						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						closeContainer();
+						flushPending();
+						return;
+					default:
+						break;
+				}
+			}
+		}
+
+		boolean hasContainer(String name) {
+			return writtenContainers.contains(name);
+		}
+
+		private void startContainer(XMLStreamReader reader) throws XMLStreamException, IOException {
+			String name = reader.getLocalName();
+			if (!name.equals(openContainer)) {
+				if (hasContainer(name)) {
+					// XMLSerializer would accumulate it into the array already written
+					throw new XMLStreamException("Unexpected element " + name + " after other elements", reader.getLocation());
+				}
+				closeContainer();
+				flushPending();
+				writeKey(name);
+				out.write('[');
+				writtenContainers.add(name);
+				openContainer = name;
+				containers = 0;
+				containerElements = 0;
+			}
+			containers++;
+		}
+
+		private void closeContainer() throws IOException {
+			if (openContainer != null) {
+				out.write(']');
+				openContainer = null;
+			}
+		}
+
+		private void startContainerElement() throws IOException {
+			if (containerElements > 0) {
+				out.write(',');
+			}
+			containerElements++;
+		}
+
+		/**
+		 * Writes the children of a container element (e.g. the alert items) as the elements of an
+		 * array. The items of the first container are the elements of the array, the second
+		 * container is nested in it and later ones are expanded into it, as XMLSerializer
+		 * accumulates them.
+		 */
+		private void writeItems(XMLStreamReader reader) throws XMLStreamException, IOException {
+			boolean nested = containers == 2;
+			if (nested) {
+				startContainerElement();
+				out.write('[');
+			}
+			String itemName = null;
+			boolean firstItem = true;
+			while (true) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						if (itemName == null) {
+							itemName = reader.getLocalName();
+						} else if (!itemName.equals(reader.getLocalName())) {
+							throw new XMLStreamException(
+									"Unexpected element " + reader.getLocalName() + " among " + itemName,
+									reader.getLocation());
+						}
+						if (nested) {
+							if (!firstItem) {
+								out.write(',');
+							}
+							firstItem = false;
+						} else {
+							startContainerElement();
+						}
+						toValue(readElement(reader)).write(out);
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (!isBlank(reader.getText())) {
+							throw new XMLStreamException("Unexpected text in " + openContainer, reader.getLocation());
+						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						if (nested) {
+							out.write(']');
+						}
+						return;
+					default:
+						break;
+				}
+			}
+		}
+
+		void writeKey(String key) throws IOException {
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			writeQuoted(out, key);
+			out.write(':');
+		}
+
+		void flushPending() throws IOException {
+			for (Map.Entry<String, JsonValue> member : pending.members.entrySet()) {
+				writeKey(member.getKey());
+				member.getValue().write(out);
+			}
+			pending = new JsonObject();
+		}
+
+		void end() throws IOException {
+			out.write('}');
+		}
+	}
+
+	private static void writeSite(XMLStreamReader reader, Writer out) throws XMLStreamException, IOException {
+		ObjectWriter site = new ObjectWriter(out);
+		site.writeAttributes(reader);
+		site.writeChildren(reader, SITE_CONTAINERS, true);
+		site.end();
+	}
+
+	private static Element readElement(XMLStreamReader reader) throws XMLStreamException {
+		Element element = new Element(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+		}
+		while (true) {
+			int event = reader.next();
+			switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					element.children.add(readElement(reader));
+					element.elementCount++;
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					element.children.add(reader.getText());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					return element;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Sets the value of the given element in the object, as XMLSerializer does.
+	 */
+	private static void setValue(JsonObject object, Element element) {
+		object.setOrAccumulate(element.name, toValue(element));
+	}
+
+	private static JsonValue toValue(Element element) {
+		if (!element.attributes.isEmpty()) {
+			return simplify(toObject(element));
+		}
+		if (element.isArray()) {
+			return toArray(element);
+		}
+		if (element.isObject()) {
+			return simplify(toObject(element));
+		}
+		return new JsonString(element.getText());
+	}
+
+	private static JsonObject toObject(Element element) {
+		JsonObject object = new JsonObject();
+		for (Map.Entry<String, String> attribute : element.attributes.entrySet()) {
+			object.setOrAccumulate(ATTRIBUTE_PREFIX + attribute.getKey(), new JsonString(attribute.getValue()));
+		}
+		for (Object child : element.children) {
+			if (child instanceof Element) {
+				setValue(object, (Element) child);
+			} else if (!isBlank((String) child)) {
+				object.accumulate(TEXT_KEY, new JsonString((String) child));
+			}
+		}
+		return object;
+	}
+
+	private static JsonArray toArray(Element element) {
+		JsonArray array = new JsonArray();
+		for (Object child : element.children) {
+			if (child instanceof Element) {
+				array.setValue((Element) child);
+			} else if (!isBlank((String) child)) {
+				array.add(new JsonString((String) child));
+			}
+		}
+		return array;
+	}
+
+	private static JsonValue simplify(JsonObject object) {
+		if (object.members.size() == 1 && object.members.containsKey(TEXT_KEY)) {
+			return object.members.get(TEXT_KEY);
+		}
+		return object;
+	}
+
+	private static boolean isBlank(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (!Character.isWhitespace(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a string value the way json-lib does: the text {@code null} is written as a JSON null
+	 * and text that looks like a JSON array or object is written as such when it parses.
+	 */
+	private static void writeString(Writer out, String value) throws IOException {
+		if ("null".equals(value)) {
+			out.write("null");
+			return;
+		}
+		if (hasQuotes(value)) {
+			String stripped = value.substring(1, value.length() - 1);
+			writeQuoted(out, mayBeJsonStructure(stripped) ? stripped : value);
+			return;
+		}
+		if (mayBeJsonStructure(value)) {
+			String json;
+			try {
+				json = JSONSerializer.toJSON(value).toString();
+			} catch (JSONException e) {
+				json = null;
+			}
+			if (json != null) {
+				out.write(json);
+				return;
+			}
+		}
+		writeQuoted(out, value);
+	}
+
+	private static boolean hasQuotes(String value) {
+		return value.length() > 1
+				&& (value.startsWith("\"") && value.endsWith("\"") || value.startsWith("'") && value.endsWith("'"));
+	}
+
+	private static boolean mayBeJsonStructure(String value) {
+		return value.startsWith("[") && value.endsWith("]") || value.startsWith("{") && value.endsWith("}");
+	}
+
+	private static void writeQuoted(Writer out, String value) throws IOException {
+		out.write('"');
+		int start = 0;
+		char previous = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String escape = null;
+			switch (c) {
+				case '\\':
+					escape = "\\\\";
+					break;
+				case '"':
+					escape = "\\\"";
+					break;
+				case '/':
+					if (previous == '<') {
+						escape = "\\/";
+					}
+					break;
+				case '\b':
+					escape = "\\b";
+					break;
+				case '\t':
+					escape = "\\t";
+					break;
+				case '\n':
+					escape = "\\n";
+					break;
+				case '\f':
+					escape = "\\f";
+					break;
+				case '\r':
+					escape = "\\r";
+					break;
+				default:
+					if (c < ' ') {
+						escape = String.format("\\u%04x", (int) c);
+					}
+					break;
+			}
+			if (escape != null) {
+				out.write(value, start, i - start);
+				out.write(escape);
+				start = i + 1;
+			}
+			previous = c;
+		}
+		out.write(value, start, length - start);
+		out.write('"');
+	}
+
+	private static class Element {
+		private final String name;
+		private final Map<String, String> attributes = new LinkedHashMap<>();
+		private final List<Object> children = new ArrayList<>();
+		private int elementCount;
+
+		Element(String name) {
+			this.name = name;
+		}
+
+		boolean isArray() {
+			int childCount = children.size();
+			if (childCount == 0) {
+				return true;
+			}
+			if (elementCount == 0) {
+				// Whitespace only text, read as a string rather than failing like XMLSerializer
+				return false;
+			}
+			if (childCount == 1) {
+				return true;
+			}
+			String childName = null;
+			for (Object child : children) {
+				if (child instanceof Element) {
+					String name = ((Element) child).name;
+					if (childName == null) {
+						childName = name;
+					} else if (!childName.equals(name)) {
+						return false;
+					}
+				} else if (!isBlank((String) child)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean isObject() {
+			return children.size() != 1 || children.get(0) instanceof Element;
+		}
+
+		String getText() {
+			if (children.size() == 1 && children.get(0) instanceof String) {
+				return (String) children.get(0);
+			}
+			StringBuilder sb = new StringBuilder();
+			appendText(sb);
+			return sb.toString();
+		}
+
+		private void appendText(StringBuilder sb) {
+			for (Object child : children) {
+				if (child instanceof Element) {
+					((Element) child).appendText(sb);
+				} else {
+					sb.append((String) child);
+				}
+			}
+		}
+	}
+
+	private interface JsonValue {
+		void write(Writer out) throws IOException;
+	}
+
+	private static class JsonString implements JsonValue {
+		private final String value;
+
+		JsonString(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public void write(Writer out) throws IOException {
+			writeString(out, value);
+		}
+	}
+
+	private static class JsonArray implements JsonValue {
+		private final List<JsonValue> elements = new ArrayList<>();
+		private boolean expandElements;
+
+		void add(JsonValue value) {
+			if (expandElements && value instanceof JsonArray) {
+				elements.addAll(((JsonArray) value).elements);
+			} else {
+				elements.add(value);
+			}
+		}
+
+		void setValue(Element element) {
+			add(toValue(element));
+		}
+
+		@Override
+		public void write(Writer out) throws IOException {
+			out.write('[');
+			for (int i = 0; i < elements.size(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				elements.get(i).write(out);
+			}
+			out.write(']');
+		}
+	}
+
+	private static class JsonObject implements JsonValue {
+		private final Map<String, JsonValue> members = new LinkedHashMap<>();
+
+		void accumulate(String key, JsonValue value) {
+			JsonValue existing = members.get(key);
+			if (existing == null) {
+				members.put(key, value);
+			} else if (existing instanceof JsonArray) {
+				((JsonArray) existing).add(value);
+			} else {
+				JsonArray array = new JsonArray();
+				array.add(existing);
+				array.add(value);
+				members.put(key, array);
+			}
+		}
+
+		void setOrAccumulate(String key, JsonValue value) {
+			boolean existed = members.containsKey(key);
+			accumulate(key, value);
+			JsonValue current = members.get(key);
+			if (existed && current instanceof JsonArray) {
+				((JsonArray) current).expandElements = true;
+			}
+		}
+
+		@Override
+		public void write(Writer out) throws IOException {
+			out.write('{');
+			boolean first = true;
+			for (Map.Entry<String, JsonValue> member : members.entrySet()) {
+				if (!first) {
+					out.write(',');
+				}
+				first = false;
+				writeQuoted(out, member.getKey());
+				out.write(':');
+				member.getValue().write(out);
+			}
+			out.write('}');
+		}
+	}
+}
@@ -36,14 +36,23 @@ import org.zaproxy.zap.view.widgets.WritableFileChooser;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileFilter;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.transform.Templates;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class ReportLastScan {
 
@@ -59,9 +68,26 @@ public class ReportLastScan {
 		HTML, XML, MD, JSON
 	}
 
+	private int parallelism = 1;
+
 	public ReportLastScan() {
 	}
 
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets how many sites are built concurrently. With a value greater than 1 each site is built
+	 * on a worker thread, but the sites are still written in the order of the site tree so the
+	 * report is identical to the one built sequentially.
+	 *
+	 * @param parallelism the number of worker threads, values lower than 1 are treated as 1
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
 	/**
 	 * @deprecated generate has been deprecated in favor of using {@link #generate(String fileName,
 	 * ReportType reportType)}
@@ -83,33 +109,31 @@ public class ReportLastScan {
 	}
 
 	public File generate(String fileName, ReportType reportType) throws Exception {
-		StringBuilder sb = new StringBuilder(500);
-		this.generate(sb);
-		if (reportType == ReportType.JSON) {
-			return ReportGenerator.stringToJson(sb.toString(), fileName);
-		}
-
 		if (reportType == ReportType.XML) {
-			return ReportGenerator.stringToHtml(sb.toString(), (String) null, fileName);
+			// No conversion needed, write the sites straight to the file
+			File reportFile = new File(fileName);
+			generateXmlFile(reportFile);
+			return reportFile;
 		}
 
-		String xslFileName = reportType == ReportType.MD ? "report.md.xsl" : "report.html.xsl";
-		return generateReportWithXsl(sb.toString(), fileName, xslFileName);
-	}
-
-	private static File generateReportWithXsl(String report, String reportFile, String xslFileName) throws IOException {
-		Path xslFile = Paths.get(Constant.getZapInstall(), "xml", xslFileName);
-		if (Files.exists(xslFile)) {
-			return ReportGenerator.stringToHtml(report, xslFile.toString(), reportFile);
+		Templates templates = null;
+		if (reportType != ReportType.JSON) {
+			String xslFileName = reportType == ReportType.MD ? ReportTemplates.MD_XSL : ReportTemplates.HTML_XSL;
+			templates = ReportTemplates.getReportTemplates(xslFileName);
+			if (templates == null) {
+				return new File(fileName);
+			}
+		}
+		// The XML is converted while it is generated, without a temporary file
+		if (templates == null) {
+			return ReportGenerator.writerToJson(this::generate, fileName);
 		}
+		return ReportGenerator.writerToHtml(this::generate, templates, fileName);
+	}
 
-		String path = "/org/zaproxy/zap/resources/xml/" + xslFileName;
-		try (InputStream is = ReportLastScan.class.getResourceAsStream(path)) {
-			if (is == null) {
-				LOGGER.error("Bundled file not found: {}", path);
-				return new File(reportFile);
-			}
-			return ReportGenerator.stringToHtml(report, new StreamSource(is), reportFile);
+	private void generateXmlFile(File reportFile) throws Exception {
+		try (Writer writer = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8)) {
+			this.generate(writer);
 		}
 	}
 
@@ -123,38 +147,134 @@ public class ReportLastScan {
 	}
 
 	public void generate(StringBuilder report) throws Exception {
-		report.append("<?xml version=\"1.0\"?>");
-		report.append("<OWASPZAPReport version=\"")
+		StringWriter writer = new StringWriter(500);
+		generate(writer);
+		report.append(writer.getBuffer());
+	}
+
+	/**
+	 * Generates the XML report, writing each site to the given writer as soon as it is built
+	 * rather than holding the whole report in memory. The writer is not closed.
+	 *
+	 * @param writer the writer the report is written to
+	 */
+	public void generate(Writer writer) throws Exception {
+		writer.append("<?xml version=\"1.0\"?>");
+		writer.append("<OWASPZAPReport version=\"")
 				.append(Constant.PROGRAM_VERSION)
 				.append("\" generated=\"")
 				.append(ReportGenerator.getCurrentDateTimeString())
 				.append("\">\r\n");
-		siteXML(report);
-		report.append("</OWASPZAPReport>");
+		siteXML(writer);
+		writer.append("</OWASPZAPReport>");
+		writer.flush();
 	}
 
-	private void siteXML(StringBuilder report) {
+	/**
+	 * Tells whether or not the report has any site, a report without sites is empty and is not
+	 * accepted by Software Risk Manager.
+	 */
+	public boolean hasSites() {
+		return Model.getSingleton().getSession().getSiteTree().getRoot().getChildCount() > 0;
+	}
+
+	/**
+	 * Gets the sites included in the report, by default all the sites of the site tree.
+	 */
+	protected List<SiteNode> getSites() {
 		SiteMap siteMap = Model.getSingleton().getSession().getSiteTree();
 		SiteNode root = siteMap.getRoot();
 		int siteNumber = root.getChildCount();
+		List<SiteNode> sites = new ArrayList<>(siteNumber);
 		for (int i = 0; i < siteNumber; i++) {
-			SiteNode site = (SiteNode) root.getChildAt(i);
-			String siteName = ScanPanel.cleanSiteName(site, true);
-			String[] hostAndPort = siteName.split(":");
-			boolean isSSL = (site.getNodeName().startsWith("https"));
-			String siteStart = "<site name=\"" +
-					XMLStringUtil.escapeControlChrs(site.getNodeName()) +
-					"\"" + " host=\"" + XMLStringUtil.escapeControlChrs(hostAndPort[0]) +
-					"\"" + " port=\"" + XMLStringUtil.escapeControlChrs(hostAndPort[1]) +
-					"\"" + " ssl=\"" + isSSL + "\"" + ">";
-			StringBuilder extensionsXML = getExtensionsXML(site);
-			String siteEnd = "</site>";
-			report.append(siteStart);
-			report.append(extensionsXML);
-			report.append(siteEnd);
+			sites.add((SiteNode) root.getChildAt(i));
+		}
+		return sites;
+	}
+
+	private void siteXML(Writer writer) throws IOException {
+		List<SiteNode> sites = getSites();
+		int siteNumber = sites.size();
+		if (parallelism > 1 && siteNumber > 1) {
+			parallelSiteXML(writer, sites, siteNumber);
+			return;
+		}
+		for (SiteNode site : sites) {
+			writeSiteXML(site, writer);
+		}
+	}
+
+	private void parallelSiteXML(Writer writer, List<SiteNode> sites, int siteNumber) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			// Only keep a few sites ahead of the writer, so memory is bound by the parallelism
+			// rather than by the number of sites
+			Deque<Future<String>> pending = new ArrayDeque<>();
+			int next = 0;
+			while (next < siteNumber || !pending.isEmpty()) {
+				while (next < siteNumber && pending.size() < parallelism * 2) {
+					SiteNode site = sites.get(next++);
+					pending.add(pool.submit(() -> buildSiteXML(site)));
+				}
+				writer.append(getSiteXML(pending.poll()));
+			}
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 
+	private String buildSiteXML(SiteNode site) {
+		StringWriter siteWriter = new StringWriter();
+		try {
+			writeSiteXML(site, siteWriter);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return siteWriter.toString();
+	}
+
+	private static String getSiteXML(Future<String> site) throws IOException {
+		try {
+			return site.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while generating the report");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private void writeSiteXML(SiteNode site, Writer writer) throws IOException {
+		String siteName = ScanPanel.cleanSiteName(site, true);
+		String[] hostAndPort = siteName.split(":");
+		boolean isSSL = (site.getNodeName().startsWith("https"));
+		String siteStart = "<site name=\"" +
+				XMLStringUtil.escapeControlChrs(site.getNodeName()) +
+				"\"" + " host=\"" + XMLStringUtil.escapeControlChrs(hostAndPort[0]) +
+				"\"" + " port=\"" + XMLStringUtil.escapeControlChrs(hostAndPort[1]) +
+				"\"" + " ssl=\"" + isSSL + "\"" + ">";
+		String siteEnd = "</site>";
+		writer.append(siteStart);
+		writeExtensionsXML(site, writer);
+		writer.append(siteEnd);
+	}
+
+	/**
+	 * Writes the XML of the given site to the given writer. By default this is the content
+	 * returned by {@link #getExtensionsXML(SiteNode)}, subclasses can override it to avoid
+	 * building the whole site in memory.
+	 */
+	protected void writeExtensionsXML(SiteNode site, Writer writer) throws IOException {
+		writer.append(getExtensionsXML(site));
+	}
+
 	public StringBuilder getExtensionsXML(SiteNode site) {
 		StringBuilder extensionXml = new StringBuilder();
 		ExtensionLoader loader = Control.getSingleton().getExtensionLoader();
@@ -17,15 +17,88 @@
  */
 package com.blackduck.zap.srm;
 
+import org.parosproxy.paros.core.scanner.Alert;
 import org.parosproxy.paros.model.SiteNode;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
 public class ReportLastScanHttp extends ReportLastScan {
 
+	private final ReportOptions options;
+	private final AlertFingerprintStage seenStage;
+
 	ReportLastScanHttp() {
+		this(ReportOptions.fromProperties());
+	}
+
+	ReportLastScanHttp(ReportOptions options) {
+		this.options = options;
+		// Not uploaded, the alerts written are not recorded as seen
+		this.seenStage = options.getSeenStage() != null || options.getSeenAlerts() == ExtensionAlertHttp.SeenAlerts.INCLUDE
+				? options.getSeenStage()
+				: AlertFingerprintStage.create();
+		setParallelism(SrmProperties.getInstance().getReportThreads());
 	}
 
 	@Override
 	public StringBuilder getExtensionsXML(SiteNode site) {
-		return new StringBuilder(new ExtensionAlertHttp().getXml(site));
+		StringWriter xml = new StringWriter();
+		try {
+			writeExtensionsXML(site, xml);
+		} catch (IOException e) {
+			// Not thrown by StringWriter
+			throw new UncheckedIOException(e);
+		}
+		return new StringBuilder(xml.toString());
+	}
+
+	@Override
+	protected void writeExtensionsXML(SiteNode site, Writer writer) throws IOException {
+		newExtensionAlertHttp().writeXml(getAlerts(site), writer);
+	}
+
+	@Override
+	public boolean hasSites() {
+		return options.getScope().isAll() ? super.hasSites() : !getSites().isEmpty();
+	}
+
+	/**
+	 * Gets the sites included in the report, those that can have alerts in the scope of the
+	 * report.
+	 */
+	@Override
+	protected List<SiteNode> getSites() {
+		return options.getScope().getSites(super.getSites());
+	}
+
+	/**
+	 * Gets the alerts of the given site included in the report, by default all of them or those
+	 * in the scope of the report and, for a delta report, not yet uploaded.
+	 */
+	protected List<Alert> getAlerts(SiteNode site) {
+		List<Alert> alerts = options.getScope().getAlerts(site);
+		if (options.getDelta() == null) {
+			return alerts;
+		}
+		List<Alert> included = new ArrayList<>();
+		for (Alert alert : alerts) {
+			if (options.isIncluded(alert)) {
+				included.add(alert);
+			}
+		}
+		return included;
+	}
+
+	ReportOptions getOptions() {
+		return options;
+	}
+
+	private ExtensionAlertHttp newExtensionAlertHttp() {
+		return new ExtensionAlertHttp(options.getDataLimits(), options.getMessageLayout(), options.getProgress(), options.getSeenAlerts(), seenStage);
 	}
 }
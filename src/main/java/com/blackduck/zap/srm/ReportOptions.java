@@ -0,0 +1,221 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import com.blackduck.zap.srm.ExtensionAlertHttp.MessageLayout;
+import com.blackduck.zap.srm.ExtensionAlertHttp.SeenAlerts;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.core.scanner.Alert;
+
+/**
+ * The options used to generate the report uploaded to Software Risk Manager.
+ */
+public class ReportOptions {
+
+	private static final Logger LOGGER = LogManager.getLogger(ReportOptions.class);
+
+	private final HttpDataLimits dataLimits;
+	private final MessageLayout messageLayout;
+	private final ReportProgress progress;
+	private final AlertDelta delta;
+	private final SeenAlerts seenAlerts;
+	private final ReportScope scope;
+	private final AlertFingerprintStage seenStage;
+
+	public ReportOptions(HttpDataLimits dataLimits, MessageLayout messageLayout) {
+		this(dataLimits, messageLayout, null);
+	}
+
+	/**
+	 * @param progress the progress updated while the report is generated and uploaded, may be
+	 *     {@code null}
+	 */
+	public ReportOptions(HttpDataLimits dataLimits, MessageLayout messageLayout, ReportProgress progress) {
+		this(dataLimits, messageLayout, progress, null);
+	}
+
+	/**
+	 * @param progress the progress updated while the report is generated and uploaded, may be
+	 *     {@code null}
+	 * @param delta the alerts included in the report, {@code null} for all of them
+	 */
+	public ReportOptions(HttpDataLimits dataLimits, MessageLayout messageLayout, ReportProgress progress, AlertDelta delta) {
+		this(dataLimits, messageLayout, progress, delta, SeenAlerts.INCLUDE);
+	}
+
+	/**
+	 * @param progress the progress updated while the report is generated and uploaded, may be
+	 *     {@code null}
+	 * @param delta the alerts included in the report, {@code null} for all of them
+	 * @param seenAlerts what is done with the alerts written to a report before
+	 */
+	public ReportOptions(HttpDataLimits dataLimits, MessageLayout messageLayout, ReportProgress progress, AlertDelta delta, SeenAlerts seenAlerts) {
+		this(dataLimits, messageLayout, progress, delta, seenAlerts, ReportScope.ALL);
+	}
+
+	/**
+	 * @param progress the progress updated while the report is generated and uploaded, may be
+	 *     {@code null}
+	 * @param delta the alerts included in the report, {@code null} for all of them
+	 * @param seenAlerts what is done with the alerts written to a report before
+	 * @param scope the part of the site tree the report is limited to
+	 */
+	public ReportOptions(HttpDataLimits dataLimits, MessageLayout messageLayout, ReportProgress progress, AlertDelta delta, SeenAlerts seenAlerts, ReportScope scope) {
+		this(dataLimits, messageLayout, progress, delta, seenAlerts, scope, null);
+	}
+
+	private ReportOptions(HttpDataLimits dataLimits, MessageLayout messageLayout, ReportProgress progress, AlertDelta delta, SeenAlerts seenAlerts, ReportScope scope, AlertFingerprintStage seenStage) {
+		this.dataLimits = dataLimits;
+		this.messageLayout = messageLayout;
+		this.progress = progress;
+		this.delta = delta;
+		this.seenAlerts = seenAlerts;
+		this.scope = scope;
+		this.seenStage = seenStage;
+	}
+
+	/**
+	 * Gets the options configured in the {@link SrmProperties}.
+	 *
+	 * @throws InvalidReportScopeException if the saved report scope is not valid
+	 */
+	public static ReportOptions fromProperties() {
+		return fromProperties(getScopeFromProperties());
+	}
+
+	/**
+	 * Gets the options configured in the {@link SrmProperties}, limited to the given scope
+	 * instead of the saved one.
+	 */
+	public static ReportOptions fromProperties(ReportScope scope) {
+		SrmProperties properties = SrmProperties.getInstance();
+		return new ReportOptions(HttpDataLimits.fromProperties(), properties.getMessageLayout(), null, null, properties.getSeenAlerts(), scope);
+	}
+
+	/**
+	 * Gets the report scope saved in the {@link SrmProperties}.
+	 *
+	 * @throws InvalidReportScopeException if the saved report scope is not valid, e.g. names a
+	 *         context that does not exist
+	 */
+	public static ReportScope getScopeFromProperties() {
+		SrmProperties properties = SrmProperties.getInstance();
+		try {
+			return ReportScope.parse(properties.getReportUrlPrefixes(), properties.getReportContexts());
+		} catch (IllegalArgumentException e) {
+			// Rather than silently reporting more or less than asked for
+			LOGGER.warn("Invalid SRM report scope, no report generated: {}", e.getMessage());
+			throw new InvalidReportScopeException(Constant.messages.getString("srm.error.scope", e.getMessage()), e);
+		}
+	}
+
+	public HttpDataLimits getDataLimits() {
+		return dataLimits;
+	}
+
+	public MessageLayout getMessageLayout() {
+		return messageLayout;
+	}
+
+	public SeenAlerts getSeenAlerts() {
+		return seenAlerts;
+	}
+
+	/**
+	 * Gets the part of the site tree the report is limited to.
+	 */
+	public ReportScope getScope() {
+		return scope;
+	}
+
+	/**
+	 * Gets the progress of the report, or {@code null} if not tracked.
+	 */
+	public ReportProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Gets the alerts included in the report, or {@code null} if all of them are.
+	 */
+	public AlertDelta getDelta() {
+		return delta;
+	}
+
+	/**
+	 * Gets where the alerts written to the report are staged, or {@code null} if they are not
+	 * recorded as seen.
+	 */
+	public AlertFingerprintStage getSeenStage() {
+		return seenStage;
+	}
+
+	/**
+	 * Tells whether or not the given alert is included in the report.
+	 */
+	public boolean isIncluded(Alert alert) {
+		return delta == null || delta.isIncluded(alert);
+	}
+
+	/**
+	 * Gets a copy of these options tracking the given progress.
+	 */
+	public ReportOptions withProgress(ReportProgress progress) {
+		return new ReportOptions(dataLimits, messageLayout, progress, delta, seenAlerts, scope, seenStage);
+	}
+
+	/**
+	 * Gets a copy of these options including only the alerts of the given delta.
+	 */
+	public ReportOptions withDelta(AlertDelta delta) {
+		return new ReportOptions(dataLimits, messageLayout, progress, delta, seenAlerts, scope, seenStage);
+	}
+
+	/**
+	 * Gets a copy of these options limited to the given part of the site tree.
+	 */
+	public ReportOptions withScope(ReportScope scope) {
+		return new ReportOptions(dataLimits, messageLayout, progress, delta, seenAlerts, scope, seenStage);
+	}
+
+	/**
+	 * Gets a copy of these options for a report to upload, the alerts written to it are staged and
+	 * recorded as seen by {@link #commit()}. The copy is used for a single report.
+	 */
+	public ReportOptions forUpload() {
+		if (seenAlerts == SeenAlerts.INCLUDE) {
+			return this;
+		}
+		return new ReportOptions(dataLimits, messageLayout, progress, delta, seenAlerts, scope, AlertFingerprintStage.create());
+	}
+
+	/**
+	 * Records that the report was uploaded: the alerts of its delta in the upload watermark and
+	 * the alerts written as seen, if any.
+	 */
+	public void commit() {
+		if (delta != null) {
+			delta.commit();
+		}
+		if (seenStage != null) {
+			seenStage.commit();
+		}
+	}
+}
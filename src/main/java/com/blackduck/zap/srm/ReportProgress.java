@@ -0,0 +1,219 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of the generation and upload of a report: the number of alerts written, the bytes
+ * sent and how long it took to send them and for the server to respond. Cancelling it makes the
+ * generation or upload in progress fail at the next alert or write.
+ */
+public class ReportProgress {
+
+	private final ReportProgress parent;
+	private final AtomicLong alertsWritten = new AtomicLong();
+	// All the bytes sent, including those of retries and of each target
+	private final AtomicLong bytesUploaded = new AtomicLong();
+	// The size of all the requests sent, -1 if the size of any of them is not known
+	private final AtomicLong bytesToUpload = new AtomicLong();
+	private final AtomicLong uploadStarted = new AtomicLong();
+	private final AtomicInteger sending = new AtomicInteger();
+	private volatile long uploadSent;
+	private volatile long responseReceived;
+	private volatile boolean cancelled;
+	private volatile String analysisJobId;
+
+	public ReportProgress() {
+		this(null);
+	}
+
+	/**
+	 * Creates the progress of a part of the given progress, e.g. the upload to one of several
+	 * targets. The bytes sent are also counted in the parent, which cancels its parts.
+	 */
+	public ReportProgress(ReportProgress parent) {
+		this.parent = parent;
+	}
+
+	public long getAlertsWritten() {
+		return alertsWritten.get();
+	}
+
+	public long getBytesUploaded() {
+		return bytesUploaded.get();
+	}
+
+	/**
+	 * Gets the number of bytes of the requests sent or being sent, -1 if not known, e.g. for
+	 * reports uploaded while generated.
+	 */
+	public long getBytesToUpload() {
+		return bytesToUpload.get();
+	}
+
+	/**
+	 * Gets the time the first request started to be sent, 0 if none did yet.
+	 */
+	public long getUploadStarted() {
+		return uploadStarted.get();
+	}
+
+	/**
+	 * Gets the time, in milliseconds, spent sending the requests, from the start of the first one
+	 * to the end of the last one or to now, if still sending.
+	 */
+	public long getSendTime() {
+		long started = uploadStarted.get();
+		if (started == 0) {
+			return 0;
+		}
+		long end = sending.get() > 0 || uploadSent < started ? System.currentTimeMillis() : uploadSent;
+		return Math.max(0, end - started);
+	}
+
+	/**
+	 * Gets the time, in milliseconds, the server took to respond once the last request was sent,
+	 * the time it has been waited for so far if it has not responded yet.
+	 */
+	public long getServerTime() {
+		long sent = uploadSent;
+		if (sent == 0 || sending.get() > 0) {
+			return 0;
+		}
+		long received = responseReceived;
+		return Math.max(0, (received >= sent ? received : System.currentTimeMillis()) - sent);
+	}
+
+	/**
+	 * Gets the average number of bytes sent per second, 0 if nothing was sent yet.
+	 */
+	public long getThroughput() {
+		long sendTime = getSendTime();
+		return sendTime > 0 ? bytesUploaded.get() * 1000 / sendTime : 0;
+	}
+
+	/**
+	 * Gets the id of the analysis job started by Software Risk Manager for the uploaded report,
+	 * or {@code null} if none was returned.
+	 */
+	public String getAnalysisJobId() {
+		return analysisJobId;
+	}
+
+	void setAnalysisJobId(String analysisJobId) {
+		this.analysisJobId = analysisJobId;
+	}
+
+	/**
+	 * Cancels the generation or upload in progress.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || (parent != null && parent.isCancelled());
+	}
+
+	/**
+	 * Records that an alert was written to the report.
+	 *
+	 * @throws InterruptedIOException if cancelled
+	 */
+	void alertWritten() throws InterruptedIOException {
+		checkCancelled();
+		alertsWritten.incrementAndGet();
+	}
+
+	/**
+	 * Records that the given number of bytes were sent.
+	 *
+	 * @throws InterruptedIOException if cancelled
+	 */
+	void bytesUploaded(long count) throws InterruptedIOException {
+		checkCancelled();
+		bytesUploaded.addAndGet(count);
+		if (parent != null) {
+			parent.bytesUploaded(count);
+		}
+	}
+
+	/**
+	 * Records that a request of the given size, -1 if not known, started to be sent.
+	 */
+	void sendStarted(long contentLength) {
+		uploadStarted.compareAndSet(0, System.currentTimeMillis());
+		sending.incrementAndGet();
+		bytesToUpload.getAndUpdate(total -> total < 0 || contentLength < 0 ? -1 : total + contentLength);
+		if (parent != null) {
+			parent.sendStarted(contentLength);
+		}
+	}
+
+	/**
+	 * Records that a request was sent, or failed to be.
+	 */
+	void sendFinished() {
+		uploadSent = System.currentTimeMillis();
+		sending.decrementAndGet();
+		if (parent != null) {
+			parent.sendFinished();
+		}
+	}
+
+	/**
+	 * Records that the server responded to a request, or that it failed.
+	 */
+	void responseReceived() {
+		responseReceived = System.currentTimeMillis();
+		if (parent != null) {
+			parent.responseReceived();
+		}
+	}
+
+	private void checkCancelled() throws InterruptedIOException {
+		if (isCancelled()) {
+			throw new InterruptedIOException("Cancelled");
+		}
+	}
+
+	/**
+	 * Gets a stream that counts the bytes written to the given stream as uploaded.
+	 */
+	OutputStream countUploaded(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				bytesUploaded(1);
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				bytesUploaded(len);
+				out.write(b, off, len);
+			}
+		};
+	}
+}
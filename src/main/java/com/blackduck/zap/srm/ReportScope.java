@@ -0,0 +1,350 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.Model;
+import org.parosproxy.paros.model.Session;
+import org.parosproxy.paros.model.SiteNode;
+import org.zaproxy.zap.model.Context;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The part of the site tree a report is limited to: the alerts whose URI starts with one of the
+ * URL prefixes, or is in one of the contexts. A site, e.g. {@code https://example.com}, is a
+ * prefix without a path, it does not match {@code https://example.com.other.org}.
+ * <p>
+ * The sites that can't have alerts in scope are skipped altogether. Within a site, the alerts
+ * are taken from the deepest node of the site tree covering each URL prefix, the other nodes of
+ * the site are not visited. The sites that can be in a context, whose URLs can match its include
+ * regular expressions, are visited whole.
+ */
+public class ReportScope {
+
+	/**
+	 * The whole site tree.
+	 */
+	public static final ReportScope ALL = new ReportScope(Collections.emptyList(), Collections.emptyList(), true);
+
+	/**
+	 * Nothing, for a scope that could not be read.
+	 */
+	public static final ReportScope NONE = new ReportScope(Collections.emptyList(), Collections.emptyList(), false);
+
+	private final List<String> urlPrefixes;
+	private final List<Context> contexts;
+	private final List<Pattern> contextPatterns;
+	private final boolean all;
+	// The sites the scope is limited to, null for all of them
+	private final Set<SiteNode> sites;
+
+	private ReportScope(List<String> urlPrefixes, List<Context> contexts, boolean all) {
+		this.urlPrefixes = urlPrefixes;
+		this.contexts = contexts;
+		this.all = all;
+		this.sites = null;
+		contextPatterns = new ArrayList<>();
+		for (Context context : contexts) {
+			for (String regex : context.getIncludeInContextRegexs()) {
+				try {
+					contextPatterns.add(Pattern.compile(regex));
+				} catch (PatternSyntaxException e) {
+					// Not included in the context either
+				}
+			}
+		}
+	}
+
+	private ReportScope(ReportScope scope, Set<SiteNode> sites) {
+		this.urlPrefixes = scope.urlPrefixes;
+		this.contexts = scope.contexts;
+		this.contextPatterns = scope.contextPatterns;
+		this.all = scope.all;
+		this.sites = sites;
+	}
+
+	/**
+	 * Reads a scope from comma separated URL prefixes and contexts, names or ids. The scope is
+	 * the whole site tree if both are empty.
+	 *
+	 * @throws IllegalArgumentException if a URL prefix is not an absolute URL or a context does
+	 *     not exist
+	 */
+	public static ReportScope parse(String urlPrefixes, String contexts) {
+		List<String> prefixes = new ArrayList<>();
+		for (String prefix : split(urlPrefixes)) {
+			if (!prefix.contains("://")) {
+				throw new IllegalArgumentException("Not an absolute URL: " + prefix);
+			}
+			prefixes.add(prefix);
+		}
+
+		List<Context> contextList = new ArrayList<>();
+		List<String> contextNames = split(contexts);
+		if (!contextNames.isEmpty()) {
+			Session session = Model.getSingleton().getSession();
+			for (String name : contextNames) {
+				Context context = getContext(session, name);
+				if (context == null) {
+					throw new IllegalArgumentException("No such context: " + name);
+				}
+				contextList.add(context);
+			}
+		}
+
+		if (prefixes.isEmpty() && contextList.isEmpty()) {
+			return ALL;
+		}
+		return new ReportScope(Collections.unmodifiableList(prefixes), Collections.unmodifiableList(contextList), false);
+	}
+
+	/**
+	 * Gets a copy of this scope limited to the given sites, e.g. those with new alerts.
+	 */
+	public ReportScope withSites(Collection<SiteNode> sites) {
+		return new ReportScope(this, Collections.unmodifiableSet(new HashSet<>(sites)));
+	}
+
+	/**
+	 * Tells whether or not the scope is the whole site tree.
+	 */
+	public boolean isAll() {
+		return all && sites == null;
+	}
+
+	public List<String> getUrlPrefixes() {
+		return urlPrefixes;
+	}
+
+	public List<Context> getContexts() {
+		return contexts;
+	}
+
+	/**
+	 * Gets those of the given sites that can have alerts in scope.
+	 */
+	public List<SiteNode> getSites(List<SiteNode> sites) {
+		if (isAll()) {
+			return sites;
+		}
+		List<SiteNode> included = new ArrayList<>();
+		for (SiteNode site : sites) {
+			if (this.sites != null && !this.sites.contains(site)) {
+				continue;
+			}
+			String name = site.getNodeName();
+			if (all || hasPrefixUnder(name) || isInContexts(name)) {
+				included.add(site);
+			}
+		}
+		return included;
+	}
+
+	/**
+	 * Gets the alerts of the given site in scope.
+	 */
+	public List<Alert> getAlerts(SiteNode site) {
+		if (all) {
+			return site.getAlerts();
+		}
+		String name = site.getNodeName();
+		for (String prefix : urlPrefixes) {
+			if (matches(name, prefix)) {
+				// All the URLs of the site start with the prefix
+				return site.getAlerts();
+			}
+		}
+
+		List<SiteNode> nodes = new ArrayList<>();
+		if (isInContexts(name)) {
+			nodes.add(site);
+		} else {
+			for (String prefix : urlPrefixes) {
+				if (matches(prefix, name)) {
+					addNode(nodes, findNode(site, prefix.substring(name.length())));
+				}
+			}
+		}
+
+		List<Alert> alerts = new ArrayList<>();
+		for (SiteNode node : nodes) {
+			for (Alert alert : node.getAlerts()) {
+				if (isIncluded(alert)) {
+					alerts.add(alert);
+				}
+			}
+		}
+		return alerts;
+	}
+
+	/**
+	 * Tells whether or not the given alert is in scope.
+	 */
+	public boolean isIncluded(Alert alert) {
+		if (all) {
+			return true;
+		}
+		String uri = alert.getUri();
+		for (String prefix : urlPrefixes) {
+			if (matches(uri, prefix)) {
+				return true;
+			}
+		}
+		for (Context context : contexts) {
+			if (context.isInContext(uri)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean hasPrefixUnder(String site) {
+		for (String prefix : urlPrefixes) {
+			if (matches(site, prefix) || matches(prefix, site)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether or not URLs of the given site can match the include regular expressions of
+	 * the contexts, that is the site matches or is the start of a match.
+	 */
+	private boolean isInContexts(String site) {
+		for (Pattern pattern : contextPatterns) {
+			Matcher matcher = pattern.matcher(site);
+			if (matcher.matches() || matcher.hitEnd()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether or not the given URL starts with the given prefix. A prefix without a path
+	 * must be followed by the path, query or fragment of the URL, if any.
+	 */
+	static boolean matches(String url, String prefix) {
+		if (!url.startsWith(prefix)) {
+			return false;
+		}
+		if (url.length() == prefix.length() || prefix.indexOf('/', prefix.indexOf("://") + 3) != -1) {
+			return true;
+		}
+		char next = url.charAt(prefix.length());
+		return next == '/' || next == '?' || next == '#';
+	}
+
+	/**
+	 * Finds the deepest node of the site whose path is covered by the given path, following the
+	 * complete path segments.
+	 */
+	private static SiteNode findNode(SiteNode site, String path) {
+		int queryIdx = path.indexOf('?');
+		if (queryIdx != -1) {
+			path = path.substring(0, queryIdx);
+		}
+		String[] segments = path.split("/", -1);
+		SiteNode node = site;
+		// The last segment is not complete, e.g. "/app/lo" can match "/app/login"
+		for (int i = 0; i < segments.length - 1; i++) {
+			if (segments[i].isEmpty()) {
+				continue;
+			}
+			SiteNode child = findChild(node, segments[i]);
+			if (child == null) {
+				break;
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	private static SiteNode findChild(SiteNode node, String name) {
+		for (int i = 0; i < node.getChildCount(); i++) {
+			SiteNode child = (SiteNode) node.getChildAt(i);
+			if (name.equals(child.getNodeName())) {
+				return child;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the given node unless it or an ancestor was already added, removing its descendants,
+	 * so that the alerts of a node are not taken twice.
+	 */
+	private static void addNode(List<SiteNode> nodes, SiteNode node) {
+		for (SiteNode added : nodes) {
+			if (added == node || node.isNodeAncestor(added)) {
+				return;
+			}
+		}
+		nodes.removeIf(added -> added.isNodeAncestor(node));
+		nodes.add(node);
+	}
+
+	private static Context getContext(Session session, String name) {
+		Context context = session.getContext(name);
+		if (context == null) {
+			try {
+				context = session.getContext(Integer.parseInt(name));
+			} catch (NumberFormatException e) {
+				// Not an id
+			}
+		}
+		return context;
+	}
+
+	private static List<String> split(String values) {
+		List<String> list = new ArrayList<>();
+		if (values != null) {
+			for (String value : values.split(",")) {
+				if (!value.trim().isEmpty()) {
+					list.add(value.trim());
+				}
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public String toString() {
+		String scope;
+		if (all) {
+			scope = "all";
+		} else {
+			List<String> parts = new ArrayList<>(urlPrefixes);
+			for (Context context : contexts) {
+				parts.add("context " + context.getName());
+			}
+			scope = parts.isEmpty() ? "none" : String.join(", ", parts);
+		}
+		return sites != null ? scope + " of " + sites.size() + " sites" : scope;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A multipart file part that generates the XML report while the request is written, so that the
+ * upload overlaps with the generation and the report is never written to disk. The size of the
+ * report is not known up front, so the request is sent chunked.
+ */
+public class ReportStreamBody extends AbstractContentBody {
+
+	private static final String FILE_NAME = "srm-zap-report.xml";
+
+	private final ReportLastScan report;
+	private final boolean compress;
+	private volatile boolean written;
+
+	/**
+	 * @param report the report to generate
+	 * @param compress {@code true} if the report should be gzipped while it is generated
+	 */
+	public ReportStreamBody(ReportLastScan report, boolean compress) {
+		super(compress ? GzipFileBody.GZIP_CONTENT_TYPE : ContentType.APPLICATION_XML);
+		this.report = report;
+		this.compress = compress;
+	}
+
+	@Override
+	public String getFilename() {
+		return compress ? FILE_NAME + ".gz" : FILE_NAME;
+	}
+
+	/**
+	 * Tells whether or not the report was (or is being) generated into a request. The report is
+	 * not generated again, a request that fails afterwards is not retried.
+	 */
+	public boolean isWritten() {
+		return written;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		written = true;
+		OutputStream reportOut = compress ? new GzipFileBody.NonClosingGzipOutputStream(out) : new NonClosingOutputStream(out);
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(reportOut, StandardCharsets.UTF_8))) {
+			report.generate(writer);
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Failed to generate the report: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public String getTransferEncoding() {
+		return MIME.ENC_BINARY;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	private static class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.Constant;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of compiled XSLT stylesheets used to convert the reports. Stylesheets read from disk are
+ * keyed by their path and compiled again when their modification time changes, bundled
+ * stylesheets are compiled once.
+ */
+public class ReportTemplates {
+
+	private static final Logger LOGGER = LogManager.getLogger(ReportTemplates.class);
+
+	public static final String HTML_XSL = "report.html.xsl";
+	public static final String MD_XSL = "report.md.xsl";
+
+	private static final String BUNDLED_XSL_PATH = "/org/zaproxy/zap/resources/xml/";
+	private static final String RESOURCE_KEY_PREFIX = "resource:";
+
+	private static final Map<String, CachedTemplates> CACHE = new ConcurrentHashMap<>();
+
+	private static TransformerFactory transformerFactory;
+
+	private ReportTemplates() {
+	}
+
+	/**
+	 * Gets the compiled stylesheet for one of the ZAP report stylesheets, e.g. {@link #HTML_XSL}.
+	 * The stylesheet in the <code>xml</code> directory of the ZAP installation is used if present,
+	 * otherwise the one bundled with ZAP.
+	 *
+	 * @param xslFileName the file name of the stylesheet
+	 * @return the compiled stylesheet, or {@code null} if it was not found
+	 */
+	public static Templates getReportTemplates(String xslFileName) throws TransformerConfigurationException, IOException {
+		Path xslFile = Paths.get(Constant.getZapInstall(), "xml", xslFileName);
+		if (Files.exists(xslFile)) {
+			return getTemplates(xslFile.toFile());
+		}
+		return getBundledTemplates(BUNDLED_XSL_PATH + xslFileName);
+	}
+
+	/**
+	 * Gets the compiled stylesheet for the given file, compiling it if it was not yet cached or
+	 * if it was modified since it was cached.
+	 */
+	public static Templates getTemplates(File stylesheet) throws TransformerConfigurationException {
+		File file = stylesheet.getAbsoluteFile();
+		String key = file.getPath();
+		long lastModified = file.lastModified();
+
+		CachedTemplates cached = CACHE.get(key);
+		if (cached != null && cached.lastModified == lastModified) {
+			return cached.templates;
+		}
+
+		Templates templates = compile(new StreamSource(file));
+		CACHE.put(key, new CachedTemplates(templates, lastModified));
+		return templates;
+	}
+
+	/**
+	 * Gets the compiled stylesheet for the given class path resource.
+	 *
+	 * @return the compiled stylesheet, or {@code null} if the resource does not exist
+	 */
+	public static Templates getBundledTemplates(String resourcePath) throws TransformerConfigurationException, IOException {
+		String key = RESOURCE_KEY_PREFIX + resourcePath;
+		CachedTemplates cached = CACHE.get(key);
+		if (cached != null) {
+			return cached.templates;
+		}
+
+		URL resource = ReportTemplates.class.getResource(resourcePath);
+		if (resource == null) {
+			LOGGER.error("Bundled file not found: {}", resourcePath);
+			return null;
+		}
+		Templates templates;
+		try (InputStream is = resource.openStream()) {
+			templates = compile(new StreamSource(is, resource.toExternalForm()));
+		}
+		CACHE.put(key, new CachedTemplates(templates, 0));
+		return templates;
+	}
+
+	/**
+	 * Compiles the HTML and Markdown report stylesheets, so that the first export does not have to.
+	 */
+	public static void prewarm() {
+		for (String xslFileName : new String[]{HTML_XSL, MD_XSL}) {
+			try {
+				getReportTemplates(xslFileName);
+			} catch (TransformerConfigurationException | IOException e) {
+				LOGGER.warn("Failed to compile report stylesheet {}: {}", xslFileName, e.getMessage());
+			}
+		}
+	}
+
+	public static void clear() {
+		CACHE.clear();
+	}
+
+	private static synchronized Templates compile(StreamSource source) throws TransformerConfigurationException {
+		// TransformerFactory is not thread safe, the resulting Templates are
+		if (transformerFactory == null) {
+			transformerFactory = TransformerFactory.newInstance();
+		}
+		return transformerFactory.newTemplates(source);
+	}
+
+	private static class CachedTemplates {
+		private final Templates templates;
+		private final long lastModified;
+
+		CachedTemplates(Templates templates, long lastModified) {
+			this.templates = templates;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.SiteNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A report split into several smaller reports, the shards, each a complete
+ * {@code OWASPZAPReport} uploaded as a separate file of the same analysis.
+ * <p>
+ * Without an alert limit each site is a shard. With a limit the sites are packed into shards of
+ * at most that many alerts, a site with more alerts than the limit being split across shards. The
+ * shards are generated concurrently, so a site with many alerts does not hold up the others.
+ */
+public class ShardedReport {
+
+	private static final Logger LOGGER = LogManager.getLogger(ShardedReport.class);
+
+	static final long CANCEL_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+	private final ReportOptions options;
+	private final int maxAlerts;
+	private final int threads;
+
+	/**
+	 * @param maxAlerts the maximum number of alerts of each shard, 0 or less for a shard per site
+	 * @param threads the number of shards generated at the same time
+	 */
+	public ShardedReport(ReportOptions options, int maxAlerts, int threads) {
+		this.options = options;
+		this.maxAlerts = maxAlerts;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Creates the sharded report with the shard size and the number of threads configured in the
+	 * {@link SrmProperties}.
+	 */
+	public static ShardedReport fromProperties(ReportOptions options) {
+		SrmProperties properties = SrmProperties.getInstance();
+		return new ShardedReport(options, properties.getShardMaxAlerts(), properties.getShardThreads());
+	}
+
+	/**
+	 * Generates the shards to temporary files.
+	 *
+	 * @return the shard files, in the order of the site tree, empty if there are no sites
+	 */
+	public List<File> generate() throws IOException {
+		List<Shard> shards = plan(new ReportLastScanHttp(options).getSites());
+		if (shards.isEmpty()) {
+			return new ArrayList<>();
+		}
+		LOGGER.debug("Generating the report in {} shards", shards.size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(threads, shards.size()), SrmExecutor.newThreadFactory("ZAP-SRM-Shard-"));
+		List<Future<File>> futures = new ArrayList<>(shards.size());
+		List<File> files = new ArrayList<>(shards.size());
+		try {
+			for (Shard shard : shards) {
+				futures.add(executor.submit(shard::generateFile));
+			}
+			for (Future<File> future : futures) {
+				files.add(getFile(future));
+			}
+			return files;
+		} catch (IOException | RuntimeException e) {
+			futures.forEach(future -> future.cancel(true));
+			executor.shutdownNow();
+			// Wait for the shards in progress, cancelled or not, not to leave their files behind
+			awaitTermination(executor);
+			for (Shard shard : shards) {
+				shard.deleteFile();
+			}
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<Shard> plan(List<SiteNode> sites) {
+		List<Shard> shards = new ArrayList<>();
+		Shard shard = null;
+		for (SiteNode site : sites) {
+			List<Alert> alerts = getReportedAlerts(site);
+			if (maxAlerts <= 0) {
+				shard = new Shard();
+				shard.add(site, alerts);
+				shards.add(shard);
+				continue;
+			}
+
+			int start = 0;
+			do {
+				if (shard == null || shard.alertCount >= maxAlerts) {
+					shard = new Shard();
+					shards.add(shard);
+				}
+				int end = Math.min(alerts.size(), start + maxAlerts - shard.alertCount);
+				shard.add(site, alerts.subList(start, end));
+				start = end;
+			} while (start < alerts.size());
+		}
+		return shards;
+	}
+
+	private List<Alert> getReportedAlerts(SiteNode site) {
+		List<Alert> alerts = new ArrayList<>();
+		for (Alert alert : options.getScope().getAlerts(site)) {
+			if (alert.getConfidence() != Alert.CONFIDENCE_FALSE_POSITIVE && options.isIncluded(alert)) {
+				alerts.add(alert);
+			}
+		}
+		return alerts;
+	}
+
+	private static File getFile(Future<File> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while generating the report");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Failed to generate the report: " + cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Waits for the shards in progress to stop, even if this thread was interrupted.
+	 */
+	private static void awaitTermination(ExecutorService executor) {
+		boolean interrupted = Thread.interrupted();
+		try {
+			if (!executor.awaitTermination(CANCEL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				LOGGER.warn("Shards still being generated, their files are deleted when ZAP exits");
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * The sites, or part of their alerts, of a shard.
+	 */
+	private class Shard {
+		private final Map<SiteNode, List<Alert>> sites = new LinkedHashMap<>();
+		private int alertCount;
+		private volatile File file;
+
+		void add(SiteNode site, List<Alert> alerts) {
+			sites.computeIfAbsent(site, k -> new ArrayList<>()).addAll(alerts);
+			alertCount += alerts.size();
+		}
+
+		File generateFile() throws Exception {
+			File file = File.createTempFile("srm-zap-report", ".xml");
+			file.deleteOnExit();
+			this.file = file;
+			ReportLastScanHttp report = new ReportLastScanHttp(options) {
+				@Override
+				protected List<SiteNode> getSites() {
+					return new ArrayList<>(sites.keySet());
+				}
+
+				@Override
+				protected List<Alert> getAlerts(SiteNode site) {
+					return sites.get(site);
+				}
+			};
+			// The shards are already generated concurrently
+			report.setParallelism(1);
+			try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+				report.generate(writer);
+			} catch (Exception e) {
+				Files.deleteIfExists(file.toPath());
+				throw e;
+			}
+			return file;
+		}
+
+		void deleteFile() {
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file.toPath());
+				} catch (IOException e) {
+					LOGGER.warn("Failed to delete the shard {}: {}", file, e.getMessage());
+				}
+			}
+		}
+	}
+}
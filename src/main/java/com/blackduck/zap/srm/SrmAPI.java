@@ -17,8 +17,11 @@
  */
 package com.blackduck.zap.srm;
 
+import com.blackduck.zap.srm.ExtensionAlertHttp.MessageLayout;
+import com.blackduck.zap.srm.ExtensionAlertHttp.SeenAlerts;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.zaproxy.zap.extension.api.*;
@@ -27,6 +30,16 @@ import org.zaproxy.zap.extension.api.ApiException.Type;
 import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SrmAPI extends ApiImplementor {
 
@@ -36,24 +49,82 @@ public class SrmAPI extends ApiImplementor {
 	private static final String VIEW_GENERATE = "generateReport";
 	private static final String ACTION_UPLOAD = "uploadReport";
 	private static final String ACTION_GEN_UPLOAD = "generateAndUpload";
+	private static final String VIEW_UPLOAD_QUEUE = "uploadQueue";
+	private static final String VIEW_UPLOAD_QUEUE_DEPTH = "uploadQueueDepth";
+	private static final String VIEW_UPLOAD_PROGRESS = "uploadProgress";
+	private static final String ACTION_CANCEL_UPLOAD = "cancelUpload";
+	private static final String VIEW_JOBS = "jobs";
+	private static final String VIEW_JOB_STATUS = "jobStatus";
+	private static final String VIEW_JOB_RESULT = "jobResult";
+	private static final String ACTION_CANCEL_JOB = "cancelJob";
+	private static final String VIEW_ANALYSIS_JOBS = "analysisJobs";
+	private static final String VIEW_ANALYSIS_JOB = "analysisJob";
+	private static final String VIEW_CONTINUOUS_UPLOADS = "continuousUploads";
+	private static final String VIEW_UPLOAD_SCHEDULE = "uploadSchedule";
 
 	private static final String ACTION_PARAM_FILE_PATH = "filePath";
 	private static final String ACTION_PARAM_SERVER_URL = "serverUrl";
 	private static final String ACTION_PARAM_API_KEY = "codeDxApiKey";
 	private static final String ACTION_PARAM_PROJECT = "projectId";
+	private static final String ACTION_PARAM_ID = "id";
+	private static final String PARAM_JOB_ID = "jobId";
+	private static final String PARAM_ANALYSIS_JOB_ID = "analysisJobId";
 
 	// Optional
 	private static final String ACTION_PARAM_FINGERPRINT = "fingerprint";
 	private static final String ACTION_PARAM_ACCEPT_PERM = "acceptPermanently";
 
+	// Optional, default to the SrmProperties
+	private static final String PARAM_MAX_HEADER_SIZE = "maxHeaderSize";
+	private static final String PARAM_MAX_REQUEST_BODY_SIZE = "maxRequestBodySize";
+	private static final String PARAM_MAX_RESPONSE_BODY_SIZE = "maxResponseBodySize";
+	private static final String PARAM_ALLOWED_CONTENT_TYPES = "allowedContentTypes";
+	private static final String PARAM_SKIPPED_CONTENT_TYPES = "skippedContentTypes";
+	private static final String PARAM_MESSAGE_LAYOUT = "messageLayout";
+	private static final String PARAM_SEEN_ALERTS = "seenAlerts";
+	private static final String PARAM_SITES = "sites";
+	private static final String PARAM_URL_PREFIXES = "urlPrefixes";
+	private static final String PARAM_CONTEXTS = "contexts";
+	private static final String PARAM_PIPELINED = "pipelined";
+	private static final String PARAM_QUEUED = "queued";
+	private static final String PARAM_SHARDED = "sharded";
+	private static final String PARAM_TARGETS = "targets";
+	private static final String PARAM_ASYNC = "async";
+	private static final String PARAM_DELTA = "delta";
+	private static final String PARAM_FULL = "full";
+
+	private static final String[] REPORT_PARAMS = new String[]{
+			PARAM_MAX_HEADER_SIZE,
+			PARAM_MAX_REQUEST_BODY_SIZE,
+			PARAM_MAX_RESPONSE_BODY_SIZE,
+			PARAM_ALLOWED_CONTENT_TYPES,
+			PARAM_SKIPPED_CONTENT_TYPES,
+			PARAM_MESSAGE_LAYOUT,
+			PARAM_SEEN_ALERTS,
+			PARAM_SITES,
+			PARAM_URL_PREFIXES,
+			PARAM_CONTEXTS
+	};
+
 	private final SrmExtension extension;
 
 	@SuppressWarnings("this-escape")
 	public SrmAPI(SrmExtension extension) {
 		this.extension = extension;
-		this.addApiView(new ApiView(VIEW_GENERATE));
+		this.addApiView(new ApiView(VIEW_GENERATE, null, REPORT_PARAMS));
+		this.addApiView(new ApiView(VIEW_UPLOAD_QUEUE));
+		this.addApiView(new ApiView(VIEW_UPLOAD_QUEUE_DEPTH));
+		this.addApiView(new ApiView(VIEW_UPLOAD_PROGRESS));
+		this.addApiView(new ApiView(VIEW_JOBS));
+		this.addApiView(new ApiView(VIEW_JOB_STATUS, new String[]{PARAM_JOB_ID}));
+		this.addApiView(new ApiView(VIEW_JOB_RESULT, new String[]{PARAM_JOB_ID}));
+		this.addApiView(new ApiView(VIEW_ANALYSIS_JOBS));
+		this.addApiView(new ApiView(VIEW_ANALYSIS_JOB, new String[]{PARAM_ANALYSIS_JOB_ID}));
+		this.addApiView(new ApiView(VIEW_CONTINUOUS_UPLOADS));
+		this.addApiView(new ApiView(VIEW_UPLOAD_SCHEDULE));
 
-		String[] optionalParams = new String[]{ACTION_PARAM_FINGERPRINT, ACTION_PARAM_ACCEPT_PERM};
+		String[] optionalParams = new String[]{ACTION_PARAM_FINGERPRINT, ACTION_PARAM_ACCEPT_PERM, PARAM_QUEUED, PARAM_ASYNC};
+		String[] generateOptionalParams = concat(concat(optionalParams, REPORT_PARAMS), new String[]{PARAM_PIPELINED, PARAM_SHARDED, PARAM_TARGETS, PARAM_DELTA, PARAM_FULL});
 
 		this.addApiAction(
 				new ApiAction(
@@ -74,8 +145,17 @@ public class SrmAPI extends ApiImplementor {
 								ACTION_PARAM_API_KEY,
 								ACTION_PARAM_PROJECT
 						},
-						optionalParams
+						generateOptionalParams
 				));
+		this.addApiAction(new ApiAction(ACTION_CANCEL_UPLOAD, new String[]{ACTION_PARAM_ID}));
+		this.addApiAction(new ApiAction(ACTION_CANCEL_JOB, new String[]{PARAM_JOB_ID}));
+	}
+
+	private static String[] concat(String[] first, String[] second) {
+		String[] result = new String[first.length + second.length];
+		System.arraycopy(first, 0, result, 0, first.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
 	}
 
 	@Override
@@ -85,39 +165,25 @@ public class SrmAPI extends ApiImplementor {
 
 	@Override
 	public ApiResponse handleApiAction(String name, JSONObject params) throws ApiException {
-		if (ACTION_UPLOAD.equals(name)) {
-			File reportFile = new File(params.getString(ACTION_PARAM_FILE_PATH));
-			String serverUrl = params.getString(ACTION_PARAM_SERVER_URL);
-			String apiKey = params.getString(ACTION_PARAM_API_KEY);
-			String projectId = params.getString(ACTION_PARAM_PROJECT);
-
-			String fingerprint = this.getParam(params, ACTION_PARAM_FINGERPRINT, "");
-			boolean acceptPermanently = this.getParam(params, ACTION_PARAM_ACCEPT_PERM, false);
-
-			uploadFile(reportFile, serverUrl, apiKey, projectId, fingerprint, acceptPermanently);
+		if (ACTION_UPLOAD.equals(name) || ACTION_GEN_UPLOAD.equals(name)) {
+			if (this.getParam(params, PARAM_ASYNC, false)) {
+				// Run in the background, the caller follows the job with the job views
+				UploadJobs.Job job = extension.getUploadJobs().submit(name, progress -> handleUploadAction(name, params, progress));
+				return new ApiResponseElement(PARAM_JOB_ID, Long.toString(job.getId()));
+			}
+			return handleUploadAction(name, params, null);
+		} else if (ACTION_CANCEL_JOB.equals(name)) {
+			if (!extension.getUploadJobs().cancel(getJobId(params))) {
+				throw new ApiException(Type.DOES_NOT_EXIST, PARAM_JOB_ID);
+			}
 			return ApiResponseElement.OK;
-		} else if (ACTION_GEN_UPLOAD.equals(name)) {
-			File reportFile;
-			String serverUrl = params.getString(ACTION_PARAM_SERVER_URL);
-			String apiKey = params.getString(ACTION_PARAM_API_KEY);
-			String projectId = params.getString(ACTION_PARAM_PROJECT);
-
-			String fingerprint = this.getParam(params, ACTION_PARAM_FINGERPRINT, "");
-			boolean acceptPermanently = this.getParam(params, ACTION_PARAM_ACCEPT_PERM, false);
-
-			boolean isEmpty = false;
-			try {
-				reportFile = UploadActionListener.generateReportFile(extension);
-				isEmpty = UploadActionListener.reportIsEmpty(reportFile);
-			} catch (Exception e) {
-				LOGGER.error(e.getMessage(), e);
-				throw new ApiException(Type.INTERNAL_ERROR, e.getMessage());
+		} else if (ACTION_CANCEL_UPLOAD.equals(name)) {
+			long id = this.getParam(params, ACTION_PARAM_ID, -1L);
+			if (id < 0) {
+				throw new ApiException(Type.ILLEGAL_PARAMETER, ACTION_PARAM_ID);
 			}
-			try {
-				if (!isEmpty) uploadFile(reportFile, serverUrl, apiKey, projectId, fingerprint, acceptPermanently);
-				else return new ApiResponseElement("Result", "empty");
-			} finally {
-				reportFile.delete();
+			if (!extension.getUploadQueue().cancel(id)) {
+				throw new ApiException(Type.DOES_NOT_EXIST, ACTION_PARAM_ID);
 			}
 			return ApiResponseElement.OK;
 		}
@@ -127,23 +193,570 @@ public class SrmAPI extends ApiImplementor {
 	@Override
 	public ApiResponse handleApiView(String name, JSONObject params) throws ApiException {
 		if (VIEW_GENERATE.equals(name)) {
+			ReportOptions options = getReportOptions(params);
 			try {
 				StringBuilder report = new StringBuilder();
-				UploadActionListener.generateReportString(extension, report);
+				UploadActionListener.generateReportString(extension, report, options);
 				return new ApiResponseElement(name, report.toString());
 			} catch (Exception e) {
 				LOGGER.error(e.getMessage(), e);
 				throw new ApiException(Type.INTERNAL_ERROR, e.getMessage());
 			}
+		} else if (VIEW_UPLOAD_QUEUE.equals(name)) {
+			ApiResponseList result = new ApiResponseList(name);
+			for (UploadQueue.Item item : extension.getUploadQueue().getItems()) {
+				Map<String, Object> map = new HashMap<>();
+				map.put("id", item.getId());
+				map.put("status", item.getStatus().name().toLowerCase(Locale.ROOT));
+				map.put("serverUrl", item.getTarget().getServerUrl());
+				map.put("projectId", item.getTarget().getProject());
+				map.put("created", item.getCreated());
+				map.put("size", item.getSize());
+				map.put("reports", item.getReportCount());
+				if (item.getNextAttempt() > 0) {
+					map.put("nextAttempt", item.getNextAttempt());
+				}
+				putProgress(map, item.getProgress());
+				result.addItem(new ApiResponseSet<>("upload", map));
+			}
+			return result;
+		} else if (VIEW_UPLOAD_QUEUE_DEPTH.equals(name)) {
+			return new ApiResponseElement(name, Integer.toString(extension.getUploadQueue().getDepth()));
+		} else if (VIEW_UPLOAD_PROGRESS.equals(name)) {
+			// The uploads being sent, whether queued or run by an API job
+			ApiResponseList result = new ApiResponseList(name);
+			for (UploadQueue.Item item : extension.getUploadQueue().getItems()) {
+				if (item.getStatus() == UploadQueue.Status.UPLOADING) {
+					Map<String, Object> map = new HashMap<>();
+					map.put("type", "upload");
+					map.put("id", item.getId());
+					putProgress(map, item.getProgress());
+					result.addItem(new ApiResponseSet<>("progress", map));
+				}
+			}
+			for (UploadJobs.Job job : extension.getUploadJobs().getJobs()) {
+				if (job.getState() == UploadJobs.State.RUNNING) {
+					Map<String, Object> map = new HashMap<>();
+					map.put("type", "job");
+					map.put("id", job.getId());
+					putProgress(map, job.getProgress());
+					result.addItem(new ApiResponseSet<>("progress", map));
+				}
+			}
+			return result;
+		} else if (VIEW_JOBS.equals(name)) {
+			ApiResponseList result = new ApiResponseList(name);
+			for (UploadJobs.Job job : extension.getUploadJobs().getJobs()) {
+				result.addItem(getJobStatus(job));
+			}
+			return result;
+		} else if (VIEW_JOB_STATUS.equals(name)) {
+			return getJobStatus(getJob(params));
+		} else if (VIEW_JOB_RESULT.equals(name)) {
+			UploadJobs.Job job = getJob(params);
+			switch (job.getState()) {
+			case COMPLETED:
+				return job.getResult();
+			case FAILED:
+				throw new ApiException(Type.INTERNAL_ERROR, job.getError());
+			default:
+				return new ApiResponseElement("state", job.getState().name().toLowerCase(Locale.ROOT));
+			}
+		} else if (VIEW_ANALYSIS_JOBS.equals(name)) {
+			ApiResponseList result = new ApiResponseList(name);
+			for (AnalysisJobPoller.AnalysisJob job : extension.getAnalysisJobPoller().getJobs()) {
+				result.addItem(getAnalysisJobStatus(job));
+			}
+			return result;
+		} else if (VIEW_ANALYSIS_JOB.equals(name)) {
+			AnalysisJobPoller.AnalysisJob job = extension.getAnalysisJobPoller().get(params.getString(PARAM_ANALYSIS_JOB_ID));
+			if (job == null) {
+				throw new ApiException(Type.DOES_NOT_EXIST, PARAM_ANALYSIS_JOB_ID);
+			}
+			return getAnalysisJobStatus(job);
+		} else if (VIEW_CONTINUOUS_UPLOADS.equals(name)) {
+			ContinuousUploader uploader = extension.getContinuousUploader();
+			Map<String, Object> map = new HashMap<>();
+			map.put("enabled", uploader != null);
+			if (uploader != null) {
+				map.put("pending", uploader.getPending());
+				map.put("uploading", uploader.isUploading());
+				map.put("uploads", uploader.getUploads());
+				map.put("uploadedAlerts", uploader.getUploadedAlerts());
+				map.put("overflows", uploader.getOverflows());
+				map.put("lastUpload", uploader.getLastUpload());
+			}
+			return new ApiResponseSet<>(name, map);
+		} else if (VIEW_UPLOAD_SCHEDULE.equals(name)) {
+			UploadScheduler scheduler = extension.getUploadScheduler();
+			Map<String, Object> map = new HashMap<>();
+			map.put("enabled", scheduler != null);
+			if (scheduler != null) {
+				map.put("schedule", scheduler.getSchedule().getSpec());
+				map.put("projectId", scheduler.getProject());
+				map.put("running", scheduler.isRunning());
+				map.put("nextRun", scheduler.getNextRun());
+				map.put("lastRun", scheduler.getLastRun());
+				map.put("runs", scheduler.getRuns());
+				map.put("coalesced", scheduler.getCoalesced());
+				if (scheduler.getLastResult() != null) {
+					map.put("lastResult", scheduler.getLastResult());
+				}
+				if (scheduler.getLastError() != null) {
+					map.put("lastError", scheduler.getLastError());
+				}
+			}
+			return new ApiResponseSet<>(name, map);
 		}
 		throw new ApiException(Type.BAD_VIEW);
 	}
 
-	private void uploadFile(File reportFile, String serverUrl, String apiKey, String project, String fingerprint, boolean acceptPermanently) throws ApiException {
-		if (serverUrl.endsWith("/")) serverUrl = serverUrl.substring(0, serverUrl.length() - 1);
+	private ReportOptions getReportOptions(JSONObject params) throws ApiException {
+		ReportScope scope = getReportScope(params);
+		ReportOptions defaults;
+		try {
+			defaults = ReportOptions.fromProperties(scope != null ? scope : ReportOptions.getScopeFromProperties());
+		} catch (InvalidReportScopeException e) {
+			throw new ApiException(Type.BAD_STATE, e.getMessage());
+		}
+		HttpDataLimits defaultLimits = defaults.getDataLimits();
+		String allowed = getParam(params, PARAM_ALLOWED_CONTENT_TYPES, String.join(",", defaultLimits.getAllowedContentTypes()));
+		String skipped = getParam(params, PARAM_SKIPPED_CONTENT_TYPES, String.join(",", defaultLimits.getSkippedContentTypes()));
+		HttpDataLimits limits = new HttpDataLimits(
+				getParam(params, PARAM_MAX_HEADER_SIZE, defaultLimits.getMaxHeaderSize()),
+				getParam(params, PARAM_MAX_REQUEST_BODY_SIZE, defaultLimits.getMaxRequestBodySize()),
+				getParam(params, PARAM_MAX_RESPONSE_BODY_SIZE, defaultLimits.getMaxResponseBodySize()),
+				HttpDataLimits.parseContentTypes(allowed),
+				HttpDataLimits.parseContentTypes(skipped));
+		String layout = getParam(params, PARAM_MESSAGE_LAYOUT, defaults.getMessageLayout().name());
+		String seenAlerts = getParam(params, PARAM_SEEN_ALERTS, defaults.getSeenAlerts().name());
+		return new ReportOptions(limits, MessageLayout.parse(layout), null, null, SeenAlerts.parse(seenAlerts), defaults.getScope());
+	}
+
+	/**
+	 * Gets the scope of the report, the sites and URL prefixes are both URL prefixes.
+	 *
+	 * @return the scope, or {@code null} if none of the scope parameters is set, for the saved one
+	 */
+	private ReportScope getReportScope(JSONObject params) throws ApiException {
+		String sites = getParam(params, PARAM_SITES, "");
+		String urlPrefixes = getParam(params, PARAM_URL_PREFIXES, "");
+		String contexts = getParam(params, PARAM_CONTEXTS, "");
+		if (sites.isEmpty() && urlPrefixes.isEmpty() && contexts.isEmpty()) {
+			return null;
+		}
+		try {
+			return ReportScope.parse(sites + ',' + urlPrefixes, contexts);
+		} catch (IllegalArgumentException e) {
+			throw new ApiException(Type.ILLEGAL_PARAMETER, e.getMessage());
+		}
+	}
+
+	private UploadTarget getUploadTarget(JSONObject params) {
+		return new UploadTarget(
+				params.getString(ACTION_PARAM_SERVER_URL),
+				params.getString(ACTION_PARAM_API_KEY),
+				params.getString(ACTION_PARAM_PROJECT),
+				this.getParam(params, ACTION_PARAM_FINGERPRINT, ""),
+				this.getParam(params, ACTION_PARAM_ACCEPT_PERM, false));
+	}
+
+	/**
+	 * Runs the uploadReport or generateAndUpload action.
+	 *
+	 * @param progress the progress of the action, {@code null} if not tracked
+	 */
+	private ApiResponse handleUploadAction(String name, JSONObject params, ReportProgress progress) throws ApiException {
+		// Also tracked when not asked for, to obtain the analysis job of the upload
+		ReportProgress tracked = progress != null ? progress : new ReportProgress();
+		if (ACTION_UPLOAD.equals(name)) {
+			return uploadReport(params, tracked);
+		}
+		return generateAndUpload(params, tracked);
+	}
+
+	private ApiResponse uploadReport(JSONObject params, ReportProgress progress) throws ApiException {
+		List<File> reportFiles = Collections.singletonList(new File(params.getString(ACTION_PARAM_FILE_PATH)));
+		UploadTarget target = getUploadTarget(params);
+
+		if (this.getParam(params, PARAM_QUEUED, false)) {
+			// The file is copied to the queue, the caller keeps theirs
+			return enqueue(reportFiles, false, target, null);
+		}
+		send((client, url, key, project) -> UploadActionListener.uploadFiles(client, reportFiles, url, key, project, progress), target);
+		trackAnalysisJob(target, progress);
+		return ApiResponseElement.OK;
+	}
+
+	private ApiResponse generateAndUpload(JSONObject params, ReportProgress progress) throws ApiException {
+		List<UploadTarget> targets = getUploadTargets(params);
+		ReportOptions options = getReportOptions(params).withProgress(progress);
+
+		// A delta is relative to the alerts already uploaded to a project, there can only be one
+		boolean full = this.getParam(params, PARAM_FULL, false);
+		if (targets.size() != 1 || !(full || this.getParam(params, PARAM_DELTA, SrmProperties.getInstance().isDeltaUploads()))) {
+			return generateAndUpload(params, targets, options.forUpload());
+		}
+
+		UploadTarget target = targets.get(0);
+		AlertDelta delta = AlertDelta.compute(
+				extension.getUploadWatermarks().get(target.getServerUrl(), target.getProject()),
+				new ReportLastScanHttp(options),
+				full);
+		if (delta.isEmpty()) {
+			return getDeltaResponse(new ApiResponseElement("Result", "unchanged"), delta);
+		}
+		return getDeltaResponse(generateAndUpload(params, targets, options.withDelta(delta).forUpload()), delta);
+	}
+
+	/**
+	 * Generates the report and uploads it to the targets, or queues it. The report is recorded as
+	 * uploaded, see {@link ReportOptions#commit()}, once uploaded to all the targets.
+	 */
+	private ApiResponse generateAndUpload(JSONObject params, List<UploadTarget> targets, ReportOptions options) throws ApiException {
+		boolean queued = this.getParam(params, PARAM_QUEUED, false);
+		ReportProgress progress = options.getProgress();
+
+		List<File> reportFiles;
+		try {
+			if (this.getParam(params, PARAM_SHARDED, SrmProperties.getInstance().isShardedUploads())) {
+				reportFiles = ShardedReport.fromProperties(options).generate();
+			} else if (targets.size() == 1 && this.getParam(params, PARAM_PIPELINED, SrmProperties.getInstance().isPipelinedUploads())) {
+				// Generate the report while uploading it, no temporary file
+				return generateAndUploadPipelined(options, targets.get(0), queued);
+			} else {
+				reportFiles = new ArrayList<>();
+				File reportFile = UploadActionListener.generateReportFile(extension, options);
+				if (UploadActionListener.reportIsEmpty(reportFile)) {
+					reportFile.delete();
+				} else {
+					reportFiles.add(reportFile);
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new ApiException(Type.INTERNAL_ERROR, e.getMessage());
+		}
+		if (reportFiles.isEmpty()) {
+			return new ApiResponseElement("Result", "empty");
+		}
+
+		// The report is generated once, every target uploads the same files
+		try {
+			if (queued) {
+				return enqueue(reportFiles, targets, getCommitCallback(options, targets.size()));
+			}
+			ApiResponse response = send(reportFiles, targets, progress);
+			if (response == ApiResponseElement.OK || isUploaded((ApiResponseList) response)) {
+				options.commit();
+			}
+			return response;
+		} finally {
+			reportFiles.forEach(File::delete);
+		}
+	}
+
+	private ApiResponse generateAndUploadPipelined(ReportOptions options, UploadTarget target, boolean queued) throws ApiException {
+		ReportLastScanHttp saver = new ReportLastScanHttp(options);
+		if (!saver.hasSites()) {
+			return new ApiResponseElement("Result", "empty");
+		}
+		if (queued) {
+			UploadQueue.Item item = extension.getUploadQueue().enqueue(options, target, getCommitCallback(options, 1));
+			return new ApiResponseElement(ACTION_PARAM_ID, Long.toString(item.getId()));
+		}
+		send((client, url, key, project) -> UploadActionListener.uploadReport(client, saver, url, key, project), target);
+		options.commit();
+		trackAnalysisJob(target, options.getProgress());
+		return ApiResponseElement.OK;
+	}
+
+	/**
+	 * Gets the callback of the queued uploads of a report, recording the report as uploaded once
+	 * all of them succeeded.
+	 */
+	private static UploadQueue.Callback getCommitCallback(ReportOptions options, int uploads) {
+		AtomicInteger remaining = new AtomicInteger(uploads);
+		AtomicBoolean failed = new AtomicBoolean();
+		return (item, err) -> {
+			if (err != null) {
+				failed.set(true);
+			}
+			if (remaining.decrementAndGet() == 0 && !failed.get()) {
+				options.commit();
+			}
+		};
+	}
+
+	/**
+	 * Tells whether or not the report was uploaded to all the targets.
+	 */
+	private static boolean isUploaded(ApiResponseList uploads) {
+		for (ApiResponse upload : uploads.getItems()) {
+			if (!"OK".equals(((ApiResponseSet<?>) upload).getValues().get("result"))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the targets of a generateAndUpload: each of the projects on the given server, and the
+	 * targets of the optional {@code targets} parameter.
+	 */
+	private List<UploadTarget> getUploadTargets(JSONObject params) throws ApiException {
+		String serverUrl = params.getString(ACTION_PARAM_SERVER_URL);
+		String apiKey = params.getString(ACTION_PARAM_API_KEY);
+		String fingerprint = this.getParam(params, ACTION_PARAM_FINGERPRINT, "");
+		boolean acceptPermanently = this.getParam(params, ACTION_PARAM_ACCEPT_PERM, false);
+
+		List<UploadTarget> targets = new ArrayList<>();
+		for (String project : splitProjects(params.getString(ACTION_PARAM_PROJECT))) {
+			targets.add(new UploadTarget(serverUrl, apiKey, project, fingerprint, acceptPermanently));
+		}
+
+		JSONArray extraTargets = getTargetsParam(params);
+		for (int i = 0; i < extraTargets.size(); i++) {
+			JSONObject target = extraTargets.getJSONObject(i);
+			String targetServerUrl = target.optString(ACTION_PARAM_SERVER_URL, serverUrl);
+			String targetApiKey = target.optString(ACTION_PARAM_API_KEY, apiKey);
+			String targetFingerprint = target.optString(ACTION_PARAM_FINGERPRINT, "");
+			boolean targetAcceptPermanently = target.optBoolean(ACTION_PARAM_ACCEPT_PERM, false);
+			List<String> projects = splitProjects(target.optString(ACTION_PARAM_PROJECT, ""));
+			if (projects.isEmpty()) {
+				throw new ApiException(Type.ILLEGAL_PARAMETER, PARAM_TARGETS);
+			}
+			for (String project : projects) {
+				targets.add(new UploadTarget(targetServerUrl, targetApiKey, project, targetFingerprint, targetAcceptPermanently));
+			}
+		}
+
+		if (targets.isEmpty()) {
+			throw new ApiException(Type.ILLEGAL_PARAMETER, ACTION_PARAM_PROJECT);
+		}
+		return targets;
+	}
+
+	private static JSONArray getTargetsParam(JSONObject params) throws ApiException {
+		Object value = params.opt(PARAM_TARGETS);
+		if (value instanceof JSONArray) {
+			return (JSONArray) value;
+		}
+		if (value == null || value.toString().trim().isEmpty()) {
+			return new JSONArray();
+		}
+		try {
+			return JSONArray.fromObject(value.toString());
+		} catch (JSONException e) {
+			throw new ApiException(Type.ILLEGAL_PARAMETER, PARAM_TARGETS);
+		}
+	}
+
+	private static List<String> splitProjects(String projects) {
+		List<String> list = new ArrayList<>();
+		for (String project : projects.split(",")) {
+			if (!project.trim().isEmpty()) {
+				list.add(project.trim());
+			}
+		}
+		return list;
+	}
+
+	private ApiResponse enqueue(List<File> reportFiles, List<UploadTarget> targets, UploadQueue.Callback callback) throws ApiException {
+		if (targets.size() == 1) {
+			return enqueue(reportFiles, true, targets.get(0), callback);
+		}
+		// Each queued upload gets its own copy, they are removed from the queue independently
+		ApiResponseList result = new ApiResponseList("uploads");
+		for (UploadTarget target : targets) {
+			UploadQueue.Item item = enqueueItem(reportFiles, false, target, callback);
+			Map<String, Object> map = getTargetMap(target);
+			map.put(ACTION_PARAM_ID, item.getId());
+			result.addItem(new ApiResponseSet<>("upload", map));
+		}
+		return result;
+	}
+
+	private ApiResponse enqueue(List<File> reportFiles, boolean move, UploadTarget target, UploadQueue.Callback callback) throws ApiException {
+		UploadQueue.Item item = enqueueItem(reportFiles, move, target, callback);
+		return new ApiResponseElement(ACTION_PARAM_ID, Long.toString(item.getId()));
+	}
+
+	private UploadQueue.Item enqueueItem(List<File> reportFiles, boolean move, UploadTarget target, UploadQueue.Callback callback) throws ApiException {
+		try {
+			return extension.getUploadQueue().enqueue(reportFiles, move, target, callback);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new ApiException(Type.INTERNAL_ERROR, e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the report files to all the targets at the same time. A single target is reported as
+	 * before, OK or an error, several targets with the result of each.
+	 */
+	private ApiResponse send(List<File> reportFiles, List<UploadTarget> targets, ReportProgress progress) throws ApiException {
+		if (targets.size() == 1) {
+			UploadTarget target = targets.get(0);
+			send((client, url, key, project) -> UploadActionListener.uploadFiles(client, reportFiles, url, key, project, progress), target);
+			trackAnalysisJob(target, progress);
+			return ApiResponseElement.OK;
+		}
+
+		List<Future<String>> results = new ArrayList<>(targets.size());
+		try {
+			List<ReportProgress> targetProgresses = new ArrayList<>(targets.size());
+			for (UploadTarget target : targets) {
+				// Each target has its own analysis job
+				ReportProgress targetProgress = new ReportProgress(progress);
+				targetProgresses.add(targetProgress);
+				results.add(extension.getExecutor().submitUpload(() -> sendToTarget(
+						(client, url, key, project) -> UploadActionListener.uploadFiles(client, reportFiles, url, key, project, targetProgress),
+						target)));
+			}
+			ApiResponseList result = new ApiResponseList("uploads");
+			for (int i = 0; i < targets.size(); i++) {
+				String err = getResult(results.get(i));
+				Map<String, Object> map = getTargetMap(targets.get(i));
+				map.put("result", err == null ? "OK" : "error");
+				if (err != null) {
+					map.put("error", err);
+				} else {
+					AnalysisJobPoller.AnalysisJob analysisJob = trackAnalysisJob(targets.get(i), targetProgresses.get(i));
+					if (analysisJob != null) {
+						map.put(PARAM_ANALYSIS_JOB_ID, analysisJob.getJobId());
+					}
+				}
+				result.addItem(new ApiResponseSet<>("upload", map));
+			}
+			return result;
+		} finally {
+			// Stops the uploads still running or waiting if interrupted
+			for (Future<String> result : results) {
+				result.cancel(true);
+			}
+		}
+	}
+
+	private String sendToTarget(UploadActionListener.ReportSender sender, UploadTarget target) {
+		try {
+			String err = target.send(extension, sender);
+			if (err != null) {
+				LOGGER.error("Upload to project {} of {} failed: {}", target.getProject(), target.getServerUrl(), err);
+			}
+			return err;
+		} catch (GeneralSecurityException | IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			return e.getMessage() != null ? e.getMessage() : e.toString();
+		}
+	}
+
+	private static String getResult(Future<String> result) throws ApiException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApiException(Type.INTERNAL_ERROR, "Interrupted while uploading the report");
+		} catch (ExecutionException e) {
+			return e.getCause().toString();
+		}
+	}
+
+	/**
+	 * Follows the analysis job started by an upload, if the server returned one.
+	 *
+	 * @return the analysis job, or {@code null} if none
+	 */
+	private AnalysisJobPoller.AnalysisJob trackAnalysisJob(UploadTarget target, ReportProgress progress) {
+		String jobId = progress.getAnalysisJobId();
+		return jobId != null ? extension.getAnalysisJobPoller().track(target, jobId) : null;
+	}
+
+	private UploadJobs.Job getJob(JSONObject params) throws ApiException {
+		UploadJobs.Job job = extension.getUploadJobs().get(getJobId(params));
+		if (job == null) {
+			throw new ApiException(Type.DOES_NOT_EXIST, PARAM_JOB_ID);
+		}
+		return job;
+	}
+
+	private long getJobId(JSONObject params) throws ApiException {
+		long id = this.getParam(params, PARAM_JOB_ID, -1L);
+		if (id < 0) {
+			throw new ApiException(Type.ILLEGAL_PARAMETER, PARAM_JOB_ID);
+		}
+		return id;
+	}
+
+	private static ApiResponseSet<Object> getJobStatus(UploadJobs.Job job) {
+		Map<String, Object> map = new HashMap<>();
+		map.put(PARAM_JOB_ID, job.getId());
+		map.put("action", job.getAction());
+		map.put("state", job.getState().name().toLowerCase(Locale.ROOT));
+		putProgress(map, job.getProgress());
+		map.put("created", job.getCreated());
+		map.put("started", job.getStarted());
+		map.put("finished", job.getFinished());
+		if (job.getProgress().getAnalysisJobId() != null) {
+			map.put(PARAM_ANALYSIS_JOB_ID, job.getProgress().getAnalysisJobId());
+		}
+		if (job.getError() != null) {
+			map.put("error", job.getError());
+		}
+		return new ApiResponseSet<>("job", map);
+	}
+
+	/**
+	 * Gets the response of a delta upload: the result of the upload and the number of new alerts
+	 * and of alerts already uploaded.
+	 */
+	private static ApiResponse getDeltaResponse(ApiResponse response, AlertDelta delta) {
+		Map<String, Object> map = new HashMap<>();
+		if (response instanceof ApiResponseElement) {
+			map.put(response.getName(), ((ApiResponseElement) response).getValue());
+		}
+		map.put("newAlerts", delta.getNewAlerts());
+		map.put("unchangedAlerts", delta.getUnchangedAlerts());
+		map.put(PARAM_FULL, delta.isFull());
+		return new ApiResponseSet<>("delta", map);
+	}
+
+	/**
+	 * Puts the alerts written, the bytes sent and to send (-1 if not known), the time spent
+	 * sending them and waiting for the server (in milliseconds), and the throughput (in bytes
+	 * per second).
+	 */
+	private static void putProgress(Map<String, Object> map, ReportProgress progress) {
+		map.put("alertsWritten", progress.getAlertsWritten());
+		map.put("bytesUploaded", progress.getBytesUploaded());
+		map.put("bytesToUpload", progress.getBytesToUpload());
+		map.put("sendTime", progress.getSendTime());
+		map.put("serverTime", progress.getServerTime());
+		map.put("throughput", progress.getThroughput());
+	}
+
+	private static ApiResponseSet<Object> getAnalysisJobStatus(AnalysisJobPoller.AnalysisJob job) {
+		Map<String, Object> map = getTargetMap(job.getTarget());
+		map.put(PARAM_ANALYSIS_JOB_ID, job.getJobId());
+		map.put("status", job.getStatus().name().toLowerCase(Locale.ROOT));
+		map.put("submitted", job.getSubmitted());
+		map.put("finished", job.getFinished());
+		if (job.getError() != null) {
+			map.put("error", job.getError());
+		}
+		return new ApiResponseSet<>("analysisJob", map);
+	}
+
+	private static Map<String, Object> getTargetMap(UploadTarget target) {
+		Map<String, Object> map = new HashMap<>();
+		map.put(ACTION_PARAM_SERVER_URL, target.getServerUrl());
+		map.put(ACTION_PARAM_PROJECT, target.getProject());
+		return map;
+	}
+
+	private void send(UploadActionListener.ReportSender sender, UploadTarget target) throws ApiException {
 		try {
-			CloseableHttpClient client = extension.getHttpClient(serverUrl, fingerprint, acceptPermanently);
-			String err = UploadActionListener.uploadFile(client, reportFile, serverUrl, apiKey, project);
+			String err = target.send(extension, sender);
 			if (err != null) {
 				LOGGER.error(err);
 				throw new ApiException(Type.ILLEGAL_PARAMETER, err);
@@ -0,0 +1,191 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads of the add-on, virtual threads when running on Java 21 or later, named daemon
+ * platform threads otherwise.
+ * <p>
+ * The background work of the dialogs and the project refreshes runs on the executor owned by the
+ * extension, a thread per task with virtual threads or a bounded pool of platform threads. The
+ * uploads of one report to several targets share a second pool, bounded by the
+ * {@code uploadThreads} property. The upload queue, the API jobs and the report shards keep their
+ * own executors, to bound how many of them run at the same time, with threads created by
+ * {@link #newThreadFactory(String)}.
+ */
+public class SrmExecutor {
+
+	private static final Logger LOGGER = LogManager.getLogger(SrmExecutor.class);
+
+	static final int MAX_PLATFORM_THREADS = 8;
+	static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+	private static final Method OF_VIRTUAL = getVirtualThreadBuilder();
+
+	private final ExecutorService executor;
+	private final ThreadPoolExecutor uploadExecutor;
+
+	/**
+	 * @param uploadThreads the number of uploads to the targets of a report run at the same time
+	 */
+	public SrmExecutor(int uploadThreads) {
+		ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor("ZAP-SRM-Worker-");
+		if (virtualExecutor != null) {
+			executor = virtualExecutor;
+		} else {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(
+					MAX_PLATFORM_THREADS, MAX_PLATFORM_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+					newPlatformThreadFactory("ZAP-SRM-Worker-"));
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		int threads = Math.max(1, uploadThreads);
+		uploadExecutor = new ThreadPoolExecutor(
+				threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				newThreadFactory("ZAP-SRM-Upload-Target-"));
+		uploadExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Tells whether or not virtual threads are used.
+	 */
+	public static boolean isVirtual() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates a factory of threads named with the given prefix and a sequence number, e.g.
+	 * {@code ZAP-SRM-Upload-1}. The threads are virtual if available, daemon otherwise.
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		ThreadFactory factory = newVirtualThreadFactory(prefix);
+		return factory != null ? factory : newPlatformThreadFactory(prefix);
+	}
+
+	/**
+	 * Runs the given task in the background.
+	 *
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor was shut down
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Runs the upload of a report to one of its targets, waiting for its turn if the upload pool
+	 * is busy.
+	 *
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor was shut down
+	 */
+	public <T> Future<T> submitUpload(Callable<T> upload) {
+		return uploadExecutor.submit(upload);
+	}
+
+	/**
+	 * Stops accepting tasks, waits a little for the running ones to finish and then interrupts
+	 * them.
+	 */
+	public void shutdown() {
+		shutdown(uploadExecutor);
+		shutdown(executor);
+	}
+
+	private static void shutdown(ExecutorService executor) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				LOGGER.debug("Background tasks still running, interrupting them");
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static ThreadFactory newPlatformThreadFactory(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Creates the factory with {@code Thread.ofVirtual().name(prefix, 1).factory()}, through
+	 * reflection as the add-on is built for Java 17.
+	 */
+	private static ThreadFactory newVirtualThreadFactory(String prefix) {
+		if (OF_VIRTUAL == null) {
+			return null;
+		}
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.warn("Failed to create virtual threads, using platform threads: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor(String prefix) {
+		ThreadFactory factory = newVirtualThreadFactory(prefix);
+		if (factory == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.warn("Failed to create the virtual thread executor, using platform threads: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static Method getVirtualThreadBuilder() {
+		if (Runtime.version().feature() < 21) {
+			return null;
+		}
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			// Fails if virtual threads are not supported
+			ofVirtual.invoke(null);
+			return ofVirtual;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.debug("Virtual threads not available: {}", e.getMessage());
+			return null;
+		}
+	}
+}
@@ -20,12 +20,8 @@ package com.blackduck.zap.srm;
 import com.blackduck.zap.srm.ReportLastScan.ReportType;
 import com.blackduck.zap.srm.security.SSLConnectionSocketFactoryFactory;
 import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.parosproxy.paros.Constant;
@@ -60,6 +56,16 @@ public class SrmExtension extends ExtensionAdaptor {
 	private ZapMenuItem menuUpload = null;
 	private ZapMenuItem menuExport = null;
 
+	private final HttpClientCache httpClients = new HttpClientCache();
+	private SrmExecutor executor;
+	private UploadQueue uploadQueue;
+	private UploadJobs uploadJobs;
+	private AnalysisJobPoller analysisJobPoller;
+	private ProjectCatalog projectCatalog;
+	private UploadWatermarks uploadWatermarks;
+	private ContinuousUploader continuousUploader;
+	private UploadScheduler uploadScheduler;
+
 	public SrmExtension() {
 		super(NAME);
 	}
@@ -72,17 +78,97 @@ public class SrmExtension extends ExtensionAdaptor {
 	@Override
 	public void hook(ExtensionHook extensionHook) {
 		super.hook(extensionHook);
+		executor = new SrmExecutor(SrmProperties.getInstance().getUploadThreads());
+		uploadQueue = UploadQueue.create(this);
+		uploadJobs = new UploadJobs(SrmProperties.getInstance().getJobThreads());
+		analysisJobPoller = new AnalysisJobPoller(this);
+		projectCatalog = new ProjectCatalog(this);
+		uploadWatermarks = UploadWatermarks.create();
 		cdxAPIImpl = new SrmAPI(this);
 		API.getInstance().registerApiImplementor(cdxAPIImpl);
+		// Compile the report stylesheets up front, so the first HTML/MD export doesn't have to
+		executor.execute(ReportTemplates::prewarm);
 		if (hasView()) {
 			extensionHook.getHookMenu().addReportMenuItem(getUploadMenu());
 			extensionHook.getHookMenu().addReportMenuItem(getExportMenu());
 		}
 	}
 
+	@Override
+	public void postInit() {
+		// Upload the reports left queued by the previous session
+		uploadQueue.resume();
+		if (SrmProperties.getInstance().isContinuousUploads()) {
+			continuousUploader = new ContinuousUploader(this);
+			continuousUploader.start();
+		}
+		uploadScheduler = UploadScheduler.fromProperties(this);
+		if (uploadScheduler != null) {
+			uploadScheduler.start();
+		}
+	}
+
 	@Override
 	public void unload() {
 		API.getInstance().removeApiImplementor(cdxAPIImpl);
+		if (continuousUploader != null) {
+			continuousUploader.shutdown();
+		}
+		if (uploadScheduler != null) {
+			uploadScheduler.shutdown();
+		}
+		uploadJobs.shutdown();
+		uploadQueue.shutdown();
+		analysisJobPoller.shutdown();
+		projectCatalog.shutdown();
+		// After the components that might still hand it work
+		executor.shutdown();
+		ReportTemplates.clear();
+		CircuitBreaker.clear();
+		AlertFingerprintIndex.closeShared();
+		httpClients.closeAll();
+	}
+
+	/**
+	 * Gets the executor of the background work of the add-on.
+	 */
+	public SrmExecutor getExecutor() {
+		return executor;
+	}
+
+	public UploadQueue getUploadQueue() {
+		return uploadQueue;
+	}
+
+	public UploadJobs getUploadJobs() {
+		return uploadJobs;
+	}
+
+	public AnalysisJobPoller getAnalysisJobPoller() {
+		return analysisJobPoller;
+	}
+
+	public ProjectCatalog getProjectCatalog() {
+		return projectCatalog;
+	}
+
+	public UploadWatermarks getUploadWatermarks() {
+		return uploadWatermarks;
+	}
+
+	/**
+	 * Gets the uploader of the alerts as they are raised, or {@code null} if continuous uploads
+	 * are not enabled.
+	 */
+	public ContinuousUploader getContinuousUploader() {
+		return continuousUploader;
+	}
+
+	/**
+	 * Gets the scheduler of the uploads, or {@code null} if there is no upload schedule.
+	 */
+	public UploadScheduler getUploadScheduler() {
+		return uploadScheduler;
 	}
 
 	public ZapMenuItem getUploadMenu() {
@@ -98,8 +184,12 @@ public class SrmExtension extends ExtensionAdaptor {
 			menuExport = new ZapMenuItem("srm.topmenu.report.title");
 
 			menuExport.addActionListener(e -> {
-				ReportLastScanHttp saver = new ReportLastScanHttp();
-				saver.generateReport(getView(), ReportType.XML);
+				try {
+					ReportLastScanHttp saver = new ReportLastScanHttp();
+					saver.generateReport(getView(), ReportType.XML);
+				} catch (InvalidReportScopeException ex) {
+					getView().showWarningDialog(ex.getMessage());
+				}
 			});
 		}
 		return menuExport;
@@ -120,38 +210,35 @@ public class SrmExtension extends ExtensionAdaptor {
 		return getHttpClient(url, null, false);
 	}
 
+	/**
+	 * Gets the HTTP client for the given server. The client is shared and reused across calls,
+	 * it must not be closed.
+	 */
 	@SuppressWarnings("deprecation")
 	public CloseableHttpClient getHttpClient(String url, String fingerprint, boolean acceptPermanently) throws IOException, GeneralSecurityException {
-		RequestConfig.Builder configBuilder = RequestConfig.custom()
-				.setConnectTimeout(getTimeout())
-				.setSocketTimeout(getTimeout())
-				.setConnectionRequestTimeout(getTimeout());
-
-		HttpClientBuilder builder = HttpClientBuilder.create();
+		SSLConnectionSocketFactory sslSocketFactory;
 		if (fingerprint != null) {
-			builder.setSSLSocketFactory(SSLConnectionSocketFactoryFactory.getFactory(URI.create(url).getHost(), this, fingerprint, acceptPermanently));
+			sslSocketFactory = SSLConnectionSocketFactoryFactory.getFactory(URI.create(url).getHost(), this, fingerprint, acceptPermanently);
 		} else {
-			builder.setSSLSocketFactory(SSLConnectionSocketFactoryFactory.getFactory(URI.create(url).getHost(), this));
+			sslSocketFactory = SSLConnectionSocketFactoryFactory.getFactory(URI.create(url).getHost(), this);
 		}
 
+		HttpHost proxy = null;
+		String proxyUserName = null;
+		String proxyPassword = null;
 		ConnectionParam connParam = Model.getSingleton().getOptionsParam().getConnectionParam();
 		if (connParam.isUseProxyChain()) {
-			String proxyHost = connParam.getProxyChainName();
-			int proxyPort = connParam.getProxyChainPort();
-			HttpHost proxy = new HttpHost(proxyHost, proxyPort);
-			configBuilder.setProxy(proxy);
+			proxy = new HttpHost(connParam.getProxyChainName(), connParam.getProxyChainPort());
 
 			if (connParam.isUseProxyChainAuth()) {
-				BasicCredentialsProvider credsProvider = new BasicCredentialsProvider();
-				credsProvider.setCredentials(
-						new AuthScope(proxyHost, proxyPort),
-						new UsernamePasswordCredentials(connParam.getProxyChainUserName(), connParam.getProxyChainPassword())
-				);
-				builder.setDefaultCredentialsProvider(credsProvider);
+				proxyUserName = connParam.getProxyChainUserName();
+				proxyPassword = connParam.getProxyChainPassword();
 			}
 		}
-		builder.setDefaultRequestConfig(configBuilder.build());
-		return builder.build();
+
+		return httpClients.getClient(
+				new HttpClientCache.ClientKey(url, fingerprint, acceptPermanently),
+				new HttpClientCache.ClientSettings(getTimeout(), sslSocketFactory, proxy, proxyUserName, proxyPassword));
 	}
 
 	@Override
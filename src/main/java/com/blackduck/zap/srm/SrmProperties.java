@@ -51,6 +51,38 @@ public class SrmProperties {
 	private static final String KEY_API = "apiKey";
 	private static final String KEY_SELECTED = "selectedId";
 	private static final String KEY_TIMEOUT = "timeout";
+	private static final String KEY_REPORT_THREADS = "reportThreads";
+	private static final String KEY_MAX_HEADER_SIZE = "maxHeaderSize";
+	private static final String KEY_MAX_REQUEST_BODY_SIZE = "maxRequestBodySize";
+	private static final String KEY_MAX_RESPONSE_BODY_SIZE = "maxResponseBodySize";
+	private static final String KEY_ALLOWED_CONTENT_TYPES = "allowedContentTypes";
+	private static final String KEY_SKIPPED_CONTENT_TYPES = "skippedContentTypes";
+	private static final String KEY_MESSAGE_LAYOUT = "messageLayout";
+	private static final String KEY_COMPRESS_UPLOADS = "compressUploads";
+	private static final String KEY_COMPRESS_THRESHOLD = "compressThreshold";
+	private static final String KEY_PIPELINED_UPLOADS = "pipelinedUploads";
+	private static final String KEY_UPLOAD_THREADS = "uploadThreads";
+	private static final String KEY_UPLOAD_RETRIES = "uploadRetries";
+	private static final String KEY_UPLOAD_RETRY_DELAY = "uploadRetryDelay";
+	private static final String KEY_UPLOAD_RETRY_MAX_DELAY = "uploadRetryMaxDelay";
+	private static final String KEY_CIRCUIT_BREAKER_THRESHOLD = "circuitBreakerThreshold";
+	private static final String KEY_CIRCUIT_BREAKER_OPEN_TIME = "circuitBreakerOpenTime";
+	private static final String KEY_SHARDED_UPLOADS = "shardedUploads";
+	private static final String KEY_SHARD_MAX_ALERTS = "shardMaxAlerts";
+	private static final String KEY_SHARD_THREADS = "shardThreads";
+	private static final String KEY_JOB_THREADS = "jobThreads";
+	private static final String KEY_PROJECT_CACHE_TTL = "projectCacheTtl";
+	private static final String KEY_DELTA_UPLOADS = "deltaUploads";
+	private static final String KEY_SEEN_ALERTS = "seenAlerts";
+	private static final String KEY_CONTINUOUS_UPLOADS = "continuousUploads";
+	private static final String KEY_CONTINUOUS_FLUSH_ALERTS = "continuousFlushAlerts";
+	private static final String KEY_CONTINUOUS_FLUSH_INTERVAL = "continuousFlushInterval";
+	private static final String KEY_CONTINUOUS_BUFFER_SIZE = "continuousBufferSize";
+	private static final String KEY_UPLOAD_SCHEDULE = "uploadSchedule";
+	private static final String KEY_UPLOAD_SCHEDULE_PROJECT = "uploadScheduleProject";
+	private static final String KEY_UPLOAD_SCHEDULE_TIMEOUT = "uploadScheduleTimeout";
+	private static final String KEY_REPORT_URL_PREFIXES = "reportUrlPrefixes";
+	private static final String KEY_REPORT_CONTEXTS = "reportContexts";
 
 	// ZAP config keys with prefix
 	private static final String ZAP_CONFIG_PREFIX = "srm.";
@@ -58,12 +90,29 @@ public class SrmProperties {
 	private static final String ZAP_KEY_API = ZAP_CONFIG_PREFIX + KEY_API;
 	private static final String ZAP_KEY_SELECTED = ZAP_CONFIG_PREFIX + KEY_SELECTED;
 	private static final String ZAP_KEY_TIMEOUT = ZAP_CONFIG_PREFIX + KEY_TIMEOUT;
+	private static final String ZAP_KEY_REPORT_URL_PREFIXES = ZAP_CONFIG_PREFIX + KEY_REPORT_URL_PREFIXES;
+	private static final String ZAP_KEY_REPORT_CONTEXTS = ZAP_CONFIG_PREFIX + KEY_REPORT_CONTEXTS;
 
 	private Properties prop;
 	private File configFile;
 
 	public static final String DEFAULT_TIMEOUT_STRING = "120";
 	public static final int DEFAULT_TIMEOUT_INT = 120000;
+	public static final int DEFAULT_REPORT_THREADS = 1;
+	public static final int DEFAULT_UPLOAD_THREADS = 2;
+	public static final int DEFAULT_UPLOAD_RETRIES = 3;
+	public static final int DEFAULT_UPLOAD_RETRY_DELAY = 1000;
+	public static final int DEFAULT_UPLOAD_RETRY_MAX_DELAY = 60000;
+	public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+	public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 60000;
+	public static final int DEFAULT_SHARD_THREADS = 2;
+	public static final int DEFAULT_JOB_THREADS = 2;
+	public static final int DEFAULT_PROJECT_CACHE_TTL = 300000;
+	public static final int DEFAULT_CONTINUOUS_FLUSH_ALERTS = 50;
+	public static final int DEFAULT_CONTINUOUS_FLUSH_INTERVAL = 30000;
+	public static final int DEFAULT_CONTINUOUS_BUFFER_SIZE = 10000;
+	public static final int DEFAULT_UPLOAD_SCHEDULE_TIMEOUT = 3600000;
+	public static final int DEFAULT_COMPRESS_THRESHOLD = 1024 * 1024;
 
 	public String getServerUrl() {
 		String text = getProperty(KEY_SERVER);
@@ -89,6 +138,273 @@ public class SrmProperties {
 		return timeout;
 	}
 
+	/**
+	 * Gets the number of sites that are built concurrently when generating a report. Defaults to
+	 * 1, which builds the sites one at a time on the calling thread.
+	 */
+	public int getReportThreads() {
+		return getIntProperty(KEY_REPORT_THREADS, DEFAULT_REPORT_THREADS);
+	}
+
+	/**
+	 * Gets the maximum number of bytes of each request and response header embedded in the
+	 * report. Defaults to no limit.
+	 */
+	public int getMaxHeaderSize() {
+		return getIntProperty(KEY_MAX_HEADER_SIZE, HttpDataLimits.UNLIMITED);
+	}
+
+	/**
+	 * Gets the maximum number of bytes of each request body embedded in the report. Defaults to
+	 * no limit.
+	 */
+	public int getMaxRequestBodySize() {
+		return getIntProperty(KEY_MAX_REQUEST_BODY_SIZE, HttpDataLimits.UNLIMITED);
+	}
+
+	/**
+	 * Gets the maximum number of bytes of each response body embedded in the report. Defaults to
+	 * no limit.
+	 */
+	public int getMaxResponseBodySize() {
+		return getIntProperty(KEY_MAX_RESPONSE_BODY_SIZE, HttpDataLimits.UNLIMITED);
+	}
+
+	/**
+	 * Gets the comma separated content types whose bodies are embedded in the report, empty for
+	 * all of them.
+	 */
+	public String getAllowedContentTypes() {
+		return getProperty(KEY_ALLOWED_CONTENT_TYPES);
+	}
+
+	/**
+	 * Gets the comma separated content types whose bodies are summarized instead of embedded in
+	 * the report.
+	 */
+	public String getSkippedContentTypes() {
+		return getProperty(KEY_SKIPPED_CONTENT_TYPES);
+	}
+
+	/**
+	 * Gets how the request and response data is laid out in the report, {@code inline} (the
+	 * default) or {@code shared}.
+	 */
+	public ExtensionAlertHttp.MessageLayout getMessageLayout() {
+		return ExtensionAlertHttp.MessageLayout.parse(getProperty(KEY_MESSAGE_LAYOUT));
+	}
+
+	/**
+	 * Gets what is done with the alerts written to a report before, {@code include} (the
+	 * default), {@code mark} or {@code skip}.
+	 */
+	public ExtensionAlertHttp.SeenAlerts getSeenAlerts() {
+		return ExtensionAlertHttp.SeenAlerts.parse(getProperty(KEY_SEEN_ALERTS));
+	}
+
+	/**
+	 * Tells whether or not the reports are gzipped while they are uploaded. Defaults to
+	 * {@code false}.
+	 */
+	public boolean isCompressUploads() {
+		return Boolean.parseBoolean(getProperty(KEY_COMPRESS_UPLOADS).trim());
+	}
+
+	/**
+	 * Gets the size, in bytes, from which the reports are gzipped when uploads are compressed.
+	 * Smaller reports are sent as they are. Defaults to 1 MiB.
+	 */
+	public int getCompressThreshold() {
+		return getIntProperty(KEY_COMPRESS_THRESHOLD, DEFAULT_COMPRESS_THRESHOLD);
+	}
+
+	/**
+	 * Tells whether or not generated reports are uploaded while they are generated, instead of
+	 * being written to a temporary file first. Defaults to {@code false}.
+	 */
+	public boolean isPipelinedUploads() {
+		return Boolean.parseBoolean(getProperty(KEY_PIPELINED_UPLOADS).trim());
+	}
+
+	/**
+	 * Gets the number of reports that are uploaded at the same time, the other queued reports
+	 * wait for their turn. Defaults to 2.
+	 */
+	public int getUploadThreads() {
+		return getIntProperty(KEY_UPLOAD_THREADS, DEFAULT_UPLOAD_THREADS);
+	}
+
+	/**
+	 * Gets the number of times an upload is retried after a transient failure. Defaults to 3.
+	 */
+	public int getUploadRetries() {
+		return getIntProperty(KEY_UPLOAD_RETRIES, DEFAULT_UPLOAD_RETRIES);
+	}
+
+	/**
+	 * Gets the delay, in milliseconds, before the first retry of an upload, doubled for each
+	 * further retry. Defaults to 1 second.
+	 */
+	public int getUploadRetryDelay() {
+		return getIntProperty(KEY_UPLOAD_RETRY_DELAY, DEFAULT_UPLOAD_RETRY_DELAY);
+	}
+
+	/**
+	 * Gets the maximum delay, in milliseconds, before a retry of an upload. Defaults to 1 minute.
+	 */
+	public int getUploadRetryMaxDelay() {
+		return getIntProperty(KEY_UPLOAD_RETRY_MAX_DELAY, DEFAULT_UPLOAD_RETRY_MAX_DELAY);
+	}
+
+	/**
+	 * Gets the number of consecutive transient failures after which the uploads to a server are
+	 * paused, 0 to never pause them. Defaults to 5.
+	 */
+	public int getCircuitBreakerThreshold() {
+		return getIntProperty(KEY_CIRCUIT_BREAKER_THRESHOLD, DEFAULT_CIRCUIT_BREAKER_THRESHOLD);
+	}
+
+	/**
+	 * Gets how long, in milliseconds, the uploads to a failing server are paused. Defaults to 1
+	 * minute.
+	 */
+	public int getCircuitBreakerOpenTime() {
+		return getIntProperty(KEY_CIRCUIT_BREAKER_OPEN_TIME, DEFAULT_CIRCUIT_BREAKER_OPEN_TIME);
+	}
+
+	/**
+	 * Tells whether or not generated reports are split into several files, uploaded together.
+	 * Defaults to {@code false}.
+	 */
+	public boolean isShardedUploads() {
+		return Boolean.parseBoolean(getProperty(KEY_SHARDED_UPLOADS).trim());
+	}
+
+	/**
+	 * Gets the maximum number of alerts of each file of a sharded upload, 0 for a file per site.
+	 * Defaults to 0.
+	 */
+	public int getShardMaxAlerts() {
+		return getIntProperty(KEY_SHARD_MAX_ALERTS, 0);
+	}
+
+	/**
+	 * Gets the number of files of a sharded upload generated at the same time. Defaults to 2.
+	 */
+	public int getShardThreads() {
+		return getIntProperty(KEY_SHARD_THREADS, DEFAULT_SHARD_THREADS);
+	}
+
+	/**
+	 * Gets the number of asynchronous API jobs run at the same time. Defaults to 2.
+	 */
+	public int getJobThreads() {
+		return getIntProperty(KEY_JOB_THREADS, DEFAULT_JOB_THREADS);
+	}
+
+	/**
+	 * Gets the time, in milliseconds, after which the cached projects of a server are refreshed
+	 * in the background. Defaults to 5 minutes.
+	 */
+	public int getProjectCacheTtl() {
+		return getIntProperty(KEY_PROJECT_CACHE_TTL, DEFAULT_PROJECT_CACHE_TTL);
+	}
+
+	/**
+	 * Tells whether or not generated reports only include the alerts not yet uploaded to the
+	 * project. Defaults to {@code false}.
+	 */
+	public boolean isDeltaUploads() {
+		return Boolean.parseBoolean(getProperty(KEY_DELTA_UPLOADS).trim());
+	}
+
+	/**
+	 * Tells whether or not the alerts are uploaded to the selected project as they are raised.
+	 * Defaults to {@code false}.
+	 */
+	public boolean isContinuousUploads() {
+		return Boolean.parseBoolean(getProperty(KEY_CONTINUOUS_UPLOADS).trim());
+	}
+
+	/**
+	 * Gets the number of new alerts that trigger a continuous upload before the flush interval
+	 * elapses. Defaults to 50.
+	 */
+	public int getContinuousFlushAlerts() {
+		return getIntProperty(KEY_CONTINUOUS_FLUSH_ALERTS, DEFAULT_CONTINUOUS_FLUSH_ALERTS);
+	}
+
+	/**
+	 * Gets the time, in milliseconds, after which the new alerts are uploaded in continuous mode.
+	 * Defaults to 30 seconds.
+	 */
+	public int getContinuousFlushInterval() {
+		return getIntProperty(KEY_CONTINUOUS_FLUSH_INTERVAL, DEFAULT_CONTINUOUS_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * Gets the maximum number of new alerts kept while waiting for a continuous upload, beyond
+	 * which the next upload works out the new alerts from the upload watermark instead. Defaults
+	 * to 10000.
+	 */
+	public int getContinuousBufferSize() {
+		return getIntProperty(KEY_CONTINUOUS_BUFFER_SIZE, DEFAULT_CONTINUOUS_BUFFER_SIZE);
+	}
+
+	/**
+	 * Gets the schedule of the uploads run by the add-on, an interval in milliseconds or five
+	 * cron fields, see {@link UploadScheduler.Schedule}. Empty, the default, if none.
+	 */
+	public String getUploadSchedule() {
+		return getProperty(KEY_UPLOAD_SCHEDULE);
+	}
+
+	/**
+	 * Gets the project the scheduled uploads are sent to. Empty, the default, for the project last
+	 * selected in the upload dialog.
+	 */
+	public String getUploadScheduleProject() {
+		return getProperty(KEY_UPLOAD_SCHEDULE_PROJECT);
+	}
+
+	/**
+	 * Gets the time, in milliseconds, after which a scheduled upload still in progress is given
+	 * up, the next tick of the schedule then starts another. 0 for no limit. Defaults to
+	 * {@value #DEFAULT_UPLOAD_SCHEDULE_TIMEOUT}.
+	 */
+	public int getUploadScheduleTimeout() {
+		return getIntProperty(KEY_UPLOAD_SCHEDULE_TIMEOUT, DEFAULT_UPLOAD_SCHEDULE_TIMEOUT);
+	}
+
+	/**
+	 * Gets the comma separated URL prefixes, including sites, the reports are limited to, see
+	 * {@link ReportScope}. Empty, the default, for no limit.
+	 */
+	public String getReportUrlPrefixes() {
+		return getProperty(KEY_REPORT_URL_PREFIXES);
+	}
+
+	/**
+	 * Gets the comma separated names or ids of the contexts the reports are limited to, see
+	 * {@link ReportScope}. Empty, the default, for no limit.
+	 */
+	public String getReportContexts() {
+		return getProperty(KEY_REPORT_CONTEXTS);
+	}
+
+	private int getIntProperty(String key, int defaultValue) {
+		String value = getProperty(key);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid value for SRM property {}: {}", key, value);
+			return defaultValue;
+		}
+	}
+
 	private String getProperty(String key) {
 		if (configFile == null) {
 			Configuration config = Model.getSingleton().getOptionsParam().getConfig();
@@ -101,6 +417,18 @@ public class SrmProperties {
 	}
 
 
+	public void setReportScope(String urlPrefixes, String contexts) {
+		if (configFile == null) {
+			Configuration config = Model.getSingleton().getOptionsParam().getConfig();
+			config.setProperty(ZAP_KEY_REPORT_URL_PREFIXES, urlPrefixes);
+			config.setProperty(ZAP_KEY_REPORT_CONTEXTS, contexts);
+		} else {
+			prop.setProperty(KEY_REPORT_URL_PREFIXES, urlPrefixes);
+			prop.setProperty(KEY_REPORT_CONTEXTS, contexts);
+			saveProperties();
+		}
+	}
+
 	public void setProperties(String server, String api, String selectedId, String timeout) {
 		if (configFile == null) {
 			Configuration config = Model.getSingleton().getOptionsParam().getConfig();
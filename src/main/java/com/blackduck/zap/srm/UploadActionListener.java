@@ -22,8 +22,10 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
@@ -32,6 +34,7 @@ import org.apache.logging.log4j.Logger;
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.view.View;
 
+import javax.swing.SwingUtilities;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -41,12 +44,23 @@ import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UploadActionListener implements ActionListener {
 
 	private static final Logger LOGGER = LogManager.getLogger(UploadActionListener.class);
 
+	// The minimum time before a deferred upload is tried again
+	private static final long MIN_DEFER_DELAY = 1000;
+
 	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
 
 	static {
@@ -70,33 +84,35 @@ public class UploadActionListener implements ActionListener {
 	public void generateAndUploadReport() {
 		String error = null;
 		try {
-			final File reportFile = generateReportFile(extension);
-			if (!reportIsEmpty(reportFile)) {
-				Thread uploadThread = new Thread() {
-					@Override
-					public void run() {
-						String err;
-						try {
-							err = uploadFile(
-									extension.getHttpClient(),
-									reportFile,
-									SrmProperties.getInstance().getServerUrl(),
-									SrmProperties.getInstance().getApiKey(),
-									prop.getProject().getValue()
-							);
-						} catch (IOException ex1) {
-							err = Constant.messages.getString("srm.error.unexpected");
-							LOGGER.error("Unexpected error while uploading report: ", ex1);
-						}
-						if (err != null) View.getSingleton().showMessageDialog(err);
-						else View.getSingleton().showMessageDialog(Constant.messages.getString("srm.message.success"));
-						reportFile.delete();
-					}
-				};
-				uploadThread.start();
+			UploadTarget target = getUploadTarget();
+			ReportOptions options = ReportOptions.fromProperties();
+			if (SrmProperties.getInstance().isDeltaUploads()) {
+				AlertDelta delta = AlertDelta.compute(
+						extension.getUploadWatermarks().get(target.getServerUrl(), target.getProject()),
+						new ReportLastScanHttp(options),
+						false);
+				if (delta.isEmpty()) {
+					View.getSingleton().showMessageDialog(Constant.messages.getString("srm.message.unchanged", delta.getUnchangedAlerts()));
+					return;
+				}
+				options = options.withDelta(delta);
+			}
+			ReportOptions uploaded = options.forUpload();
+			UploadQueue.Callback callback = (item, err) -> {
+				if (err == null) {
+					uploaded.commit();
+				}
+				showUploadResult(item, err);
+			};
+
+			UploadQueue.Item item = enqueueReport(extension, target, uploaded, callback);
+			if (item != null) {
+				showProgress(item);
 			} else {
 				error = Constant.messages.getString("srm.error.empty");
 			}
+		} catch (InvalidReportScopeException ex2) {
+			error = ex2.getMessage();
 		} catch (Exception ex2) {
 			error = Constant.messages.getString("srm.error.failed");
 			LOGGER.error("Unexpected error while generating report: ", ex2);
@@ -104,9 +120,197 @@ public class UploadActionListener implements ActionListener {
 		if (error != null) View.getSingleton().showWarningDialog(error);
 	}
 
+	/**
+	 * Generates a report with the given options and queues it for upload, sharded or pipelined
+	 * as set in the {@link SrmProperties}.
+	 *
+	 * @return the queued upload, or {@code null} if the report is empty
+	 */
+	static UploadQueue.Item enqueueReport(SrmExtension extension, UploadTarget target, ReportOptions options, UploadQueue.Callback callback) throws Exception {
+		UploadQueue queue = extension.getUploadQueue();
+		if (SrmProperties.getInstance().isShardedUploads()) {
+			List<File> shards = ShardedReport.fromProperties(options).generate();
+			return shards.isEmpty() ? null : queue.enqueue(shards, true, target, callback);
+		} else if (SrmProperties.getInstance().isPipelinedUploads()) {
+			ReportLastScanHttp saver = new ReportLastScanHttp(options);
+			return saver.hasSites() ? queue.enqueue(options, target, callback) : null;
+		}
+		File reportFile = generateReportFile(extension, options);
+		if (reportIsEmpty(reportFile)) {
+			reportFile.delete();
+			return null;
+		}
+		return queue.enqueue(reportFile, true, target, callback);
+	}
+
+	private UploadTarget getUploadTarget() {
+		return new UploadTarget(
+				SrmProperties.getInstance().getServerUrl(),
+				SrmProperties.getInstance().getApiKey(),
+				prop.getProject().getValue(),
+				null,
+				false
+		);
+	}
+
+	private void showProgress(UploadQueue.Item item) {
+		UploadProgressDialog.show(extension.getUploadQueue(), item);
+	}
+
+	/**
+	 * Shows the result of the upload once done, and then the result of its analysis once
+	 * finished, without holding up the thread of the upload or of the analysis job.
+	 */
+	private void showUploadResult(UploadQueue.Item item, String err) {
+		if (err != null) {
+			showMessage(err);
+			return;
+		}
+		showMessage(Constant.messages.getString("srm.message.success"));
+		if (item.getAnalysisJob() != null) item.getAnalysisJob().whenFinished(UploadActionListener::showAnalysisResult);
+	}
+
+	private static void showAnalysisResult(AnalysisJobPoller.AnalysisJob job) {
+		String finished = ReportGenerator.getDateTimeString(new Date(job.getFinished()));
+		if (job.getStatus() == AnalysisJobPoller.Status.COMPLETED) {
+			showMessage(Constant.messages.getString("srm.message.analysis.completed", finished));
+		} else {
+			showMessage(Constant.messages.getString(
+					"srm.message.analysis.unfinished", job.getStatus().name().toLowerCase(Locale.ROOT), finished));
+		}
+	}
+
+	private static void showMessage(String message) {
+		SwingUtilities.invokeLater(() -> View.getSingleton().showMessageDialog(message));
+	}
+
 	public static String uploadFile(CloseableHttpClient client, File reportFile, String serverUrl, String apiKey, String project) throws IOException {
+		return upload(client, Collections.singletonList(createReportBody(reportFile)), serverUrl, apiKey, project, null);
+	}
+
+	/**
+	 * Uploads several report files, e.g. the shards of a {@link ShardedReport}, as a single
+	 * analysis.
+	 */
+	public static String uploadFiles(CloseableHttpClient client, List<File> reportFiles, String serverUrl, String apiKey, String project) throws IOException {
+		return uploadFiles(client, reportFiles, serverUrl, apiKey, project, null);
+	}
+
+	/**
+	 * Uploads several report files as a single analysis, counting the bytes sent in the given
+	 * progress.
+	 *
+	 * @param progress the progress of the upload, may be {@code null}
+	 */
+	public static String uploadFiles(CloseableHttpClient client, List<File> reportFiles, String serverUrl, String apiKey, String project, ReportProgress progress) throws IOException {
+		List<ContentBody> reports = new ArrayList<>(reportFiles.size());
+		for (File reportFile : reportFiles) {
+			reports.add(createReportBody(reportFile));
+		}
+		return upload(client, reports, serverUrl, apiKey, project, progress);
+	}
+
+	/**
+	 * Uploads the report while it is generated, without writing it to a file first. The report
+	 * is sent chunked and gzipped if uploads are compressed. The bytes sent are counted in the
+	 * progress of the report options, if any.
+	 *
+	 * @see ReportStreamBody
+	 */
+	public static String uploadReport(CloseableHttpClient client, ReportLastScanHttp saver, String serverUrl, String apiKey, String project) throws IOException {
+		ContentBody report = new ReportStreamBody(saver, SrmProperties.getInstance().isCompressUploads());
+		return upload(client, Collections.singletonList(report), serverUrl, apiKey, project, saver.getOptions().getProgress());
+	}
+
+	/**
+	 * Sends the reports, retrying them after a transient failure as long as the request was not
+	 * sent, a request sent might have started an analysis. A report generated while uploaded is
+	 * not retried nor deferred once written, it would be generated again, its failure is final.
+	 *
+	 * @throws UploadDeferredException if the server is failing, the report can be uploaded later
+	 */
+	private static String upload(CloseableHttpClient client, List<ContentBody> reports, String serverUrl, String apiKey, String project, ReportProgress progress) throws IOException {
+		if (client == null) return getError(null);
+		UploadRetryPolicy retryPolicy = UploadRetryPolicy.fromProperties();
+		CircuitBreaker circuitBreaker = CircuitBreaker.forServer(serverUrl);
+		for (int retry = 1; ; retry++) {
+			if (!circuitBreaker.allowRequest()) {
+				LOGGER.warn("Not uploading the report, the server {} is failing", serverUrl);
+				throw new UploadDeferredException(
+						Constant.messages.getString("srm.error.unsent") + " " + Constant.messages.getString("srm.error.circuitopen"),
+						Math.max(circuitBreaker.getRemainingOpenTime(), MIN_DEFER_DELAY),
+						null);
+			}
+
+			AtomicBoolean requestSent = new AtomicBoolean();
+			HttpResponse response = null;
+			boolean recorded = false;
+			try {
+				response = sendData(client, reports, serverUrl, apiKey, project, progress, requestSent);
+			} catch (IOException e) {
+				if (Thread.currentThread().isInterrupted() || (progress != null && progress.isCancelled())) throw e;
+				circuitBreaker.recordFailure();
+				recorded = true;
+				if (requestSent.get()) {
+					// E.g. timed out waiting for the response, the report might have been received
+					throw e;
+				}
+				if (!isRepeatable(reports)) {
+					LOGGER.warn("Failed to upload the report generated while uploaded, not trying again: {}", e.getMessage());
+					throw e;
+				}
+				long delay = retryPolicy.getDelay(retry, null);
+				if (delay < 0) throw new UploadDeferredException(e.getMessage(), getDeferDelay(null), e);
+				LOGGER.warn("Failed to upload the report, retrying in {} ms: {}", delay, e.getMessage());
+				UploadRetryPolicy.sleep(delay);
+				continue;
+			} finally {
+				if (response == null && !recorded) {
+					// Cancelled, interrupted or unexpected error, not a failure of the server
+					circuitBreaker.release();
+				}
+			}
+
+			int responseCode = response.getStatusLine().getStatusCode();
+			if (!UploadRetryPolicy.isTransient(responseCode)) {
+				circuitBreaker.recordSuccess();
+				return getError(response);
+			}
+			circuitBreaker.recordFailure();
+			if (!isRepeatable(reports)) {
+				return getError(response);
+			}
+			long delay = retryPolicy.getDelay(retry, response);
+			if (delay < 0) throw new UploadDeferredException(getError(response), getDeferDelay(response), null);
+			LOGGER.warn("The server returned {}, retrying the upload in {} ms", response.getStatusLine(), delay);
+			UploadRetryPolicy.sleep(delay);
+		}
+	}
+
+	/**
+	 * Gets the time to wait before uploading again a report whose retries failed: the time the
+	 * circuit of a failing server stays open, or longer if the server asks to.
+	 */
+	private static long getDeferDelay(HttpResponse response) {
+		long openTime = SrmProperties.getInstance().getCircuitBreakerOpenTime();
+		return Math.max(MIN_DEFER_DELAY, Math.max(openTime, UploadRetryPolicy.getRetryAfter(response)));
+	}
+
+	/**
+	 * Tells whether or not the report can be sent again, the reports generated while uploaded are
+	 * not generated twice.
+	 */
+	private static boolean isRepeatable(List<ContentBody> reports) {
+		for (ContentBody report : reports) {
+			if (report instanceof ReportStreamBody && ((ReportStreamBody) report).isWritten()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String getError(HttpResponse response) {
 		String err = null;
-		HttpResponse response = sendData(client, reportFile, serverUrl, apiKey, project);
 		StatusLine responseLine = null;
 		int responseCode = -1;
 		if (response != null) {
@@ -128,42 +332,87 @@ public class UploadActionListener implements ActionListener {
 		return err;
 	}
 
-	private static HttpResponse sendData(CloseableHttpClient client, File reportFile, String serverUrl, String apiKey, String project) throws IOException {
+	/**
+	 * @param requestSent set once the whole request was sent
+	 */
+	private static HttpResponse sendData(CloseableHttpClient client, List<ContentBody> reports, String serverUrl, String apiKey, String project, ReportProgress progress, AtomicBoolean requestSent) throws IOException {
 		if (client == null) return null;
-		try {
-			HttpPost post = new HttpPost(serverUrl + "/api/projects/" + project + "/analysis");
-			post.setHeader("API-Key", apiKey);
+		HttpPost post = new HttpPost(serverUrl + "/api/projects/" + project + "/analysis");
+		post.setHeader("API-Key", apiKey);
 
-			MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-			builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
-			builder.addPart("file", new FileBody(reportFile));
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
+		// One file part per report, all of them in the same analysis
+		for (ContentBody report : reports) {
+			builder.addPart("file", report);
+		}
 
-			HttpEntity entity = builder.build();
-			post.setEntity(entity);
+		HttpEntity entity = builder.build();
+		if (progress != null) {
+			entity = new ProgressHttpEntity(entity, progress);
+		}
+		post.setEntity(new HttpEntityWrapper(entity) {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				super.writeTo(out);
+				requestSent.set(true);
+			}
+		});
 
-			HttpResponse response = client.execute(post);
-			HttpEntity resEntity = response.getEntity();
+		HttpResponse response;
+		try {
+			response = client.execute(post);
+		} finally {
+			if (progress != null) progress.responseReceived();
+		}
+		HttpEntity resEntity = response.getEntity();
 
-			if (resEntity != null) {
+		if (resEntity != null) {
+			if (progress != null && response.getStatusLine().getStatusCode() == 202) {
+				// The analysis continues on the server, keep its job to follow it
+				progress.setAnalysisJobId(AnalysisJobPoller.parseJobId(EntityUtils.toString(resEntity, StandardCharsets.UTF_8)));
+			} else {
 				EntityUtils.consume(resEntity);
 			}
+		}
 
-			return response;
-		} finally {
-			client.close();
+		return response;
+	}
+
+	/**
+	 * Sends a report to the server, returning the error message or {@code null} if it was sent.
+	 */
+	@FunctionalInterface
+	interface ReportSender {
+		String send(CloseableHttpClient client, String serverUrl, String apiKey, String project) throws IOException;
+	}
+
+	private static ContentBody createReportBody(File reportFile) {
+		SrmProperties properties = SrmProperties.getInstance();
+		if (properties.isCompressUploads() && reportFile.length() >= properties.getCompressThreshold()) {
+			return new GzipFileBody(reportFile);
 		}
+		return new FileBody(reportFile);
 	}
 
 	public static void generateReportString(SrmExtension extension, StringBuilder report) throws Exception {
-		ReportLastScanHttp saver = new ReportLastScanHttp();
+		generateReportString(extension, report, ReportOptions.fromProperties());
+	}
+
+	public static void generateReportString(SrmExtension extension, StringBuilder report, ReportOptions options) throws Exception {
+		ReportLastScanHttp saver = new ReportLastScanHttp(options);
 		saver.generate(report);
 	}
 
 	public static File generateReportFile(SrmExtension extension) throws Exception {
+		return generateReportFile(extension, ReportOptions.fromProperties());
+	}
+
+	public static File generateReportFile(SrmExtension extension, ReportOptions options) throws Exception {
 		File reportFile = File.createTempFile("srm-zap-report", ".xml");
 		reportFile.deleteOnExit();
 
-		ReportLastScanHttp saver = new ReportLastScanHttp();
+		ReportLastScanHttp saver = new ReportLastScanHttp(options);
 		saver.generate(reportFile.getCanonicalPath(), ReportType.XML);
 
 		return reportFile;
@@ -0,0 +1,49 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a report could not be uploaded because the server is failing, either its circuit
+ * is open or the upload failed with a transient failure after all its retries. The report was
+ * not received and can be uploaded again later, the {@link UploadQueue} keeps it spooled and
+ * tries again after {@link #getDelay() the delay}.
+ */
+public class UploadDeferredException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long delay;
+
+	/**
+	 * @param message the error message, shown to the user
+	 * @param delay the time to wait before trying again, in milliseconds
+	 */
+	public UploadDeferredException(String message, long delay, Throwable cause) {
+		super(message, cause);
+		this.delay = delay;
+	}
+
+	/**
+	 * Gets the time to wait before trying again, in milliseconds.
+	 */
+	public long getDelay() {
+		return delay;
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.zaproxy.zap.extension.api.ApiException;
+import org.zaproxy.zap.extension.api.ApiResponse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The API actions run in the background, so that the API call returns right away with the id of
+ * the job, whose status, progress and result are then obtained with the API views.
+ * <p>
+ * The most recent finished jobs are kept, for their result to be read, the older ones are
+ * forgotten.
+ */
+public class UploadJobs {
+
+	private static final Logger LOGGER = LogManager.getLogger(UploadJobs.class);
+
+	static final int MAX_FINISHED_JOBS = 100;
+
+	public enum State {
+		QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+	}
+
+	/**
+	 * The work of a job, reporting its progress in the given progress.
+	 */
+	@FunctionalInterface
+	public interface Task {
+		ApiResponse run(ReportProgress progress) throws ApiException;
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final Map<Long, Job> jobs = new LinkedHashMap<>();
+	private final AtomicLong nextId = new AtomicLong(1);
+
+	/**
+	 * @param threads the number of jobs run at the same time
+	 */
+	public UploadJobs(int threads) {
+		int poolSize = Math.max(1, threads);
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				SrmExecutor.newThreadFactory("ZAP-SRM-Job-"));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts a job.
+	 *
+	 * @param action the name of the API action run by the job
+	 */
+	public Job submit(String action, Task task) {
+		Job job = new Job(nextId.getAndIncrement(), action);
+		synchronized (jobs) {
+			jobs.put(job.id, job);
+		}
+		// Published under the lock of the job, the one cancel() takes
+		synchronized (job) {
+			job.future = executor.submit(() -> run(job, task));
+		}
+		return job;
+	}
+
+	private void run(Job job, Task task) {
+		synchronized (job) {
+			if (job.state != State.QUEUED) {
+				return;
+			}
+			job.state = State.RUNNING;
+			job.started = System.currentTimeMillis();
+		}
+
+		ApiResponse result = null;
+		String error = null;
+		try {
+			result = task.run(job.progress);
+		} catch (ApiException e) {
+			error = e.getMessage();
+		} catch (RuntimeException e) {
+			LOGGER.error("Job {} failed: {}", job.id, e.getMessage(), e);
+			error = e.toString();
+		}
+
+		synchronized (job) {
+			job.finished = System.currentTimeMillis();
+			if (job.state == State.CANCELLED) {
+				LOGGER.info("Job {} cancelled", job.id);
+			} else if (error != null) {
+				job.state = State.FAILED;
+				job.error = error;
+			} else {
+				job.state = State.COMPLETED;
+				job.result = result;
+			}
+		}
+		pruneFinished();
+	}
+
+	/**
+	 * Gets the job with the given id, or {@code null} if there is none.
+	 */
+	public Job get(long id) {
+		synchronized (jobs) {
+			return jobs.get(id);
+		}
+	}
+
+	/**
+	 * Gets the jobs, in the order they were started.
+	 */
+	public List<Job> getJobs() {
+		synchronized (jobs) {
+			return new ArrayList<>(jobs.values());
+		}
+	}
+
+	/**
+	 * Cancels the given job, if not finished. A running job stops at the next alert written or
+	 * data sent, it is finished once it did.
+	 *
+	 * @return {@code true} if cancelled, {@code false} if there is no such job or it is finished
+	 */
+	public boolean cancel(long id) {
+		Job job = get(id);
+		if (job == null) {
+			return false;
+		}
+		Future<?> future;
+		synchronized (job) {
+			if (job.state != State.QUEUED && job.state != State.RUNNING) {
+				return false;
+			}
+			if (job.state == State.QUEUED) {
+				// Never run, run() returns right away if it is called
+				job.finished = System.currentTimeMillis();
+			}
+			job.state = State.CANCELLED;
+			// Not yet set if the job is being submitted
+			future = job.future;
+		}
+		job.progress.cancel();
+		if (future != null) {
+			future.cancel(true);
+		}
+		return true;
+	}
+
+	/**
+	 * Cancels the running jobs and stops the workers.
+	 */
+	public void shutdown() {
+		for (Job job : getJobs()) {
+			cancel(job.id);
+		}
+		executor.shutdownNow();
+	}
+
+	private void pruneFinished() {
+		synchronized (jobs) {
+			int finished = 0;
+			for (Job job : jobs.values()) {
+				if (job.isFinished()) {
+					finished++;
+				}
+			}
+			Iterator<Job> it = jobs.values().iterator();
+			while (finished > MAX_FINISHED_JOBS && it.hasNext()) {
+				if (it.next().isFinished()) {
+					it.remove();
+					finished--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A job of an API action.
+	 */
+	public static class Job {
+		private final long id;
+		private final String action;
+		private final long created = System.currentTimeMillis();
+		private final ReportProgress progress = new ReportProgress();
+		private State state = State.QUEUED;
+		private long started;
+		private long finished;
+		private ApiResponse result;
+		private String error;
+		private Future<?> future;
+
+		private Job(long id, String action) {
+			this.id = id;
+			this.action = action;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public String getAction() {
+			return action;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		public ReportProgress getProgress() {
+			return progress;
+		}
+
+		public synchronized State getState() {
+			return state;
+		}
+
+		/**
+		 * Gets when the job started running, 0 if not yet started.
+		 */
+		public synchronized long getStarted() {
+			return started;
+		}
+
+		/**
+		 * Gets when the job finished, 0 if not yet finished.
+		 */
+		public synchronized long getFinished() {
+			return finished;
+		}
+
+		/**
+		 * Gets the response of the action, {@code null} unless completed.
+		 */
+		public synchronized ApiResponse getResult() {
+			return result;
+		}
+
+		/**
+		 * Gets the error of the action, {@code null} unless failed.
+		 */
+		public synchronized String getError() {
+			return error;
+		}
+
+		/**
+		 * Tells whether or not the job is finished, a cancelled job that was running only once
+		 * its action stopped.
+		 */
+		public synchronized boolean isFinished() {
+			return finished != 0;
+		}
+	}
+}
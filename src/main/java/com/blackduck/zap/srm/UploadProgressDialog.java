@@ -0,0 +1,167 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.view.View;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.Locale;
+
+/**
+ * Shows the progress of a queued upload: the bytes sent, how fast, and how long Software Risk
+ * Manager takes to respond once the report is sent. The dialog closes itself once the upload is
+ * finished, it can be hidden before that or the upload cancelled.
+ */
+public class UploadProgressDialog {
+
+	private static final int REFRESH_INTERVAL_MS = 500;
+
+	private final UploadQueue queue;
+	private final UploadQueue.Item item;
+	private final JDialog dialog;
+	private final JProgressBar progressBar = new JProgressBar(0, 1000);
+	private final JLabel sentLabel = new JLabel(" ");
+	private final JLabel speedLabel = new JLabel(" ");
+	private final JLabel serverLabel = new JLabel(" ");
+	private final Timer timer;
+
+	private UploadProgressDialog(UploadQueue queue, UploadQueue.Item item) {
+		this.queue = queue;
+		this.item = item;
+
+		JPanel panel = new JPanel(new GridBagLayout());
+		panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+		progressBar.setPreferredSize(new Dimension(350, 20));
+		addRow(panel, progressBar);
+		addRow(panel, sentLabel);
+		addRow(panel, speedLabel);
+		addRow(panel, serverLabel);
+
+		JButton hide = new JButton(Constant.messages.getString("srm.progress.hide"));
+		hide.addActionListener(e -> close());
+		JButton cancel = new JButton(Constant.messages.getString("srm.progress.cancel"));
+		cancel.addActionListener(e -> {
+			if (!queue.cancel(item.getId())) {
+				item.getProgress().cancel();
+			}
+			close();
+		});
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+		buttons.add(cancel);
+		buttons.add(hide);
+		addRow(panel, buttons);
+
+		dialog = new JDialog(View.getSingleton().getMainFrame(), Constant.messages.getString("srm.progress.title"), false);
+		dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+		dialog.setContentPane(panel);
+		dialog.pack();
+		dialog.setLocationRelativeTo(View.getSingleton().getMainFrame());
+
+		timer = new Timer(REFRESH_INTERVAL_MS, e -> refresh());
+		dialog.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				timer.stop();
+			}
+		});
+	}
+
+	/**
+	 * Shows the progress of the given upload, unless it is already finished.
+	 */
+	public static void show(UploadQueue queue, UploadQueue.Item item) {
+		SwingUtilities.invokeLater(() -> {
+			if (item.getStatus() == UploadQueue.Status.FINISHED) {
+				return;
+			}
+			UploadProgressDialog progressDialog = new UploadProgressDialog(queue, item);
+			progressDialog.refresh();
+			progressDialog.timer.start();
+			progressDialog.dialog.setVisible(true);
+		});
+	}
+
+	private static void addRow(JPanel panel, JComponent component) {
+		GridBagConstraints gbc = new GridBagConstraints();
+		gbc.gridx = 0;
+		gbc.anchor = GridBagConstraints.WEST;
+		gbc.fill = GridBagConstraints.HORIZONTAL;
+		gbc.insets = new Insets(2, 0, 2, 0);
+		panel.add(component, gbc);
+	}
+
+	private void refresh() {
+		if (item.getStatus() == UploadQueue.Status.FINISHED) {
+			close();
+			return;
+		}
+
+		ReportProgress progress = item.getProgress();
+		if (item.getStatus() == UploadQueue.Status.QUEUED) {
+			progressBar.setIndeterminate(true);
+			sentLabel.setText(Constant.messages.getString("srm.progress.queued", queue.getDepth()));
+			return;
+		}
+
+		long sent = progress.getBytesUploaded();
+		long total = progress.getBytesToUpload();
+		if (total > 0) {
+			progressBar.setIndeterminate(false);
+			progressBar.setValue((int) Math.min(1000, sent * 1000 / total));
+			sentLabel.setText(Constant.messages.getString("srm.progress.sent", formatBytes(sent), formatBytes(total)));
+		} else {
+			// Generated while uploaded, the size is not known
+			progressBar.setIndeterminate(true);
+			sentLabel.setText(Constant.messages.getString(
+					"srm.progress.sent.unknown", formatBytes(sent), progress.getAlertsWritten()));
+		}
+		speedLabel.setText(Constant.messages.getString(
+				"srm.progress.speed", formatSeconds(progress.getSendTime()), formatBytes(progress.getThroughput())));
+		long serverTime = progress.getServerTime();
+		serverLabel.setText(serverTime > 0
+				? Constant.messages.getString("srm.progress.server", formatSeconds(serverTime))
+				: " ");
+	}
+
+	private void close() {
+		timer.stop();
+		dialog.dispose();
+	}
+
+	static String formatBytes(long bytes) {
+		if (bytes < 1024) {
+			return bytes + " B";
+		}
+		double value = bytes;
+		String[] units = {"KB", "MB", "GB", "TB"};
+		int unit = -1;
+		do {
+			value /= 1024;
+			unit++;
+		} while (value >= 1024 && unit < units.length - 1);
+		return String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+	}
+
+	private static String formatSeconds(long millis) {
+		return String.format(Locale.ROOT, "%.1f", millis / 1000.0);
+	}
+}
@@ -17,28 +17,20 @@
  */
 package com.blackduck.zap.srm;
 
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.parosproxy.paros.Constant;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
-import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.util.Arrays;
 
 public class UploadPropertiesDialog {
 
@@ -54,57 +46,91 @@ public class UploadPropertiesDialog {
 	private JTextField serverUrl;
 	private JTextField apiKey;
 	private JComboBox<NameValuePair> projectBox;
+	private ProjectComboBoxModel projectModel;
+	private JTextField projectFilter;
 	private JTextField timeout;
+	private JTextField urlPrefixes;
+	private JTextField contexts;
 	private JDialog dialog;
 
-	private ModifiedNameValuePair[] projectArr = new ModifiedNameValuePair[0];
-
 	private final SrmExtension extension;
 
 	public UploadPropertiesDialog(SrmExtension extension) {
 		this.extension = extension;
 	}
 
+	/**
+	 * Shows the upload settings, on the event dispatch thread, generating and uploading the
+	 * report in the background once accepted.
+	 */
 	public void openProperties(final UploadActionListener uploader) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(() -> openProperties(uploader));
+			return;
+		}
 		JPanel message = new JPanel(new GridBagLayout());
 
 		serverUrl = labelTextField(Constant.messages.getString("srm.settings.serverurl") + " ", message, SrmProperties.getInstance().getServerUrl(), 30);
 		apiKey = labelTextField(Constant.messages.getString("srm.settings.apikey") + " ", message, SrmProperties.getInstance().getApiKey(), 30);
 		projectBox = createProjectComboBox(message);
+		projectFilter = createProjectFilter(message);
 		timeout = labelTextField(Constant.messages.getString("srm.setting.timeout") + " ", message, SrmProperties.getInstance().getTimeout(), 5);
+		urlPrefixes = labelTextField(Constant.messages.getString("srm.settings.urlprefixes") + " ", message, SrmProperties.getInstance().getReportUrlPrefixes(), 30);
+		urlPrefixes.setToolTipText(Constant.messages.getString("srm.settings.urlprefixes.tooltip"));
+		contexts = labelTextField(Constant.messages.getString("srm.settings.contexts") + " ", message, SrmProperties.getInstance().getReportContexts(), 30);
+		contexts.setToolTipText(Constant.messages.getString("srm.settings.contexts.tooltip"));
 
 		final JOptionPane pane = new JOptionPane(message, JOptionPane.PLAIN_MESSAGE, JOptionPane.OK_CANCEL_OPTION, null, DIALOG_BUTTONS, null);
 		dialog = pane.createDialog(Constant.messages.getString("srm.settings.title"));
 
-		Thread popupThread = new Thread() {
-			@Override
-			public void run() {
-				dialog.setVisible(true);
-				if (DIALOG_BUTTONS[0].equals(pane.getValue())) {
-					String timeoutValue = timeout.getText();
-					if (!isStringNumber(timeoutValue)) {
-						timeoutValue = SrmProperties.DEFAULT_TIMEOUT_STRING;
-						error(Constant.messages.getString("srm.error.timeout"));
-					}
-					SrmProperties.getInstance().setProperties(serverUrl.getText(), apiKey.getText(), getProject().getValue(), timeoutValue);
-					uploader.generateAndUploadReport();
-				}
-			}
-		};
-		Thread updateThread = new Thread() {
-			@Override
-			public void run() {
-				if (!"".equals(serverUrl.getText()) && !"".equals(apiKey.getText())) {
+		if (!"".equals(serverUrl.getText()) && !"".equals(apiKey.getText())) {
+			String server = getServerUrl();
+			String key = getApiKey();
+			extension.getExecutor().execute(() -> {
+				// Show the cached projects straight away, refreshing them in the background if stale
+				ProjectCatalog.Projects cached = extension.getProjectCatalog().getCached(server, key, this::showProjects);
+				if (cached != null) {
+					showProjects(cached);
+				} else {
 					updateProjects(true);
-					String previousId = SrmProperties.getInstance().getSelectedId();
-					for (NameValuePair p : projectArr) {
-						if (previousId.equals(p.getValue())) projectBox.setSelectedItem(p);
-					}
 				}
+			});
+		}
+
+		// Modal, returns once closed
+		dialog.setVisible(true);
+		if (!DIALOG_BUTTONS[0].equals(pane.getValue())) {
+			return;
+		}
+
+		String timeoutValue = timeout.getText();
+		if (!isStringNumber(timeoutValue)) {
+			timeoutValue = SrmProperties.DEFAULT_TIMEOUT_STRING;
+			error(Constant.messages.getString("srm.error.timeout"));
+		}
+		String server = serverUrl.getText();
+		String key = apiKey.getText();
+		NameValuePair project = getProject();
+		String prefixes = urlPrefixes.getText().trim();
+		String contextNames = contexts.getText().trim();
+		boolean validScope = true;
+		try {
+			ReportScope.parse(prefixes, contextNames);
+		} catch (IllegalArgumentException e) {
+			validScope = false;
+			error(Constant.messages.getString("srm.error.scope", e.getMessage()));
+		}
+
+		String savedTimeout = timeoutValue;
+		boolean upload = validScope;
+		// Saving the settings and generating the report are done off the event dispatch thread
+		extension.getExecutor().execute(() -> {
+			SrmProperties.getInstance().setProperties(server, key, project != null ? project.getValue() : "", savedTimeout);
+			if (upload) {
+				SrmProperties.getInstance().setReportScope(prefixes, contextNames);
+				uploader.generateAndUploadReport();
 			}
-		};
-		popupThread.start();
-		updateThread.start();
+		});
 	}
 
 	private boolean isStringNumber(String value) {
@@ -132,8 +158,11 @@ public class UploadPropertiesDialog {
 	private JComboBox<NameValuePair> createProjectComboBox(Container cont) {
 		createSettingsLabel("Project: ", cont);
 
-		JComboBox<NameValuePair> box = new JComboBox<>();
+		projectModel = new ProjectComboBoxModel();
+		JComboBox<NameValuePair> box = new JComboBox<>(projectModel);
 		box.setPreferredSize(new Dimension(300, 27));
+		// Avoid measuring every project to size the combo box
+		box.setPrototypeDisplayValue(new BasicNameValuePair("", ""));
 		GridBagConstraints gbc = new GridBagConstraints();
 		gbc.gridx = 1;
 		gbc.fill = GridBagConstraints.HORIZONTAL;
@@ -146,9 +175,8 @@ public class UploadPropertiesDialog {
 				error(Constant.messages.getString("srm.error.required"));
 				return;
 			}
-			dialog.setCursor(new Cursor(Cursor.WAIT_CURSOR));
-			updateProjects();
-			dialog.setCursor(Cursor.getDefaultCursor());
+			// Off the event dispatch thread, to keep the dialog responsive
+			extension.getExecutor().execute(this::updateProjects);
 		});
 		gbc = new GridBagConstraints();
 		gbc.gridx = 2;
@@ -159,6 +187,34 @@ public class UploadPropertiesDialog {
 		return box;
 	}
 
+	private JTextField createProjectFilter(Container cont) {
+		JTextField filter = labelTextField(Constant.messages.getString("srm.settings.filter") + " ", cont, "", 30);
+		filter.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				filterProjects();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				filterProjects();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				filterProjects();
+			}
+		});
+		return filter;
+	}
+
+	private void filterProjects() {
+		projectModel.setFilter(projectFilter.getText());
+		if (projectBox.isShowing() && projectModel.getSize() > 0) {
+			projectBox.showPopup();
+		}
+	}
+
 	private void createSettingsLabel(String label, Container cont) {
 		JLabel labelField = new JLabel(label);
 		labelField.setHorizontalAlignment(SwingConstants.LEFT);
@@ -175,35 +231,26 @@ public class UploadPropertiesDialog {
 		updateProjects(false);
 	}
 
+	/**
+	 * Loads the projects of the server, off the event dispatch thread, the dialog is updated on
+	 * it.
+	 */
 	public void updateProjects(boolean initialRefresh) {
-		dialog.setCursor(new Cursor(Cursor.WAIT_CURSOR));
-		CloseableHttpClient client = null;
-		BufferedReader rd = null;
-		projectArr = new ModifiedNameValuePair[0];
+		setCursor(new Cursor(Cursor.WAIT_CURSOR));
 		try {
-			client = extension.getHttpClient(getServerUrl());
-			if (client != null) {
-				HttpGet get = new HttpGet(getServerUrl() + "/api/projects");
-				get.setHeader("API-Key", getApiKey());
-				HttpResponse response = client.execute(get);
-				rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8));
-
-				StringBuilder result = new StringBuilder();
-				String line = "";
-				while ((line = rd.readLine()) != null) {
-					result.append(line);
-				}
-
-				int code = response.getStatusLine().getStatusCode();
-				if (code == 200) {
-					projectArr = parseProjectJson(result.toString(), initialRefresh);
-				} else if (!initialRefresh) {
-					String msg = Constant.messages.getString("srm.refresh.non200") + ' ' + response.getStatusLine() + '.';
-					if (code == 403) msg += Constant.messages.getString("srm.refresh.403");
-					else if (code == 404) msg += Constant.messages.getString("srm.refresh.404");
-					else if (code == 400) msg += Constant.messages.getString("srm.refresh.400");
-					error(msg);
-				}
+			ProjectCatalog.Projects projects = extension.getProjectCatalog().load(getServerUrl(), getApiKey());
+			if (projects != null) {
+				if (projects.size() == 0 && !initialRefresh) warn(Constant.messages.getString("srm.refresh.noproject"));
+				showProjects(projects);
+			}
+		} catch (ProjectCatalog.StatusException e) {
+			if (!initialRefresh) {
+				String msg = Constant.messages.getString("srm.refresh.non200") + ' ' + e.getMessage() + '.';
+				int code = e.getStatusCode();
+				if (code == 403) msg += Constant.messages.getString("srm.refresh.403");
+				else if (code == 404) msg += Constant.messages.getString("srm.refresh.404");
+				else if (code == 400) msg += Constant.messages.getString("srm.refresh.400");
+				error(msg);
 			}
 		} catch (GeneralSecurityException | ParseException | IOException e) {
 			if (!initialRefresh) {
@@ -211,51 +258,26 @@ public class UploadPropertiesDialog {
 				else error(Constant.messages.getString("srm.refresh.failed"));
 			}
 			LOGGER.error("Error refreshing project list: ", e);
-		} finally {
-			if (client != null)
-				try { client.close(); } catch (IOException e) {}
-			if (rd != null)
-				try { rd.close(); } catch (IOException e) {}
 		}
-		updateProjectComboBox();
-		dialog.setCursor(Cursor.getDefaultCursor());
+		setCursor(Cursor.getDefaultCursor());
 	}
 
-	private ModifiedNameValuePair[] parseProjectJson(String json, boolean initialRefresh) throws ParseException {
-		JSONParser parser = new JSONParser();
-		JSONObject obj = (JSONObject) parser.parse(json);
-		JSONArray projects = (JSONArray) obj.get("projects");
-
-		ModifiedNameValuePair[] projectArr = new ModifiedNameValuePair[projects.size()];
-		for (int i = 0; i < projectArr.length; i++) {
-			JSONObject project = (JSONObject) projects.get(i);
-			int id = ((Long) project.get("id")).intValue();
-			String name = (String) project.get("name");
-			projectArr[i] = new ModifiedNameValuePair(name, Integer.toString(id));
-		}
-		if (projectArr.length > 0) {
-			Arrays.sort(projectArr);
-			// set the project ids to visible if the names are the same
-			for (int i = 0; i < projectArr.length - 1; i++) {
-				if (projectArr[i].getName() != null && projectArr[i].getName().equals(projectArr[i + 1].getName())) {
-					projectArr[i].setUseId(true);
-					projectArr[i + 1].setUseId(true);
-				}
-			}
-		} else if (!initialRefresh) warn(Constant.messages.getString("srm.refresh.noproject"));
-		return projectArr;
+	private void setCursor(Cursor cursor) {
+		SwingUtilities.invokeLater(() -> dialog.setCursor(cursor));
 	}
 
-	public void updateProjectComboBox() {
-		if (projectBox != null) {
-			NameValuePair selected = getProject();
-			projectBox.removeAllItems();
-			for (NameValuePair p : projectArr) {
-				projectBox.addItem(p);
-				if (selected != null && selected.equals(p)) {
-					projectBox.setSelectedItem(p);
-				}
-			}
+	/**
+	 * Shows the given projects in the combo box, keeping the selected project or else selecting
+	 * the one last uploaded to.
+	 */
+	private void showProjects(ProjectCatalog.Projects projects) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(() -> showProjects(projects));
+			return;
+		}
+		projectModel.setProjects(projects.getProjectsArray());
+		if (projectModel.getSelectedItem() == null) {
+			projectModel.selectProject(SrmProperties.getInstance().getSelectedId());
 		}
 	}
 
@@ -264,11 +286,19 @@ public class UploadPropertiesDialog {
 	}
 
 	private void warn(String message) {
-		JOptionPane.showMessageDialog(dialog, message, Constant.messages.getString("srm.warning"), JOptionPane.WARNING_MESSAGE);
+		showMessage(message, Constant.messages.getString("srm.warning"), JOptionPane.WARNING_MESSAGE);
 	}
 
 	private void error(String message) {
-		JOptionPane.showMessageDialog(dialog, message, Constant.messages.getString("srm.error"), JOptionPane.ERROR_MESSAGE);
+		showMessage(message, Constant.messages.getString("srm.error"), JOptionPane.ERROR_MESSAGE);
+	}
+
+	private void showMessage(String message, String title, int messageType) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(() -> showMessage(message, title, messageType));
+			return;
+		}
+		JOptionPane.showMessageDialog(dialog, message, title, messageType);
 	}
 
 	private String getServerUrl() {
@@ -280,30 +310,4 @@ public class UploadPropertiesDialog {
 	private String getApiKey() {
 		return apiKey.getText();
 	}
-
-	private static class ModifiedNameValuePair extends BasicNameValuePair implements Comparable<ModifiedNameValuePair> {
-		private static final long serialVersionUID = -6671681121783779976L;
-		private boolean useId = false;
-
-		public ModifiedNameValuePair(String name, String value) {
-			super(name, value);
-		}
-
-		public void setUseId(boolean useId) {
-			this.useId = useId;
-		}
-
-		@Override
-		public String toString() {
-			if (useId) return getName() + " (id: " + getValue() + ")";
-			return getName();
-		}
-
-		@Override
-		public int compareTo(ModifiedNameValuePair o) {
-			int val = this.getName().compareTo(o.getName());
-			if (val == 0) return this.getValue().compareTo(o.getValue());
-			return val;
-		}
-	}
 }
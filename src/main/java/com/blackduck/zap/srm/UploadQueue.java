@@ -0,0 +1,650 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.Constant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of report uploads, drained by a bounded pool of workers.
+ * <p>
+ * The reports are kept in a spool directory, with a properties file holding where they are
+ * uploaded to, until they are sent. The reports still in the spool directory when ZAP stops are
+ * queued again by {@link #resume()}. The API keys are not spooled: only the reports uploaded with
+ * the API key saved in the options, to its server, are kept across restarts, and they are resumed
+ * with the key then saved. The spool directory and files are readable only by their owner, where
+ * the file system supports it.
+ * <p>
+ * An upload deferred because the server is failing, see {@link UploadDeferredException}, stays
+ * spooled and queued, and is tried again once the server can be tried again.
+ */
+public class UploadQueue {
+
+	private static final Logger LOGGER = LogManager.getLogger(UploadQueue.class);
+
+	public static final String SPOOL_DIR = "srm-uploads";
+
+	private static final String REPORT_EXTENSION = ".xml";
+	private static final String METADATA_EXTENSION = ".properties";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private static final String KEY_SERVER_URL = "serverUrl";
+	private static final String KEY_SAVED_API_KEY = "savedApiKey";
+	private static final String KEY_PROJECT = "projectId";
+	private static final String KEY_FINGERPRINT = "fingerprint";
+	private static final String KEY_ACCEPT_PERMANENTLY = "acceptPermanently";
+	private static final String KEY_CREATED = "created";
+	private static final String KEY_REPORTS = "reports";
+
+	private static final Set<PosixFilePermission> OWNER_ONLY_DIR = PosixFilePermissions.fromString("rwx------");
+	private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+	public enum Status {
+		QUEUED, UPLOADING,
+		/** Uploaded, failed or cancelled, no longer in the queue. */
+		FINISHED
+	}
+
+	private final SrmExtension extension;
+	private final Path spoolDir;
+	private final ScheduledThreadPoolExecutor executor;
+	private final Map<Long, Item> items = new TreeMap<>();
+	// The ids below are left by a previous session, see resume()
+	private final long firstId;
+	private final AtomicLong nextId;
+
+	/**
+	 * @param spoolDir the directory where the queued reports are kept
+	 * @param workers the number of reports uploaded at the same time
+	 */
+	public UploadQueue(SrmExtension extension, Path spoolDir, int workers) {
+		this.extension = extension;
+		this.spoolDir = spoolDir;
+		int threads = Math.max(1, workers);
+		executor = new ScheduledThreadPoolExecutor(threads, SrmExecutor.newThreadFactory("ZAP-SRM-Upload-"));
+		executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		executor.setRemoveOnCancelPolicy(true);
+		// Before anything is queued, so that no report overwrites a spooled one
+		firstId = getLastSpooledId() + 1;
+		nextId = new AtomicLong(firstId);
+	}
+
+	/**
+	 * Creates the queue with the spool directory in the ZAP home directory and the number of
+	 * workers configured in the {@link SrmProperties}.
+	 */
+	public static UploadQueue create(SrmExtension extension) {
+		return new UploadQueue(
+				extension,
+				new File(Constant.getZapHome(), SPOOL_DIR).toPath(),
+				SrmProperties.getInstance().getUploadThreads());
+	}
+
+	/**
+	 * Queues the given report file for upload. The file is moved, or copied, to the spool
+	 * directory so that it is uploaded even if ZAP is restarted before it is sent, if uploaded
+	 * with the API key saved in the options.
+	 *
+	 * @param report the report file
+	 * @param move {@code true} if the file should be moved to the spool directory, {@code false}
+	 *     to copy it
+	 * @param callback called once the upload is done, may be {@code null}
+	 * @return the queued upload
+	 */
+	public Item enqueue(File report, boolean move, UploadTarget target, Callback callback) throws IOException {
+		return enqueue(Collections.singletonList(report), move, target, callback);
+	}
+
+	/**
+	 * Queues the given report files for upload, as a single analysis.
+	 *
+	 * @see #enqueue(File, boolean, UploadTarget, Callback)
+	 * @see UploadActionListener#uploadFiles
+	 */
+	public Item enqueue(List<File> reports, boolean move, UploadTarget target, Callback callback) throws IOException {
+		createSpoolDir();
+		long id = nextId.getAndIncrement();
+		List<File> reportFiles = new ArrayList<>(reports.size());
+		long created = System.currentTimeMillis();
+		try {
+			for (int i = 0; i < reports.size(); i++) {
+				Path reportFile = getReportFile(id, i);
+				if (move) {
+					Files.move(reports.get(i).toPath(), reportFile, StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.copy(reports.get(i).toPath(), reportFile, StandardCopyOption.REPLACE_EXISTING);
+				}
+				setOwnerOnly(reportFile, OWNER_ONLY_FILE);
+				reportFiles.add(reportFile.toFile());
+			}
+			if (isSavedApiKey(target)) {
+				writeMetadata(id, target, created, reportFiles.size());
+			} else {
+				// Without metadata the reports are deleted on restart, see deleteOrphanReports()
+				LOGGER.debug("Report {} is not uploaded with the saved API key, it is not kept across restarts", id);
+			}
+		} catch (IOException e) {
+			for (File reportFile : reportFiles) {
+				Files.deleteIfExists(reportFile.toPath());
+			}
+			throw e;
+		}
+		return submitFiles(new Item(id, target, reportFiles, created, callback));
+	}
+
+	/**
+	 * Queues an upload whose report is generated, with the given options, while it is sent, see
+	 * {@link UploadActionListener#uploadReport}. It is not kept across restarts.
+	 */
+	public Item enqueue(ReportOptions options, UploadTarget target, Callback callback) {
+		Item item = new Item(nextId.getAndIncrement(), target, Collections.emptyList(), System.currentTimeMillis(), callback);
+		ReportLastScanHttp saver = new ReportLastScanHttp(options.withProgress(item.progress));
+		return submit(item, (client, serverUrl, apiKey, project) ->
+				UploadActionListener.uploadReport(client, saver, serverUrl, apiKey, project));
+	}
+
+	/**
+	 * Queues the reports left in the spool directory by a previous session. The reports queued
+	 * since this queue was created are left alone, they are already queued.
+	 * <p>
+	 * The uploads are resumed with the API key saved in the options, those to another server are
+	 * discarded. They are resumed without their callback: the alerts of a delta or seen-alert
+	 * report uploaded once resumed are not recorded as uploaded, and are included again in the
+	 * next such report.
+	 */
+	public void resume() {
+		if (!Files.isDirectory(spoolDir)) {
+			return;
+		}
+		List<Long> ids = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				long id = getItemId(file);
+				if (id == -1) {
+					LOGGER.warn("Ignoring unknown file in the upload spool directory: {}", file);
+				} else if (id >= firstId) {
+					// Queued by this session
+				} else if (name.endsWith(METADATA_EXTENSION)) {
+					ids.add(id);
+				} else if (name.endsWith(TEMP_EXTENSION)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("Failed to read the upload spool directory: {}", e.getMessage(), e);
+			return;
+		}
+
+		ids.sort(null);
+		for (long id : ids) {
+			resume(id);
+		}
+		deleteOrphanReports();
+	}
+
+	/**
+	 * Gets the highest id of the files in the spool directory, 0 if there are none.
+	 */
+	private long getLastSpooledId() {
+		if (!Files.isDirectory(spoolDir)) {
+			return 0;
+		}
+		long lastId = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir)) {
+			for (Path file : files) {
+				lastId = Math.max(lastId, getItemId(file));
+			}
+		} catch (IOException e) {
+			LOGGER.error("Failed to read the upload spool directory: {}", e.getMessage(), e);
+		}
+		return lastId;
+	}
+
+	private void resume(long id) {
+		Path metadataFile = spoolDir.resolve(id + METADATA_EXTENSION);
+		try {
+			Properties metadata = new Properties();
+			try (InputStream is = Files.newInputStream(metadataFile)) {
+				metadata.load(is);
+			}
+			int reportCount = Integer.parseInt(metadata.getProperty(KEY_REPORTS, "1"));
+			List<File> reportFiles = new ArrayList<>(reportCount);
+			for (int i = 0; i < reportCount; i++) {
+				Path reportFile = getReportFile(id, i);
+				if (!Files.exists(reportFile)) {
+					LOGGER.warn("Spooled report {} is incomplete, discarding it", id);
+					deleteFiles(id, reportFiles);
+					return;
+				}
+				reportFiles.add(reportFile.toFile());
+			}
+			String serverUrl = metadata.getProperty(KEY_SERVER_URL, "");
+			SrmProperties properties = SrmProperties.getInstance();
+			if (!Boolean.parseBoolean(metadata.getProperty(KEY_SAVED_API_KEY))
+					|| !isSavedServer(serverUrl, properties) || isEmpty(properties.getApiKey())) {
+				LOGGER.warn("Spooled report {} is not uploaded to the server saved in the options, no API key to upload it with, discarding it", id);
+				deleteFiles(id, reportFiles);
+				return;
+			}
+			UploadTarget target = new UploadTarget(
+					serverUrl,
+					properties.getApiKey(),
+					metadata.getProperty(KEY_PROJECT, ""),
+					metadata.getProperty(KEY_FINGERPRINT),
+					Boolean.parseBoolean(metadata.getProperty(KEY_ACCEPT_PERMANENTLY)));
+			long created = Long.parseLong(metadata.getProperty(KEY_CREATED, "0"));
+			submitFiles(new Item(id, target, reportFiles, created, null));
+			LOGGER.info("Resumed the upload of report {} to project {}", id, target.getProject());
+		} catch (IOException | NumberFormatException e) {
+			LOGGER.error("Failed to resume the upload of report {}: {}", id, e.getMessage(), e);
+		}
+	}
+
+	private void deleteOrphanReports() {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir, "*" + REPORT_EXTENSION)) {
+			for (Path file : files) {
+				long id = getItemId(file);
+				Path metadataFile = spoolDir.resolve(id + METADATA_EXTENSION);
+				if (id != -1 && id < firstId && !Files.exists(metadataFile)) {
+					// Left by an enqueue that did not complete
+					Files.deleteIfExists(file);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Failed to clean the upload spool directory: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the uploads queued or in progress, in the order they were queued.
+	 */
+	public List<Item> getItems() {
+		synchronized (items) {
+			return new ArrayList<>(items.values());
+		}
+	}
+
+	/**
+	 * Gets the number of uploads queued or in progress.
+	 */
+	public int getDepth() {
+		synchronized (items) {
+			return items.size();
+		}
+	}
+
+	/**
+	 * Cancels the given upload, if it has not started yet. Its callback is called with the
+	 * cancellation error.
+	 *
+	 * @return {@code true} if the upload was cancelled, {@code false} if there is no such upload
+	 *     or if it is already in progress
+	 */
+	public boolean cancel(long id) {
+		Item item;
+		synchronized (items) {
+			item = items.get(id);
+		}
+		if (item == null) {
+			return false;
+		}
+		synchronized (item) {
+			if (item.status != Status.QUEUED) {
+				return false;
+			}
+			item.cancelled = true;
+			// Not yet set if the upload is being submitted, it then sees it was cancelled
+			if (item.future != null) {
+				item.future.cancel(false);
+			}
+		}
+		remove(item);
+		LOGGER.info("Cancelled the upload of report {}", id);
+		if (item.callback != null) {
+			item.callback.uploaded(item, Constant.messages.getString("srm.error.upload.cancelled"));
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the workers. The reports not yet uploaded stay in the spool directory and are
+	 * uploaded once resumed.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Gets the id of the upload of the given spool file, e.g. 7 for {@code 7-2.xml} or
+	 * {@code 7.properties.tmp}, or -1 if not a spool file.
+	 */
+	private static long getItemId(Path file) {
+		String name = file.getFileName().toString();
+		int end = 0;
+		while (end < name.length() && Character.isDigit(name.charAt(end))) {
+			end++;
+		}
+		if (end == 0 || end == name.length() || (name.charAt(end) != '-' && name.charAt(end) != '.')) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(0, end));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Gets the spool file of the given report of an upload, the first one is named after the
+	 * upload and the others get their position appended, e.g. {@code 7.xml}, {@code 7-2.xml}.
+	 */
+	private Path getReportFile(long id, int index) {
+		return spoolDir.resolve(index == 0 ? id + REPORT_EXTENSION : id + "-" + (index + 1) + REPORT_EXTENSION);
+	}
+
+	private Item submitFiles(Item item) {
+		return submit(item, (client, serverUrl, apiKey, project) ->
+				UploadActionListener.uploadFiles(client, item.reports, serverUrl, apiKey, project, item.progress));
+	}
+
+	private Item submit(Item item, UploadActionListener.ReportSender sender) {
+		synchronized (items) {
+			items.put(item.id, item);
+		}
+		// Published under the lock of the item, the one cancel() takes
+		synchronized (item) {
+			item.future = executor.submit(() -> upload(item, sender));
+		}
+		return item;
+	}
+
+	private void upload(Item item, UploadActionListener.ReportSender sender) {
+		synchronized (item) {
+			if (item.cancelled) {
+				return;
+			}
+			item.status = Status.UPLOADING;
+		}
+
+		String err;
+		try {
+			err = item.target.send(extension, sender);
+		} catch (UploadDeferredException e) {
+			defer(item, sender, e);
+			return;
+		} catch (MalformedURLException e) {
+			err = Constant.messages.getString("srm.error.client.invalid");
+			LOGGER.error("Invalid server URL for report {}: ", item.id, e);
+		} catch (GeneralSecurityException e) {
+			err = Constant.messages.getString("srm.error.client.failed");
+			LOGGER.error("Failed to create the HTTP client for report {}: ", item.id, e);
+		} catch (IOException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				// Stopped with ZAP, the report stays spooled
+				LOGGER.info("Upload of report {} interrupted, it will be resumed", item.id);
+				return;
+			}
+			if (item.progress.isCancelled()) {
+				LOGGER.info("Cancelled the upload of report {} in progress", item.id);
+				remove(item);
+				if (item.callback != null) {
+					item.callback.uploaded(item, Constant.messages.getString("srm.error.upload.cancelled"));
+				}
+				return;
+			}
+			err = Constant.messages.getString("srm.error.unexpected");
+			LOGGER.error("Unexpected error while uploading report {}: ", item.id, e);
+		}
+
+		if (err != null) {
+			LOGGER.error("Report {} was not uploaded: {}", item.id, err);
+		} else if (item.progress.getAnalysisJobId() != null) {
+			item.analysisJob = extension.getAnalysisJobPoller().track(item.target, item.progress.getAnalysisJobId());
+		}
+		remove(item);
+		if (item.callback != null) {
+			item.callback.uploaded(item, err);
+		}
+	}
+
+	/**
+	 * Queues again an upload that could not be sent because the server is failing, keeping its
+	 * reports spooled.
+	 */
+	private void defer(Item item, UploadActionListener.ReportSender sender, UploadDeferredException e) {
+		LOGGER.warn("Report {} was not uploaded, trying again in {} ms: {}", item.id, e.getDelay(), e.getMessage());
+		synchronized (item) {
+			item.status = Status.QUEUED;
+			item.nextAttempt = System.currentTimeMillis() + e.getDelay();
+			try {
+				item.future = executor.schedule(() -> upload(item, sender), e.getDelay(), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException ex) {
+				// Shutting down, the report stays spooled
+			}
+		}
+	}
+
+	private void remove(Item item) {
+		synchronized (items) {
+			items.remove(item.id);
+		}
+		item.status = Status.FINISHED;
+		if (!item.reports.isEmpty()) {
+			deleteFiles(item.id, item.reports);
+		}
+	}
+
+	private void deleteFiles(long id, List<File> reports) {
+		try {
+			for (File report : reports) {
+				Files.deleteIfExists(report.toPath());
+			}
+			Files.deleteIfExists(spoolDir.resolve(id + METADATA_EXTENSION));
+		} catch (IOException e) {
+			LOGGER.warn("Failed to delete spooled report {}: {}", id, e.getMessage());
+		}
+	}
+
+	/**
+	 * Tells whether or not the given target uploads with the API key saved in the options, to its
+	 * server, the only uploads kept across restarts.
+	 */
+	private static boolean isSavedApiKey(UploadTarget target) {
+		SrmProperties properties = SrmProperties.getInstance();
+		return isSavedServer(target.getServerUrl(), properties)
+				&& !isEmpty(target.getApiKey())
+				&& target.getApiKey().equals(properties.getApiKey());
+	}
+
+	private static boolean isSavedServer(String serverUrl, SrmProperties properties) {
+		// Both without the trailing slash
+		return !serverUrl.isEmpty() && serverUrl.equals(properties.getServerUrl());
+	}
+
+	private static boolean isEmpty(String value) {
+		return value == null || value.isEmpty();
+	}
+
+	private void createSpoolDir() throws IOException {
+		Files.createDirectories(spoolDir);
+		setOwnerOnly(spoolDir, OWNER_ONLY_DIR);
+	}
+
+	/**
+	 * Makes the given spool file readable and writable only by its owner, the reports hold the
+	 * requests and responses of the alerts. Nothing is done if the file system does not support
+	 * POSIX permissions.
+	 */
+	private static void setOwnerOnly(Path file, Set<PosixFilePermission> permissions) throws IOException {
+		if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.setPosixFilePermissions(file, permissions);
+		}
+	}
+
+	/**
+	 * Writes where the given upload is sent to, the API key is not written, it is the one saved
+	 * in the options, see {@link #isSavedApiKey(UploadTarget)}.
+	 */
+	private void writeMetadata(long id, UploadTarget target, long created, int reportCount) throws IOException {
+		Properties metadata = new Properties();
+		metadata.setProperty(KEY_SERVER_URL, target.getServerUrl());
+		metadata.setProperty(KEY_SAVED_API_KEY, Boolean.TRUE.toString());
+		metadata.setProperty(KEY_PROJECT, target.getProject());
+		if (target.getFingerprint() != null) {
+			metadata.setProperty(KEY_FINGERPRINT, target.getFingerprint());
+		}
+		metadata.setProperty(KEY_ACCEPT_PERMANENTLY, Boolean.toString(target.isAcceptPermanently()));
+		metadata.setProperty(KEY_CREATED, Long.toString(created));
+		metadata.setProperty(KEY_REPORTS, Integer.toString(reportCount));
+
+		// Written aside and moved, a metadata file is always complete
+		Path tempFile = spoolDir.resolve(id + METADATA_EXTENSION + TEMP_EXTENSION);
+		try (OutputStream os = Files.newOutputStream(tempFile)) {
+			setOwnerOnly(tempFile, OWNER_ONLY_FILE);
+			metadata.store(os, null);
+		}
+		Files.move(tempFile, spoolDir.resolve(id + METADATA_EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Called once an upload is done: uploaded, failed or cancelled, whether queued or in
+	 * progress.
+	 */
+	@FunctionalInterface
+	public interface Callback {
+		/**
+		 * @param item the upload
+		 * @param error the error message, {@code null} if uploaded
+		 */
+		void uploaded(Item item, String error);
+	}
+
+	/**
+	 * A queued upload.
+	 */
+	public static class Item {
+		private final long id;
+		private final UploadTarget target;
+		private final List<File> reports;
+		private final long created;
+		private final Callback callback;
+		private final ReportProgress progress = new ReportProgress();
+		private volatile AnalysisJobPoller.AnalysisJob analysisJob;
+		private volatile Status status = Status.QUEUED;
+		// Guarded by the item
+		private boolean cancelled;
+		private Future<?> future;
+		private volatile long nextAttempt;
+
+		private Item(long id, UploadTarget target, List<File> reports, long created, Callback callback) {
+			this.id = id;
+			this.target = target;
+			this.reports = reports;
+			this.created = created;
+			this.callback = callback;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public UploadTarget getTarget() {
+			return target;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Gets the time the upload is tried again, after it was deferred because the server is
+		 * failing, or 0 if it was not deferred.
+		 */
+		public long getNextAttempt() {
+			return nextAttempt;
+		}
+
+		/**
+		 * Gets the progress of the upload, cancelling it stops the upload in progress.
+		 */
+		public ReportProgress getProgress() {
+			return progress;
+		}
+
+		/**
+		 * Gets the analysis job started by the upload, {@code null} if not uploaded or if the
+		 * server did not return one.
+		 */
+		public AnalysisJobPoller.AnalysisJob getAnalysisJob() {
+			return analysisJob;
+		}
+
+		/**
+		 * Gets the size of the spooled reports, or -1 if the report is generated while uploaded.
+		 */
+		public long getSize() {
+			if (reports.isEmpty()) {
+				return -1;
+			}
+			long size = 0;
+			for (File report : reports) {
+				size += report.length();
+			}
+			return size;
+		}
+
+		/**
+		 * Gets the number of report files, 0 if the report is generated while uploaded.
+		 */
+		public int getReportCount() {
+			return reports.size();
+		}
+	}
+}
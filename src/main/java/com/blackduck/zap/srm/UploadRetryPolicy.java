@@ -0,0 +1,141 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How the uploads are retried after a transient failure: an I/O error before the request was
+ * sent (e.g. connection refused or timed out), a 5xx response or a 429 response. An I/O error
+ * once the request was sent, e.g. while waiting for the response, is not retried, the server
+ * might have received the report.
+ * <p>
+ * The delay before each retry doubles, starting with the initial delay and bound by the maximum
+ * delay, with full jitter so that the uploads failed at the same time are not retried at the same
+ * time. A {@code Retry-After} sent by the server is honoured, the upload is not retried if the
+ * server asks to wait longer than the maximum delay.
+ */
+public class UploadRetryPolicy {
+
+	/**
+	 * Does not retry, the uploads are attempted once.
+	 */
+	public static final UploadRetryPolicy NONE = new UploadRetryPolicy(0, 0, 0);
+
+	private final int maxRetries;
+	private final long initialDelay;
+	private final long maxDelay;
+
+	/**
+	 * @param maxRetries the maximum number of retries of an upload
+	 * @param initialDelay the delay before the first retry, in milliseconds
+	 * @param maxDelay the maximum delay before a retry, in milliseconds
+	 */
+	public UploadRetryPolicy(int maxRetries, long initialDelay, long maxDelay) {
+		this.maxRetries = Math.max(0, maxRetries);
+		this.initialDelay = Math.max(0, initialDelay);
+		this.maxDelay = Math.max(this.initialDelay, maxDelay);
+	}
+
+	/**
+	 * Gets the policy configured in the {@link SrmProperties}.
+	 */
+	public static UploadRetryPolicy fromProperties() {
+		SrmProperties properties = SrmProperties.getInstance();
+		return new UploadRetryPolicy(
+				properties.getUploadRetries(),
+				properties.getUploadRetryDelay(),
+				properties.getUploadRetryMaxDelay());
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Tells whether or not the response status is a transient failure, worth retrying.
+	 */
+	public static boolean isTransient(int statusCode) {
+		return statusCode == 429 || (statusCode >= 500 && statusCode <= 599);
+	}
+
+	/**
+	 * Gets the delay before the given retry.
+	 *
+	 * @param retry the retry, starting at 1
+	 * @param response the response of the failed attempt, to obtain the {@code Retry-After},
+	 *     {@code null} if the attempt failed with an I/O error
+	 * @return the delay in milliseconds, or -1 if the upload should not be retried
+	 */
+	public long getDelay(int retry, HttpResponse response) {
+		if (retry > maxRetries) {
+			return -1;
+		}
+		long retryAfter = getRetryAfter(response);
+		if (retryAfter > maxDelay) {
+			return -1;
+		}
+		// 2^(retry-1) times the initial delay, without overflowing
+		long backoff = retry > 31 ? maxDelay : Math.min(maxDelay, initialDelay << (retry - 1));
+		long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+		return Math.max(delay, retryAfter);
+	}
+
+	/**
+	 * Waits the given delay.
+	 *
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	static void sleep(long delay) throws InterruptedIOException {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry the upload");
+		}
+	}
+
+	/**
+	 * Gets the {@code Retry-After} of the response, either a number of seconds or a date.
+	 *
+	 * @return the delay in milliseconds, or 0 if there is none or it is invalid
+	 */
+	static long getRetryAfter(HttpResponse response) {
+		if (response == null) {
+			return 0;
+		}
+		Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+		if (header == null || header.getValue() == null) {
+			return 0;
+		}
+		String value = header.getValue().trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+			Date date = DateUtils.parseDate(value);
+			return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : 0;
+		}
+	}
+}
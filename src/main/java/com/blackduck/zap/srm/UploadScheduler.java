@@ -0,0 +1,475 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates and uploads a report to a project on a schedule, either every so many milliseconds
+ * or on a cron-like schedule, see {@link Schedule}.
+ * <p>
+ * The reports are generated and uploaded as the upload dialog does, with the options of the
+ * {@link SrmProperties}. A run lasts until its upload is done, a tick of the schedule while a run
+ * is in progress does not start another: the ticks missed are coalesced into one run, started
+ * once the current one is done. A run still in progress after the
+ * {@link SrmProperties#getUploadScheduleTimeout() timeout} is given up by the next tick, which
+ * starts another, so that a run that never finishes does not stop the schedule.
+ */
+public class UploadScheduler {
+
+	private static final Logger LOGGER = LogManager.getLogger(UploadScheduler.class);
+
+	public static final String RESULT_UPLOADED = "uploaded";
+	public static final String RESULT_UNCHANGED = "unchanged";
+	public static final String RESULT_EMPTY = "empty";
+	public static final String RESULT_FAILED = "failed";
+
+	private final SrmExtension extension;
+	private final Schedule schedule;
+	private final String project;
+	private final long runTimeout;
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	// Guarded by this
+	private boolean running;
+	// The id of the current run, the results of the runs given up are ignored
+	private int runId;
+	private boolean pending;
+	private long nextRun;
+	private long lastRun;
+	private String lastResult;
+	private String lastError;
+	private int runs;
+	private int coalesced;
+
+	/**
+	 * @param project the project the reports are uploaded to, {@code null} for the one last
+	 *     selected in the upload dialog
+	 */
+	public UploadScheduler(SrmExtension extension, Schedule schedule, String project) {
+		this(extension, schedule, project, SrmProperties.DEFAULT_UPLOAD_SCHEDULE_TIMEOUT);
+	}
+
+	/**
+	 * @param project the project the reports are uploaded to, {@code null} for the one last
+	 *     selected in the upload dialog
+	 * @param runTimeout the time, in milliseconds, after which a run still in progress is given
+	 *     up, 0 for no limit
+	 */
+	public UploadScheduler(SrmExtension extension, Schedule schedule, String project, long runTimeout) {
+		this.extension = extension;
+		this.schedule = schedule;
+		this.project = project;
+		this.runTimeout = runTimeout;
+		scheduler = new ScheduledThreadPoolExecutor(1, SrmExecutor.newThreadFactory("ZAP-SRM-Scheduler-"));
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Gets the scheduler configured in the {@link SrmProperties}, or {@code null} if there is no
+	 * schedule or it is not valid.
+	 */
+	public static UploadScheduler fromProperties(SrmExtension extension) {
+		SrmProperties properties = SrmProperties.getInstance();
+		String spec = properties.getUploadSchedule().trim();
+		if (spec.isEmpty()) {
+			return null;
+		}
+		Schedule schedule;
+		try {
+			schedule = Schedule.parse(spec);
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Invalid SRM upload schedule {}: {}", spec, e.getMessage());
+			return null;
+		}
+		String project = properties.getUploadScheduleProject().trim();
+		return new UploadScheduler(extension, schedule, project.isEmpty() ? null : project, properties.getUploadScheduleTimeout());
+	}
+
+	/**
+	 * Starts running the uploads.
+	 */
+	public void start() {
+		scheduleNext(System.currentTimeMillis());
+		LOGGER.info("Scheduled uploads started, {}", schedule);
+	}
+
+	/**
+	 * Stops running the uploads. An upload already queued is still sent by the
+	 * {@link UploadQueue}.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	public Schedule getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * Gets the project the reports are uploaded to, as last selected in the upload dialog if not
+	 * set.
+	 */
+	public String getProject() {
+		return project != null ? project : SrmProperties.getInstance().getSelectedId();
+	}
+
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Gets the time of the next tick, or 0 if there is none.
+	 */
+	public synchronized long getNextRun() {
+		return nextRun;
+	}
+
+	/**
+	 * Gets the time the last run started, or 0 if none did.
+	 */
+	public synchronized long getLastRun() {
+		return lastRun;
+	}
+
+	/**
+	 * Gets the result of the last run finished, one of the {@code RESULT_*} constants, or
+	 * {@code null} if none finished.
+	 */
+	public synchronized String getLastResult() {
+		return lastResult;
+	}
+
+	/**
+	 * Gets the error of the last run finished, or {@code null} if it did not fail.
+	 */
+	public synchronized String getLastError() {
+		return lastError;
+	}
+
+	public synchronized int getRuns() {
+		return runs;
+	}
+
+	/**
+	 * Gets the number of ticks that happened while a run was in progress.
+	 */
+	public synchronized int getCoalesced() {
+		return coalesced;
+	}
+
+	private void scheduleNext(long after) {
+		long next = schedule.next(after);
+		synchronized (this) {
+			nextRun = Math.max(next, 0);
+		}
+		if (next < 0) {
+			LOGGER.warn("The SRM upload schedule {} has no next run", schedule);
+			return;
+		}
+		try {
+			scheduler.schedule(this::tick, Math.max(next - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+		}
+	}
+
+	private void tick() {
+		scheduleNext(System.currentTimeMillis());
+		int id;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (running) {
+				if (runTimeout <= 0 || now - lastRun < runTimeout) {
+					LOGGER.debug("Scheduled upload still in progress, coalescing the tick");
+					pending = true;
+					coalesced++;
+					return;
+				}
+				LOGGER.warn("Scheduled upload still in progress after {} ms, giving it up", now - lastRun);
+				lastResult = RESULT_FAILED;
+				lastError = "Timed out after " + (now - lastRun) + " ms";
+				runs++;
+			}
+			running = true;
+			pending = false;
+			lastRun = now;
+			id = ++runId;
+		}
+		startRun(id);
+	}
+
+	private void startRun(int id) {
+		try {
+			extension.getExecutor().execute(() -> run(id));
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+		}
+	}
+
+	private void run(int id) {
+		try {
+			UploadTarget target = getUploadTarget();
+			if (target == null) {
+				finished(id, RESULT_FAILED, "The server URL, API key and project must be set");
+				return;
+			}
+
+			ReportOptions options = ReportOptions.fromProperties();
+			if (SrmProperties.getInstance().isDeltaUploads()) {
+				AlertDelta delta = AlertDelta.compute(
+						extension.getUploadWatermarks().get(target.getServerUrl(), target.getProject()),
+						new ReportLastScanHttp(options),
+						false);
+				if (delta.isEmpty()) {
+					finished(id, RESULT_UNCHANGED, null);
+					return;
+				}
+				options = options.withDelta(delta);
+			}
+			ReportOptions uploaded = options.forUpload();
+			// Called with an error if the upload is cancelled, queued or in progress
+			UploadQueue.Callback callback = (item, error) -> {
+				if (error == null) {
+					uploaded.commit();
+				}
+				finished(id, error == null ? RESULT_UPLOADED : RESULT_FAILED, error);
+			};
+
+			if (UploadActionListener.enqueueReport(extension, target, uploaded, callback) == null) {
+				finished(id, RESULT_EMPTY, null);
+			}
+		} catch (InvalidReportScopeException e) {
+			finished(id, RESULT_FAILED, e.getMessage());
+		} catch (Exception e) {
+			LOGGER.error("Unexpected error while running the scheduled upload: ", e);
+			finished(id, RESULT_FAILED, e.getMessage());
+		}
+	}
+
+	/**
+	 * Called once a run is done, starting straight away the run of the ticks coalesced meanwhile.
+	 * The result of a run given up is ignored.
+	 */
+	private void finished(int id, String result, String error) {
+		int nextId;
+		synchronized (this) {
+			if (id != runId) {
+				LOGGER.debug("Scheduled upload given up finished: {}", result);
+				return;
+			}
+			if (error != null) {
+				LOGGER.warn("Scheduled upload failed: {}", error);
+			}
+			lastResult = result;
+			lastError = error;
+			runs++;
+			running = pending;
+			pending = false;
+			if (!running) {
+				return;
+			}
+			lastRun = System.currentTimeMillis();
+			nextId = ++runId;
+		}
+		startRun(nextId);
+	}
+
+	private UploadTarget getUploadTarget() {
+		SrmProperties properties = SrmProperties.getInstance();
+		String serverUrl = properties.getServerUrl();
+		String apiKey = properties.getApiKey();
+		String projectId = getProject();
+		if (serverUrl.isEmpty() || apiKey.isEmpty() || projectId.isEmpty()) {
+			return null;
+		}
+		return new UploadTarget(serverUrl, apiKey, projectId, null, false);
+	}
+
+	/**
+	 * When the uploads are run: either an interval in milliseconds, e.g. {@code 3600000}, or
+	 * five cron fields, minute, hour, day of month, month and day of week (0 or 7 for Sunday),
+	 * e.g. {@code 30 2 * * 1-5}. Each field is {@code *}, a value, a range {@code a-b}, or a
+	 * list of them separated by commas, each optionally followed by a step {@code /n}. As with
+	 * cron, if both the day of month and the day of week are restricted either matches. The
+	 * cron fields are in the local time zone.
+	 */
+	public static class Schedule {
+
+		private final String spec;
+		private final long interval;
+		private final BitSet minutes;
+		private final BitSet hours;
+		private final BitSet days;
+		private final BitSet months;
+		private final BitSet weekdays;
+		private final boolean anyDay;
+		private final boolean anyWeekday;
+
+		private Schedule(String spec, long interval, String[] fields) {
+			this.spec = spec;
+			this.interval = interval;
+			if (fields == null) {
+				minutes = hours = days = months = weekdays = null;
+				anyDay = anyWeekday = true;
+				return;
+			}
+			minutes = parseField(fields[0], 0, 59);
+			hours = parseField(fields[1], 0, 23);
+			days = parseField(fields[2], 1, 31);
+			months = parseField(fields[3], 1, 12);
+			weekdays = parseField(fields[4], 0, 7);
+			if (weekdays.get(7)) {
+				weekdays.set(0);
+			}
+			anyDay = fields[2].startsWith("*");
+			anyWeekday = fields[4].startsWith("*");
+		}
+
+		/**
+		 * Parses a schedule.
+		 *
+		 * @throws IllegalArgumentException if the schedule is not valid
+		 */
+		public static Schedule parse(String spec) {
+			String[] fields = spec.trim().split("\\s+");
+			if (fields.length == 1) {
+				long interval;
+				try {
+					interval = Long.parseLong(fields[0]);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Not an interval: " + fields[0]);
+				}
+				if (interval < 1000) {
+					throw new IllegalArgumentException("The interval must be at least 1000 milliseconds");
+				}
+				return new Schedule(spec.trim(), interval, null);
+			}
+			if (fields.length != 5) {
+				throw new IllegalArgumentException("Expected an interval or 5 cron fields");
+			}
+			return new Schedule(spec.trim(), 0, fields);
+		}
+
+		/**
+		 * Gets the time of the first run after the given time, or -1 if there is none, e.g.
+		 * on the 31st of February.
+		 */
+		public long next(long after) {
+			if (interval > 0) {
+				return after + interval;
+			}
+			ZonedDateTime time = Instant.ofEpochMilli(after).atZone(ZoneId.systemDefault())
+					.truncatedTo(ChronoUnit.MINUTES)
+					.plusMinutes(1);
+			ZonedDateTime limit = time.plusYears(5);
+			while (time.isBefore(limit)) {
+				if (!months.get(time.getMonthValue())) {
+					time = time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1);
+				} else if (!matchesDay(time)) {
+					time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+				} else if (!hours.get(time.getHour())) {
+					time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+				} else if (!minutes.get(time.getMinute())) {
+					time = time.plusMinutes(1);
+				} else {
+					return time.toInstant().toEpochMilli();
+				}
+			}
+			return -1;
+		}
+
+		private boolean matchesDay(ZonedDateTime time) {
+			boolean day = days.get(time.getDayOfMonth());
+			boolean weekday = weekdays.get(time.getDayOfWeek().getValue() % 7);
+			if (anyDay) {
+				return weekday;
+			}
+			if (anyWeekday) {
+				return day;
+			}
+			return day || weekday;
+		}
+
+		private static BitSet parseField(String field, int min, int max) {
+			BitSet values = new BitSet(max + 1);
+			for (String part : field.split(",")) {
+				int step = 1;
+				int slash = part.indexOf('/');
+				if (slash != -1) {
+					step = parseValue(part.substring(slash + 1), 1, max);
+					part = part.substring(0, slash);
+				}
+				int from;
+				int to;
+				if ("*".equals(part)) {
+					from = min;
+					to = max;
+				} else {
+					int dash = part.indexOf('-');
+					if (dash != -1) {
+						from = parseValue(part.substring(0, dash), min, max);
+						to = parseValue(part.substring(dash + 1), from, max);
+					} else {
+						from = parseValue(part, min, max);
+						to = slash != -1 ? max : from;
+					}
+				}
+				for (int i = from; i <= to; i += step) {
+					values.set(i);
+				}
+			}
+			return values;
+		}
+
+		private static int parseValue(String value, int min, int max) {
+			int parsed;
+			try {
+				parsed = Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a number: " + value);
+			}
+			if (parsed < min || parsed > max) {
+				throw new IllegalArgumentException(value + " is not between " + min + " and " + max);
+			}
+			return parsed;
+		}
+
+		/**
+		 * Gets the schedule as configured.
+		 */
+		public String getSpec() {
+			return spec;
+		}
+
+		@Override
+		public String toString() {
+			return interval > 0 ? "every " + interval + " ms" : spec;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * The Software Risk Manager server and project a report is uploaded to.
+ */
+public class UploadTarget {
+
+	private final String serverUrl;
+	private final String apiKey;
+	private final String project;
+	private final String fingerprint;
+	private final boolean acceptPermanently;
+
+	/**
+	 * @param fingerprint the SHA1 fingerprint of an invalid certificate to accept, {@code null}
+	 *     to ask the user
+	 */
+	public UploadTarget(String serverUrl, String apiKey, String project, String fingerprint, boolean acceptPermanently) {
+		this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+		this.apiKey = apiKey;
+		this.project = project;
+		this.fingerprint = fingerprint;
+		this.acceptPermanently = acceptPermanently;
+	}
+
+	public String getServerUrl() {
+		return serverUrl;
+	}
+
+	public String getApiKey() {
+		return apiKey;
+	}
+
+	public String getProject() {
+		return project;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public boolean isAcceptPermanently() {
+		return acceptPermanently;
+	}
+
+	CloseableHttpClient getHttpClient(SrmExtension extension) throws IOException, GeneralSecurityException {
+		return extension.getHttpClient(serverUrl, fingerprint, acceptPermanently);
+	}
+
+	/**
+	 * Sends a report to this target with the given sender.
+	 */
+	String send(SrmExtension extension, UploadActionListener.ReportSender sender) throws IOException, GeneralSecurityException {
+		return sender.send(getHttpClient(extension), serverUrl, apiKey, project);
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.parosproxy.paros.Constant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The fingerprints of the alerts already uploaded to each Software Risk Manager server and
+ * project, the watermark the delta reports are generated from.
+ * <p>
+ * Each watermark is kept sorted in memory, looked up with a binary search, and persisted in its
+ * own file in the {@code srm-watermarks} directory of the ZAP home directory, written aside and
+ * moved so that it is always complete.
+ */
+public class UploadWatermarks {
+
+	private static final Logger LOGGER = LogManager.getLogger(UploadWatermarks.class);
+
+	static final String WATERMARK_DIR = "srm-watermarks";
+	private static final String WATERMARK_EXTENSION = ".wm";
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final int MAGIC = 0x53524d57;
+	private static final long[] NO_FINGERPRINTS = new long[0];
+
+	private final Path directory;
+	private final Map<String, Watermark> watermarks = new HashMap<>();
+
+	public UploadWatermarks(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Creates the watermarks kept in the ZAP home directory.
+	 */
+	public static UploadWatermarks create() {
+		return new UploadWatermarks(new File(Constant.getZapHome(), WATERMARK_DIR).toPath());
+	}
+
+	/**
+	 * Gets the watermark of the given server and project, loading it if needed.
+	 */
+	public synchronized Watermark get(String serverUrl, String project) {
+		String key = serverUrl + '\n' + project;
+		return watermarks.computeIfAbsent(key, k -> new Watermark(serverUrl, project,
+				directory.resolve(String.format("%016x", AlertFingerprint.of(serverUrl, project)) + WATERMARK_EXTENSION)));
+	}
+
+	/**
+	 * The fingerprints of the alerts uploaded to a server and project.
+	 */
+	public static class Watermark {
+		private final String serverUrl;
+		private final String project;
+		private final Path file;
+		private long[] fingerprints;
+
+		private Watermark(String serverUrl, String project, Path file) {
+			this.serverUrl = serverUrl;
+			this.project = project;
+			this.file = file;
+		}
+
+		/**
+		 * Tells whether or not an alert with the given fingerprint was uploaded.
+		 */
+		public synchronized boolean contains(long fingerprint) {
+			return Arrays.binarySearch(getFingerprints(), fingerprint) >= 0;
+		}
+
+		public synchronized int size() {
+			return getFingerprints().length;
+		}
+
+		/**
+		 * Records that the alerts with the given fingerprints were uploaded.
+		 *
+		 * @param uploaded the fingerprints, sorted and distinct
+		 */
+		public synchronized void add(long[] uploaded) throws IOException {
+			long[] current = getFingerprints();
+			long[] merged = new long[current.length + uploaded.length];
+			int i = 0;
+			int j = 0;
+			int count = 0;
+			while (i < current.length || j < uploaded.length) {
+				long next;
+				if (j == uploaded.length || (i < current.length && current[i] <= uploaded[j])) {
+					next = current[i++];
+				} else {
+					next = uploaded[j++];
+				}
+				if (count == 0 || merged[count - 1] != next) {
+					merged[count++] = next;
+				}
+			}
+			update(count == merged.length ? merged : Arrays.copyOf(merged, count));
+		}
+
+		/**
+		 * Replaces the fingerprints, after all the alerts were uploaded.
+		 *
+		 * @param uploaded the fingerprints, sorted and distinct
+		 */
+		public synchronized void replace(long[] uploaded) throws IOException {
+			update(uploaded.clone());
+		}
+
+		private void update(long[] updated) throws IOException {
+			write(updated);
+			fingerprints = updated;
+			LOGGER.debug("Watermark of project {} of {} updated, {} alerts", project, serverUrl, updated.length);
+		}
+
+		private long[] getFingerprints() {
+			if (fingerprints == null) {
+				fingerprints = read();
+			}
+			return fingerprints;
+		}
+
+		private long[] read() {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+				if (in.readInt() != MAGIC || !serverUrl.equals(in.readUTF()) || !project.equals(in.readUTF())) {
+					LOGGER.warn("Ignoring the watermark {}, not of project {} of {}", file, project, serverUrl);
+					return NO_FINGERPRINTS;
+				}
+				long[] read = new long[in.readInt()];
+				for (int i = 0; i < read.length; i++) {
+					read[i] = in.readLong();
+				}
+				return read;
+			} catch (NoSuchFileException e) {
+				return NO_FINGERPRINTS;
+			} catch (IOException e) {
+				LOGGER.warn("Failed to read the watermark {}, uploading all the alerts: {}", file, e.getMessage());
+				return NO_FINGERPRINTS;
+			}
+		}
+
+		private void write(long[] updated) throws IOException {
+			Files.createDirectories(file.getParent());
+			Path tempFile = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeUTF(serverUrl);
+				out.writeUTF(project);
+				out.writeInt(updated.length);
+				for (long fingerprint : updated) {
+					out.writeLong(fingerprint);
+				}
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+}
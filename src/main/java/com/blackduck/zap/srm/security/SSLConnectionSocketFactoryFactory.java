@@ -31,11 +31,14 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SSLConnectionSocketFactoryFactory {
 
-	private static final Map<String, SSLConnectionSocketFactory> dialogFactoriesByHost = new HashMap<>();
-	private static final Map<String, SSLConnectionSocketFactory> fingerprintFactoriesByHost = new HashMap<>();
+	// The HTTP clients of several servers are created from concurrent uploads
+	private static final Map<String, SSLConnectionSocketFactory> dialogFactoriesByHost = new ConcurrentHashMap<>();
+	// Keyed by host and expected fingerprint, a new fingerprint must not reuse the old one's factory
+	private static final Map<String, SSLConnectionSocketFactory> fingerprintFactoriesByKey = new ConcurrentHashMap<>();
 
 	/**
 	 * Returns a SSLConnectionSocketFactory for the given host. When a SSL connection is created
@@ -54,8 +57,9 @@ public class SSLConnectionSocketFactoryFactory {
 
 		SSLConnectionSocketFactory instance = dialogFactoriesByHost.get(host);
 		if (instance == null) {
-			initializeFactory(host, extension, null, false);
-			return dialogFactoriesByHost.get(host);
+			instance = initializeFactory(host, extension, null, false);
+			SSLConnectionSocketFactory existing = dialogFactoriesByHost.putIfAbsent(host, instance);
+			return existing != null ? existing : instance;
 		} else {
 			return instance;
 		}
@@ -77,10 +81,12 @@ public class SSLConnectionSocketFactoryFactory {
 	 * @throws GeneralSecurityException
 	 */
 	public static SSLConnectionSocketFactory getFactory(String host, SrmExtension extension, String fingerprint, boolean acceptPermanently) throws IOException, GeneralSecurityException {
-		SSLConnectionSocketFactory instance = fingerprintFactoriesByHost.get(host);
+		String key = host + '\n' + fingerprint + '\n' + acceptPermanently;
+		SSLConnectionSocketFactory instance = fingerprintFactoriesByKey.get(key);
 		if (instance == null) {
-			initializeFactory(host, extension, fingerprint, acceptPermanently);
-			return fingerprintFactoriesByHost.get(host);
+			instance = initializeFactory(host, extension, fingerprint, acceptPermanently);
+			SSLConnectionSocketFactory existing = fingerprintFactoriesByKey.putIfAbsent(key, instance);
+			return existing != null ? existing : instance;
 		} else {
 			return instance;
 		}
@@ -121,19 +127,17 @@ public class SSLConnectionSocketFactoryFactory {
 
 	/**
 	 * Creates a new SSLConnectionSocketFactory with the behavior described in
-	 * {@link #getFactory(String, SrmExtension)}. Instead of returning, this
-	 * method registers the factory instance to the <code>factoriesByHost<code>
-	 * map, as well as registering its <code>ExtraCertManager</code> to the
-	 * <code>certManagersByHost</code> map. The cert manager registration is
-	 * important in order to detect and purge trusted certificates on a per-host
-	 * basis.
+	 * {@link #getFactory(String, SrmExtension)}. The caller registers the
+	 * returned factory, keeping the one registered first if another thread
+	 * created one for the same host at the same time.
 	 *
 	 * @param host
 	 * @param extension
+	 * @return the new socket factory
 	 * @throws IOException
 	 * @throws GeneralSecurityException
 	 */
-	private static void initializeFactory(String host, SrmExtension extension, String fingerprint, boolean acceptPermanently) throws IOException, GeneralSecurityException {
+	private static SSLConnectionSocketFactory initializeFactory(String host, SrmExtension extension, String fingerprint, boolean acceptPermanently) throws IOException, GeneralSecurityException {
 		// set up the certificate management
 		File managedKeyStoreFile = getTrustStoreForHost(host);
 		ExtraCertManager certManager = new SingleExtraCertManager(managedKeyStoreFile, "u9lwIfUpaN");
@@ -170,14 +174,7 @@ public class SSLConnectionSocketFactoryFactory {
 		allowedHosts.add(host);
 		HostnameVerifier modifiedHostnameVerifier = new HostnameVerifierWithExceptions(defaultHostnameVerifier, allowedHosts);
 
-		SSLConnectionSocketFactory factory = new SSLConnectionSocketFactory(sslContext, modifiedHostnameVerifier);
-		// Register the `factory` and the `customTrustManager` under the given
-		// `host`
-		if (fingerprint == null) {
-			dialogFactoriesByHost.put(host, factory);
-		} else {
-			fingerprintFactoriesByHost.put(host, factory);
-		}
+		return new SSLConnectionSocketFactory(sslContext, modifiedHostnameVerifier);
 	}
 
 	private static X509TrustManager getDefaultTrustManager() throws NoSuchAlgorithmException, KeyStoreException {
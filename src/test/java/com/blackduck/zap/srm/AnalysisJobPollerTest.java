@@ -0,0 +1,110 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parosproxy.paros.model.SiteMap;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.blackduck.zap.srm.SrmTestUtils.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AnalysisJobPollerTest {
+
+	private Path dir;
+	private MockSrm srm;
+	private CloseableHttpClient client;
+	private SrmExecutor executor;
+	private AnalysisJobPoller poller;
+	private UploadQueue queue;
+	private UploadTarget target;
+
+	@BeforeEach
+	void setUp(@TempDir Path dir) throws Exception {
+		this.dir = dir;
+		SrmTestUtils.setUpZap(dir, mock(SiteMap.class));
+		srm = new MockSrm();
+		target = new UploadTarget(srm.getUrl(), "api-key", "7", null, false);
+
+		SrmExtension extension = mock(SrmExtension.class);
+		client = HttpClients.createDefault();
+		when(extension.getHttpClient(anyString(), any(), anyBoolean())).thenReturn(client);
+		executor = new SrmExecutor(1);
+		when(extension.getExecutor()).thenReturn(executor);
+		poller = new AnalysisJobPoller(extension, 100, 500);
+		when(extension.getAnalysisJobPoller()).thenReturn(poller);
+		queue = new UploadQueue(extension, dir.resolve("uploads"), 1);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		queue.shutdown();
+		poller.shutdown();
+		srm.close();
+		executor.shutdown();
+		client.close();
+	}
+
+	@Test
+	void shouldFollowTheAnalysisJobStartedByAnUpload() throws Exception {
+		// Given
+		srm.setUploadResponse(202, "{\"analysisId\": 12, \"jobId\": \"job-1\"}");
+		srm.setJobStatus("job-1", "running");
+		File report = Files.writeString(dir.resolve("report.xml"), "<OWASPZAPReport></OWASPZAPReport>").toFile();
+		// When
+		UploadQueue.Item item = queue.enqueue(report, true, target, null);
+		await(() -> item.getAnalysisJob() != null && item.getAnalysisJob().getStatus() == AnalysisJobPoller.Status.RUNNING, "analysis running");
+		srm.setJobStatus("job-1", "completed");
+		// Then
+		AnalysisJobPoller.AnalysisJob job = item.getAnalysisJob();
+		await(job::isFinished, "analysis finished");
+		assertEquals("job-1", job.getJobId());
+		assertEquals(AnalysisJobPoller.Status.COMPLETED, job.getStatus());
+		assertNotNull(poller.get("job-1"));
+	}
+
+	@Test
+	void shouldFollowTheOtherJobsWhileAStatusRequestIsNotAnswered() throws Exception {
+		// Given
+		srm.holdJobStatus("slow");
+		srm.setJobStatus("fast", "completed");
+		// When
+		AnalysisJobPoller.AnalysisJob slow = poller.track(target, "slow");
+		AnalysisJobPoller.AnalysisJob fast = poller.track(target, "fast");
+		// Then
+		await(fast::isFinished, "fast job finished");
+		assertEquals(AnalysisJobPoller.Status.COMPLETED, fast.getStatus());
+		// Aborted, polled again later
+		assertFalse(slow.isFinished());
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.SiteMap;
+import org.parosproxy.paros.model.SiteNode;
+import org.zaproxy.zap.eventBus.Event;
+import org.zaproxy.zap.eventBus.EventPublisher;
+import org.zaproxy.zap.extension.alert.AlertEventPublisher;
+import org.zaproxy.zap.utils.ZapXmlConfiguration;
+
+import javax.swing.tree.TreeNode;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.blackduck.zap.srm.SrmTestUtils.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ContinuousUploaderTest {
+
+	private static final String SITE_A = "http://a.example:8080";
+	private static final String SITE_B = "http://b.example:8080";
+
+	private Path dir;
+	private MockSrm srm;
+	private CloseableHttpClient client;
+	private UploadQueue queue;
+	private ContinuousUploader uploader;
+
+	private SiteNode root;
+	private SiteMap siteTree;
+	private SiteNode siteA;
+	private SiteNode siteB;
+	private final List<Alert> siteAAlerts = new ArrayList<>();
+	private final List<Alert> siteBAlerts = new ArrayList<>();
+
+	@BeforeEach
+	void setUp(@TempDir Path dir) throws Exception {
+		this.dir = dir;
+		root = mock(SiteNode.class);
+		siteA = mockNode(SITE_A, siteAAlerts, root);
+		siteB = mockNode(SITE_B, siteBAlerts, root);
+		when(root.getChildCount()).thenReturn(2);
+		when(root.getChildAt(0)).thenReturn(siteA);
+		when(root.getChildAt(1)).thenReturn(siteB);
+		siteTree = mock(SiteMap.class);
+		when(siteTree.getRoot()).thenReturn(root);
+
+		ZapXmlConfiguration config = SrmTestUtils.setUpZap(dir, siteTree);
+		srm = new MockSrm();
+		config.setProperty("srm.serverUrl", srm.getUrl());
+		config.setProperty("srm.apiKey", "api-key");
+		config.setProperty("srm.selectedId", "7");
+		config.setProperty("srm.continuousFlushAlerts", "1");
+
+		SrmExtension extension = mock(SrmExtension.class);
+		client = HttpClients.createDefault();
+		when(extension.getHttpClient(anyString(), any(), anyBoolean())).thenReturn(client);
+		queue = new UploadQueue(extension, dir.resolve("uploads"), 1);
+		when(extension.getUploadQueue()).thenReturn(queue);
+		when(extension.getUploadWatermarks()).thenReturn(new UploadWatermarks(dir.resolve("watermarks")));
+		uploader = new ContinuousUploader(extension);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		uploader.shutdown();
+		queue.shutdown();
+		srm.close();
+		client.close();
+	}
+
+	@Test
+	void shouldUploadOnlyTheNewAlertsOfTheSitesTheyWereRaisedOn() throws Exception {
+		// Given
+		Alert login = addAlert(siteA, siteAAlerts, 1, 10, SITE_A + "/login");
+		addAlert(siteB, siteBAlerts, 2, 20, SITE_B + "/");
+		// The first upload catches up with the alerts raised before
+		uploader.eventReceived(alertRaised(login, 10));
+		await(() -> uploader.getUploadedAlerts() == 2, "first upload");
+		clearInvocations(siteB);
+		// When
+		Alert search = addAlert(siteA, siteAAlerts, 3, 11, SITE_A + "/search");
+		uploader.eventReceived(alertRaised(search, 11));
+		await(() -> uploader.getUploadedAlerts() == 3, "second upload");
+		// Then
+		List<MockSrm.Upload> uploads = srm.getUploads();
+		assertEquals(2, uploads.size());
+		assertEquals("/api/projects/7/analysis", uploads.get(0).path);
+		assertEquals("api-key", uploads.get(0).apiKey);
+		assertTrue(uploads.get(0).body.contains(SITE_A + "/login"));
+		assertTrue(uploads.get(0).body.contains(SITE_B + "/"));
+		String second = uploads.get(1).body;
+		assertTrue(second.contains(SITE_A + "/search"));
+		assertFalse(second.contains(SITE_A + "/login"), "alert already uploaded");
+		assertFalse(second.contains(SITE_B), "site without new alerts");
+		verify(siteB, never()).getAlerts();
+	}
+
+	@Test
+	void shouldUploadAgainOnceItsQueuedUploadIsCancelled() throws Exception {
+		// Given
+		srm.blockUploads();
+		File report = Files.writeString(dir.resolve("report.xml"), "<OWASPZAPReport></OWASPZAPReport>").toFile();
+		UploadTarget target = new UploadTarget(srm.getUrl(), "api-key", "7", null, false);
+		queue.enqueue(report, true, target, null);
+		await(() -> srm.getUploads().size() == 1, "upload in progress");
+		Alert login = addAlert(siteA, siteAAlerts, 1, 10, SITE_A + "/login");
+		uploader.eventReceived(alertRaised(login, 10));
+		await(() -> queue.getDepth() == 2, "continuous upload queued");
+		UploadQueue.Item item = queue.getItems().get(1);
+		assertEquals(UploadQueue.Status.QUEUED, item.getStatus());
+		assertTrue(uploader.isUploading());
+		// When
+		assertTrue(queue.cancel(item.getId()));
+		// Then
+		assertFalse(uploader.isUploading());
+		srm.unblockUploads();
+		Alert search = addAlert(siteA, siteAAlerts, 2, 11, SITE_A + "/search");
+		uploader.eventReceived(alertRaised(search, 11));
+		await(() -> uploader.getUploadedAlerts() == 2, "upload after the cancel");
+		String body = srm.getUploads().get(1).body;
+		assertTrue(body.contains(SITE_A + "/login"), "alert of the cancelled upload");
+		assertTrue(body.contains(SITE_A + "/search"));
+	}
+
+	private static SiteNode mockNode(String name, List<Alert> alerts, TreeNode... ancestors) {
+		SiteNode node = mock(SiteNode.class);
+		when(node.getNodeName()).thenReturn(name);
+		when(node.getAlerts()).thenAnswer(invocation -> new ArrayList<>(alerts));
+		TreeNode[] path = new TreeNode[ancestors.length + 1];
+		System.arraycopy(ancestors, 0, path, 0, ancestors.length);
+		path[ancestors.length] = node;
+		when(node.getPath()).thenReturn(path);
+		return node;
+	}
+
+	/**
+	 * Adds an alert to the given site, raised on the message with the given history id, in a node
+	 * of its own.
+	 */
+	private Alert addAlert(SiteNode site, List<Alert> siteAlerts, int id, int historyId, String uri) {
+		Alert alert = new Alert(40012, Alert.RISK_HIGH, Alert.CONFIDENCE_MEDIUM, "Cross Site Scripting (Reflected)");
+		alert.setAlertId(id);
+		alert.setUri(uri);
+		alert.setParam("q");
+		List<Alert> nodeAlerts = new ArrayList<>();
+		nodeAlerts.add(alert);
+		SiteNode node = mockNode(uri.substring(uri.lastIndexOf('/') + 1), nodeAlerts, root, site);
+		when(siteTree.getSiteNode(historyId)).thenReturn(node);
+		siteAlerts.add(alert);
+		return alert;
+	}
+
+	private static Event alertRaised(Alert alert, int historyId) {
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put(AlertEventPublisher.ALERT_ID, Integer.toString(alert.getAlertId()));
+		parameters.put(AlertEventPublisher.HISTORY_REFERENCE_ID, Integer.toString(historyId));
+		parameters.put(AlertEventPublisher.URI, alert.getUri());
+		return new Event(mock(EventPublisher.class), AlertEventPublisher.ALERT_ADDED_EVENT, null, parameters);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local Software Risk Manager server, recording the reports uploaded to it and answering the
+ * status requests of the analysis jobs.
+ */
+class MockSrm implements AutoCloseable {
+
+	private final HttpServer server;
+	private final List<Upload> uploads = new ArrayList<>();
+	private final Map<String, String> jobStatuses = new ConcurrentHashMap<>();
+	private final Set<String> heldJobs = ConcurrentHashMap.newKeySet();
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	private volatile int uploadStatus = 200;
+	private volatile String uploadResponse = "";
+	private volatile CountDownLatch uploadsBlocked;
+	private volatile boolean uploadsDropped;
+
+	MockSrm() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/api/projects/", this::handleUpload);
+		server.createContext("/api/jobs/", this::handleJobStatus);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Sets the response to the uploads, 200 with no content by default.
+	 */
+	void setUploadResponse(int status, String response) {
+		uploadStatus = status;
+		uploadResponse = response;
+	}
+
+	/**
+	 * Holds the uploads, once received, until {@link #unblockUploads()} is called.
+	 */
+	void blockUploads() {
+		uploadsBlocked = new CountDownLatch(1);
+	}
+
+	void unblockUploads() {
+		CountDownLatch blocked = uploadsBlocked;
+		uploadsBlocked = null;
+		if (blocked != null) {
+			blocked.countDown();
+		}
+	}
+
+	/**
+	 * Drops the connection of the uploads once the start of their body was received, without
+	 * answering them.
+	 */
+	void dropUploads() {
+		uploadsDropped = true;
+	}
+
+	/**
+	 * Sets the status returned for the given analysis job, the unknown jobs are not found.
+	 */
+	void setJobStatus(String jobId, String status) {
+		jobStatuses.put(jobId, status);
+	}
+
+	/**
+	 * Never answers the status requests of the given analysis job.
+	 */
+	void holdJobStatus(String jobId) {
+		heldJobs.add(jobId);
+	}
+
+	List<Upload> getUploads() {
+		synchronized (uploads) {
+			return new ArrayList<>(uploads);
+		}
+	}
+
+	@Override
+	public void close() {
+		unblockUploads();
+		closed.countDown();
+		server.stop(0);
+	}
+
+	private void handleUpload(HttpExchange exchange) throws IOException {
+		if (uploadsDropped) {
+			// Closed before the response is sent, the connection is closed with the rest of the body
+			String start = new String(exchange.getRequestBody().readNBytes(1024), StandardCharsets.UTF_8);
+			synchronized (uploads) {
+				uploads.add(new Upload(exchange.getRequestURI().getPath(), exchange.getRequestHeaders().getFirst("API-Key"), start));
+			}
+			exchange.close();
+			return;
+		}
+		String body;
+		try (InputStream is = exchange.getRequestBody()) {
+			body = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		synchronized (uploads) {
+			uploads.add(new Upload(exchange.getRequestURI().getPath(), exchange.getRequestHeaders().getFirst("API-Key"), body));
+		}
+		CountDownLatch blocked = uploadsBlocked;
+		if (blocked != null) {
+			try {
+				blocked.await(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		respond(exchange, uploadStatus, uploadResponse);
+	}
+
+	private void handleJobStatus(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String jobId = path.substring(path.lastIndexOf('/') + 1);
+		if (heldJobs.contains(jobId)) {
+			try {
+				closed.await(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+			return;
+		}
+		String status = jobStatuses.get(jobId);
+		if (status == null) {
+			respond(exchange, 404, "");
+		} else {
+			respond(exchange, 200, "{\"id\": \"" + jobId + "\", \"status\": \"" + status + "\"}");
+		}
+	}
+
+	static void respond(HttpExchange exchange, int status, String response) throws IOException {
+		byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		if (bytes.length != 0) {
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		}
+		exchange.close();
+	}
+
+	/**
+	 * A report uploaded: the path it was posted to, the API key and the multipart body.
+	 */
+	static class Upload {
+		final String path;
+		final String apiKey;
+		final String body;
+
+		Upload(String path, String apiKey, String body) {
+			this.path = path;
+			this.apiKey = apiKey;
+			this.body = body;
+		}
+	}
+}
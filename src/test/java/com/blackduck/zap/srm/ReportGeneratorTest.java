@@ -0,0 +1,130 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.Test;
+import org.zaproxy.zap.utils.XMLStringUtil;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ReportGeneratorTest {
+
+	// The kinds of chrs escaped differently: safe, entities, control, C1, surrogates and non-chrs
+	private static final char[] ALPHABET = {
+			'a', 'Z', '0', ' ', '\t', '\n', '\r', '\u00e9', '\u20ac', '\ufffd',
+			'&', '<', '>', '"', '\'',
+			'\u0000', '\u0001', '\u001f', '\u007f',
+			'\u0080', '\u0085', '\u009f',
+			'\ud83d', '\ude00', '\udbff', '\udc00',
+			'\ufffe', '\uffff'
+	};
+
+	@Test
+	void shouldEncodeAsTheEscapeFunctions() throws Exception {
+		String[] texts = {
+				"",
+				"plain ASCII text",
+				"a & b < c > d \" e ' f",
+				"&amp;&lt;&#x1;",
+				"tab\tnew line\ncarriage return\r",
+				"\u0000\u0001\u0008\u000b\u000c\u001f\u007f",
+				"C1 \u0080\u0085\u009f end",
+				"\u00a0\u00e9\u20ac\ud7ff\ue000\ufffd",
+				"emoji \ud83d\ude00 pair",
+				"lone high \ud83d surrogate",
+				"lone low \ude00 surrogate",
+				"high at the end \ud83d",
+				"\ude00 low at the start",
+				"reversed \ude00\ud83d pair",
+				"non chrs \ufffe\uffff",
+				"<\u0001&\ud83d\ude00\u0085'x\ude00>\u0000\"",
+				"\u0001<\u0002>\u0003&\u0004",
+				"\ud83d<\ude00",
+		};
+		for (String text : texts) {
+			assertEncodedAsTheEscapeFunctions(text);
+		}
+	}
+
+	@Test
+	void shouldEncodeEachChrAsTheEscapeFunctions() throws Exception {
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			String chr = String.valueOf((char) c);
+			assertEncodedAsTheEscapeFunctions(chr);
+			assertEncodedAsTheEscapeFunctions("a" + chr + "b");
+		}
+	}
+
+	@Test
+	void shouldEncodeMixedRunsAsTheEscapeFunctions() throws Exception {
+		Random random = new Random(42);
+		for (int i = 0; i < 10_000; i++) {
+			char[] text = new char[random.nextInt(24)];
+			for (int j = 0; j < text.length; j++) {
+				text[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+			}
+			assertEncodedAsTheEscapeFunctions(new String(text));
+		}
+	}
+
+	@Test
+	void shouldEncodeNullAsAppendDoes() throws Exception {
+		StringBuilder sb = new StringBuilder("x");
+		ReportGenerator.entityEncode(null, sb);
+		StringWriter writer = new StringWriter();
+		ReportGenerator.entityEncode(null, writer);
+
+		assertNull(ReportGenerator.entityEncode(null));
+		assertEquals("xnull", sb.toString());
+		assertEquals("null", writer.toString());
+	}
+
+	/**
+	 * Asserts that every way of encoding the given text gives exactly the output of the escape
+	 * functions it replaces.
+	 */
+	private static void assertEncodedAsTheEscapeFunctions(String text) throws IOException {
+		String expected = StringEscapeUtils.escapeXml10(XMLStringUtil.escapeControlChrs(text));
+		String message = "encoding " + toCodePoints(text);
+
+		assertEquals(expected, ReportGenerator.entityEncode(text), message);
+
+		StringBuilder sb = new StringBuilder("prefix");
+		ReportGenerator.entityEncode(text, sb);
+		assertEquals("prefix" + expected, sb.toString(), message);
+
+		StringWriter writer = new StringWriter();
+		writer.write("prefix");
+		ReportGenerator.entityEncode(text, writer);
+		assertEquals("prefix" + expected, writer.toString(), message);
+	}
+
+	private static String toCodePoints(String text) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			sb.append(String.format("\\u%04x", (int) text.charAt(i)));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.xml.XMLSerializer;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReportJsonConverterTest {
+
+	private static final String REPORT_START = "<?xml version=\"1.0\"?>"
+			+ "<OWASPZAPReport version=\"2.14.0\" generated=\"Sat, 17 Oct 2026 10:00:00\">\r\n";
+	private static final String REPORT_END = "</OWASPZAPReport>";
+
+	private static final String SITE_A = "<site name=\"https://a.example\" host=\"a.example\" port=\"443\" ssl=\"true\">"
+			+ "<alerts>"
+			+ "<alertitem>"
+			+ "<pluginid>40012</pluginid>"
+			+ "<alert>Cross Site Scripting (Reflected)</alert>"
+			+ "<riskcode>3</riskcode>"
+			+ "<desc>&lt;p&gt;Reflected &amp; unescaped&lt;/p&gt;</desc>"
+			+ "<instances>"
+			+ "<instance><uri>https://a.example/search?q=1</uri><method>GET</method><param>q</param></instance>"
+			+ "<instance><uri>https://a.example/login</uri><method>POST</method><param>user</param></instance>"
+			+ "</instances>"
+			+ "<count>2</count>"
+			+ "<reference></reference>"
+			+ "</alertitem>"
+			+ "<alertitem>"
+			+ "<pluginid>10020</pluginid>"
+			+ "<alert>Missing Anti-clickjacking Header</alert>"
+			+ "<riskcode>2</riskcode>"
+			+ "<instances>"
+			+ "<instance><uri>https://a.example/</uri><method>GET</method></instance>"
+			+ "</instances>"
+			+ "<count>1</count>"
+			+ "</alertitem>"
+			+ "</alerts>"
+			+ "</site>";
+	private static final String SITE_B = "<site name=\"http://b.example:8080\" host=\"b.example\" port=\"8080\" ssl=\"false\">"
+			+ "<alerts>"
+			+ "<alertitem>"
+			+ "<pluginid>10038</pluginid>"
+			+ "<alert>Content Security Policy (CSP) Header Not Set</alert>"
+			+ "<riskcode>2</riskcode>"
+			+ "<instances>"
+			+ "<instance><uri>http://b.example:8080/</uri><method>GET</method></instance>"
+			+ "</instances>"
+			+ "<count>1</count>"
+			+ "</alertitem>"
+			+ "</alerts>"
+			+ "</site>";
+	private static final String SITE_WITHOUT_ALERTS = "<site name=\"http://c.example\" host=\"c.example\" port=\"80\" ssl=\"false\">"
+			+ "<alerts></alerts>"
+			+ "</site>";
+
+	@Test
+	void shouldConvertLikeXmlSerializerSeveralSites() throws Exception {
+		assertSameAsXmlSerializer(REPORT_START + SITE_A + SITE_B + SITE_WITHOUT_ALERTS + REPORT_END);
+	}
+
+	@Test
+	void shouldConvertLikeXmlSerializerASingleSite() throws Exception {
+		String json = assertSameAsXmlSerializer(REPORT_START + SITE_A + REPORT_END);
+		// Still an array
+		assertEquals(1, JSONObject.fromObject(json).getJSONArray("site").size());
+	}
+
+	@Test
+	void shouldConvertLikeXmlSerializerAReportWithoutSites() throws Exception {
+		String json = assertSameAsXmlSerializer(REPORT_START + REPORT_END);
+		assertEquals(0, JSONObject.fromObject(json).getJSONArray("site").size());
+	}
+
+	@Test
+	void shouldFailToConvertXmlWithoutElements() {
+		assertThrows(XMLStreamException.class, () -> convert("<?xml version=\"1.0\"?>"));
+		assertThrows(XMLStreamException.class, () -> convert("<!-- No report -->"));
+	}
+
+	/**
+	 * Converts the given report, asserting that the JSON is the one of the {@code XMLSerializer}
+	 * with the sites always in an array, the conversion used before.
+	 *
+	 * @return the JSON
+	 */
+	private static String assertSameAsXmlSerializer(String xml) throws Exception {
+		String json = convert(xml);
+		assertEquals(convertWithXmlSerializer(xml), JSONObject.fromObject(json));
+		return json;
+	}
+
+	private static String convert(String xml) throws Exception {
+		StringWriter json = new StringWriter();
+		ReportJsonConverter.convert(new StringReader(xml), json);
+		return json.toString();
+	}
+
+	private static JSONObject convertWithXmlSerializer(String xml) {
+		JSONObject report = (JSONObject) new XMLSerializer().read(xml);
+		Object site = report.get("site");
+		if (!(site instanceof JSONArray)) {
+			JSONArray siteArray = new JSONArray();
+			if (site != null) {
+				siteArray.add(site);
+			}
+			report.put("site", siteArray);
+		}
+		return report;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.HistoryReference;
+import org.parosproxy.paros.model.SiteMap;
+import org.parosproxy.paros.model.SiteNode;
+import org.parosproxy.paros.network.HttpBody;
+import org.parosproxy.paros.network.HttpHeader;
+import org.parosproxy.paros.network.HttpMessage;
+import org.parosproxy.paros.network.HttpRequestBody;
+import org.parosproxy.paros.network.HttpRequestHeader;
+import org.parosproxy.paros.network.HttpResponseBody;
+import org.parosproxy.paros.network.HttpResponseHeader;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReportLastScanTest {
+
+	private static final int SITES = 12;
+
+	private SiteNode root;
+
+	@BeforeEach
+	void setUp(@TempDir Path dir) throws Exception {
+		root = mock(SiteNode.class);
+		SiteMap siteTree = mock(SiteMap.class);
+		when(siteTree.getRoot()).thenReturn(root);
+		SrmTestUtils.setUpZap(dir, siteTree);
+		AlertFingerprintIndex.closeShared();
+		mockSites();
+	}
+
+	@AfterEach
+	void tearDown() {
+		AlertFingerprintIndex.closeShared();
+	}
+
+	@Test
+	void shouldGenerateTheSameReportInParallel() throws Exception {
+		for (ExtensionAlertHttp.MessageLayout layout : ExtensionAlertHttp.MessageLayout.values()) {
+			for (ExtensionAlertHttp.SeenAlerts seenAlerts : ExtensionAlertHttp.SeenAlerts.values()) {
+				// Given
+				ReportOptions options = new ReportOptions(HttpDataLimits.fromProperties(), layout, null, null, seenAlerts);
+				// When
+				String sequential = generate(options, 1);
+				String parallel = generate(options, 4);
+				// Then
+				assertEquals(sequential, parallel, layout + " layout, " + seenAlerts + " seen alerts");
+			}
+		}
+	}
+
+	@Test
+	void shouldMarkTheSameAlertsInParallel() throws Exception {
+		// Given
+		ReportOptions options = new ReportOptions(HttpDataLimits.fromProperties(), ExtensionAlertHttp.MessageLayout.SHARED, null, null, ExtensionAlertHttp.SeenAlerts.MARK);
+		// When
+		String parallel = generate(options, 4);
+		// Then
+		assertEquals(generate(options, 1), parallel);
+		assertTrue(parallel.contains("<seen>true</seen>"), "alerts marked");
+		assertTrue(parallel.contains("<messages>"), "messages shared");
+	}
+
+	/**
+	 * Generates the XML report, without its generation time, building the given number of sites
+	 * at the same time.
+	 */
+	private static String generate(ReportOptions options, int parallelism) throws Exception {
+		ReportLastScanHttp report = new ReportLastScanHttp(options.forUpload());
+		report.setParallelism(parallelism);
+		StringWriter writer = new StringWriter();
+		report.generate(writer);
+		return writer.toString().replaceFirst(" generated=\"[^\"]*\"", "");
+	}
+
+	/**
+	 * Mocks sites of different sizes, with alerts sharing their message, alerts repeated in a
+	 * site and alerts already recorded as seen.
+	 */
+	private void mockSites() throws Exception {
+		AlertFingerprintIndex index = AlertFingerprintIndex.getShared();
+		when(root.getChildCount()).thenReturn(SITES);
+		int historyId = 1;
+		for (int s = 0; s < SITES; s++) {
+			String name = "http://site" + s + ".example:8080";
+			List<Alert> alerts = new ArrayList<>();
+			for (int a = 0; a < s * 7 % 20; a++) {
+				// Two alerts per message
+				Alert alert = newAlert(alerts.size() + 1, name + "/page" + a / 2, "p" + a, historyId + a / 2);
+				alerts.add(alert);
+				if (a % 5 == 0) {
+					// Raised twice, the second one is seen
+					alerts.add(newAlert(alerts.size() + 1, alert.getUri(), alert.getParam(), historyId + a / 2));
+				}
+				if (a % 3 == 0) {
+					index.add(AlertFingerprint.of(alert));
+				}
+			}
+			historyId += 10;
+			SiteNode site = mock(SiteNode.class);
+			when(site.getNodeName()).thenReturn(name);
+			when(site.getAlerts()).thenAnswer(invocation -> new ArrayList<>(alerts));
+			when(root.getChildAt(s)).thenReturn(site);
+		}
+	}
+
+	private static Alert newAlert(int id, String uri, String param, int historyId) throws Exception {
+		Alert alert = new Alert(40012, Alert.RISK_HIGH, Alert.CONFIDENCE_MEDIUM, "Cross Site Scripting (Reflected)");
+		alert.setAlertId(id);
+		alert.setUri(uri);
+		alert.setParam(param);
+		alert.setEvidence("<script>" + param + "</script>");
+		HttpMessage message = mock(HttpMessage.class);
+		HttpRequestHeader requestHeader = mockHeader(HttpRequestHeader.class, "GET " + uri + " HTTP/1.1\r\n\r\n");
+		HttpResponseHeader responseHeader = mockHeader(HttpResponseHeader.class, "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n");
+		HttpRequestBody requestBody = mockBody(HttpRequestBody.class, "");
+		HttpResponseBody responseBody = mockBody(HttpResponseBody.class, "<html>" + param + " & \u0001</html>");
+		when(message.getRequestHeader()).thenReturn(requestHeader);
+		when(message.getRequestBody()).thenReturn(requestBody);
+		when(message.getResponseHeader()).thenReturn(responseHeader);
+		when(message.getResponseBody()).thenReturn(responseBody);
+		HistoryReference historyRef = mock(HistoryReference.class);
+		when(historyRef.getHistoryId()).thenReturn(historyId);
+		when(historyRef.getHttpMessage()).thenReturn(message);
+		alert.setHistoryRef(historyRef);
+		alert.setMessage(message);
+		return alert;
+	}
+
+	private static <T extends HttpHeader> T mockHeader(Class<T> type, String text) {
+		T header = mock(type);
+		when(header.toString()).thenReturn(text);
+		when(header.getHeader(HttpHeader.CONTENT_TYPE)).thenReturn("text/html");
+		return header;
+	}
+
+	private static <T extends HttpBody> T mockBody(Class<T> type, String text) {
+		T body = mock(type);
+		when(body.toString()).thenReturn(text);
+		when(body.length()).thenReturn(text.length());
+		return body;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.model.Model;
+import org.parosproxy.paros.model.OptionsParam;
+import org.parosproxy.paros.model.Session;
+import org.parosproxy.paros.model.SiteMap;
+import org.zaproxy.zap.utils.I18N;
+import org.zaproxy.zap.utils.ZapXmlConfiguration;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sets up the parts of ZAP used by the add-on, without starting ZAP.
+ */
+final class SrmTestUtils {
+
+	private SrmTestUtils() {
+	}
+
+	/**
+	 * Sets the ZAP home directory, the messages, returning their keys, and a model with the given
+	 * site tree and an empty configuration, where the add-on options are read from.
+	 *
+	 * @return the configuration, to set the add-on options
+	 */
+	static ZapXmlConfiguration setUpZap(Path zapHome, SiteMap siteTree) {
+		Constant.setZapHome(zapHome.toString());
+		I18N messages = mock(I18N.class);
+		when(messages.getString(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+		Constant.messages = messages;
+
+		ZapXmlConfiguration config = new ZapXmlConfiguration();
+		OptionsParam optionsParam = mock(OptionsParam.class);
+		when(optionsParam.getConfig()).thenReturn(config);
+		Session session = mock(Session.class);
+		when(session.getSiteTree()).thenReturn(siteTree);
+		Model model = mock(Model.class);
+		when(model.getOptionsParam()).thenReturn(optionsParam);
+		when(model.getSession()).thenReturn(session);
+		Model.setSingletonForTesting(model);
+		return config;
+	}
+
+	/**
+	 * Waits for the given condition, failing after 10 seconds.
+	 */
+	static void await(BooleanSupplier condition, String message) throws InterruptedException {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < end, message);
+			Thread.sleep(20);
+		}
+	}
+}
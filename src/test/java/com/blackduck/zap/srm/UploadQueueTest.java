@@ -0,0 +1,198 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blackduck.zap.srm;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parosproxy.paros.core.scanner.Alert;
+import org.parosproxy.paros.model.SiteMap;
+import org.parosproxy.paros.model.SiteNode;
+import org.zaproxy.zap.utils.ZapXmlConfiguration;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.blackduck.zap.srm.SrmTestUtils.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UploadQueueTest {
+
+	private Path dir;
+	private Path spoolDir;
+	private SiteMap siteTree;
+	private MockSrm srm;
+	private CloseableHttpClient client;
+	private SrmExtension extension;
+	private UploadQueue queue;
+
+	@BeforeEach
+	void setUp(@TempDir Path dir) throws Exception {
+		this.dir = dir;
+		spoolDir = dir.resolve("uploads");
+		siteTree = mock(SiteMap.class);
+		ZapXmlConfiguration config = SrmTestUtils.setUpZap(dir, siteTree);
+		srm = new MockSrm();
+		config.setProperty("srm.serverUrl", srm.getUrl());
+		config.setProperty("srm.apiKey", "api-key");
+		extension = mock(SrmExtension.class);
+		client = HttpClients.createDefault();
+		when(extension.getHttpClient(anyString(), any(), anyBoolean())).thenReturn(client);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		if (queue != null) {
+			queue.shutdown();
+		}
+		srm.close();
+		client.close();
+	}
+
+	@Test
+	void shouldNotOverwriteTheSpooledReportsWhenQueuedBeforeResuming() throws Exception {
+		// Given
+		spool(1, "<OWASPZAPReport>previous</OWASPZAPReport>");
+		queue = new UploadQueue(extension, spoolDir, 1);
+		File report = Files.writeString(dir.resolve("report.xml"), "<OWASPZAPReport>current</OWASPZAPReport>").toFile();
+		// When
+		UploadQueue.Item item = queue.enqueue(report, true, new UploadTarget(srm.getUrl(), "api-key", "7", null, false), null);
+		queue.resume();
+		// Then
+		await(() -> srm.getUploads().size() == 2, "both uploads");
+		assertEquals(2, item.getId());
+		List<MockSrm.Upload> uploads = srm.getUploads();
+		assertTrue(uploads.stream().anyMatch(upload -> upload.body.contains("previous")), "spooled report");
+		assertTrue(uploads.stream().anyMatch(upload -> upload.body.contains("current")), "queued report");
+	}
+
+	@Test
+	void shouldNotSpoolTheApiKey() throws Exception {
+		// Given
+		srm.blockUploads();
+		queue = new UploadQueue(extension, spoolDir, 1);
+		File report = Files.writeString(dir.resolve("report.xml"), "<OWASPZAPReport></OWASPZAPReport>").toFile();
+		// When
+		UploadQueue.Item item = queue.enqueue(report, true, new UploadTarget(srm.getUrl(), "api-key", "7", null, false), null);
+		// Then
+		String metadata = Files.readString(spoolDir.resolve(item.getId() + ".properties"));
+		assertFalse(metadata.contains("api-key"), metadata);
+	}
+
+	@Test
+	void shouldNotKeepAcrossRestartsTheReportsUploadedWithAnotherApiKey() throws Exception {
+		// Given
+		srm.blockUploads();
+		queue = new UploadQueue(extension, spoolDir, 1);
+		File report = Files.writeString(dir.resolve("report.xml"), "<OWASPZAPReport></OWASPZAPReport>").toFile();
+		// When
+		UploadQueue.Item item = queue.enqueue(report, true, new UploadTarget(srm.getUrl(), "other-key", "7", null, false), null);
+		// Then
+		assertTrue(Files.exists(spoolDir.resolve(item.getId() + ".xml")), "report spooled");
+		assertFalse(Files.exists(spoolDir.resolve(item.getId() + ".properties")), "metadata not spooled");
+		await(() -> srm.getUploads().size() == 1, "upload");
+		assertEquals("other-key", srm.getUploads().get(0).apiKey);
+	}
+
+	@Test
+	void shouldResumeWithTheSavedApiKey() throws Exception {
+		// Given
+		spool(1, "<OWASPZAPReport>previous</OWASPZAPReport>");
+		queue = new UploadQueue(extension, spoolDir, 1);
+		// When
+		queue.resume();
+		// Then
+		await(() -> srm.getUploads().size() == 1, "resumed upload");
+		assertEquals("api-key", srm.getUploads().get(0).apiKey);
+	}
+
+	@Test
+	void shouldFailInsteadOfDeferringTheReportGeneratedWhileUploadedOnceWritten() throws Exception {
+		// Given
+		int alertCount = mockSite("http://a.example", 2000);
+		srm.dropUploads();
+		AtomicReference<String> error = new AtomicReference<>();
+		queue = new UploadQueue(extension, spoolDir, 1);
+		// When
+		UploadQueue.Item item = queue.enqueue(ReportOptions.fromProperties().forUpload(),
+				new UploadTarget(srm.getUrl(), "api-key", "7", null, false), (uploaded, err) -> error.set(err));
+		// Then
+		await(() -> error.get() != null, "upload failed");
+		assertNotNull(error.get());
+		assertEquals(0, queue.getDepth());
+		assertEquals(UploadQueue.Status.FINISHED, item.getStatus());
+		assertEquals(1, srm.getUploads().size(), "report generated once");
+		assertTrue(item.getProgress().getAlertsWritten() <= alertCount, "alerts written once");
+	}
+
+	/**
+	 * Mocks a site tree with a single site, with the given number of alerts with large evidence,
+	 * a report too large to be sent at once.
+	 */
+	private int mockSite(String name, int alertCount) {
+		List<Alert> alerts = new ArrayList<>();
+		String evidence = "x".repeat(10_000);
+		for (int i = 0; i < alertCount; i++) {
+			Alert alert = new Alert(40012, Alert.RISK_HIGH, Alert.CONFIDENCE_MEDIUM, "Cross Site Scripting (Reflected)");
+			alert.setAlertId(i + 1);
+			alert.setUri(name + "/" + i);
+			alert.setParam("q");
+			alert.setEvidence(evidence);
+			alerts.add(alert);
+		}
+		SiteNode root = mock(SiteNode.class);
+		SiteNode site = mock(SiteNode.class);
+		when(site.getNodeName()).thenReturn(name);
+		when(site.getAlerts()).thenAnswer(invocation -> new ArrayList<>(alerts));
+		when(root.getChildCount()).thenReturn(1);
+		when(root.getChildAt(0)).thenReturn(site);
+		when(siteTree.getRoot()).thenReturn(root);
+		return alertCount;
+	}
+
+	private void spool(long id, String report) throws Exception {
+		Files.createDirectories(spoolDir);
+		Files.writeString(spoolDir.resolve(id + ".xml"), report);
+		Properties metadata = new Properties();
+		metadata.setProperty("serverUrl", srm.getUrl());
+		metadata.setProperty("savedApiKey", "true");
+		metadata.setProperty("projectId", "7");
+		metadata.setProperty("created", "0");
+		metadata.setProperty("reports", "1");
+		try (OutputStream os = Files.newOutputStream(spoolDir.resolve(id + ".properties"))) {
+			metadata.store(os, null);
+		}
+	}
+}